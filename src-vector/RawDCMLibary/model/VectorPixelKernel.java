@@ -0,0 +1,279 @@
+package RawDCMLibary.model;
+
+import java.util.Arrays;
+import java.util.Random;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The pixel kernels with the Vector API of JDK 16 and later, which is still
+ * incubating: the JVM has to be started with
+ * <code>--add-modules jdk.incubator.vector</code>, else this class cannot be
+ * loaded and {@link PixelKernels} keeps the scalar kernel. The pixels that do
+ * not fill a whole vector are left to the scalar kernel.
+ *
+ * <p>
+ * As the API changes between JDKs, {@link #isSupported()} runs every kernel
+ * once and compares it with the scalar one; on any difference, or if a method
+ * is missing, the kernel is not used.</p>
+ */
+public final class VectorPixelKernel implements PixelKernel {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * Ints, in the widest vectors the machine has.
+     */
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Shorts, as many as {@link #INTS} has lanes.
+     */
+    private static final VectorSpecies<Short> SHORTS_OF_INTS
+            = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+    /**
+     * Shorts, in the widest vectors the machine has.
+     */
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+    /**
+     * Bytes, in vectors as wide as {@link #SHORTS}.
+     */
+    private static final VectorSpecies<Byte> BYTES_OF_SHORTS = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * Bytes, as many as {@link #INTS} has lanes, <code>null</code> if the
+     * vectors are too narrow for that.
+     */
+    private static final VectorSpecies<Byte> BYTES_OF_INTS = INTS.vectorBitSize() / 4 >= 64
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.vectorBitSize() / 4)) : null;
+
+    /**
+     * Ints with <code>1 &lt;&lt; n</code> in lane <code>n</code>, to gather a
+     * mask into the bits of an int, <code>null</code> if {@link #INTS} has
+     * more than 32 lanes.
+     */
+    private static final IntVector LANE_BITS = INTS.length() <= 32
+            ? IntVector.broadcast(INTS, 1).lanewise(VectorOperators.LSHL, IntVector.zero(INTS).addIndex(1)) : null;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * Kernel for the pixels after the last whole vector.
+     */
+    private final PixelKernel scalar = PixelKernels.getScalar();
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns whether the machine has vectors of at least four ints and every
+     * kernel gives the results of the scalar one.
+     *
+     * @return <code>true</code> if the kernel may be used
+     */
+    @Override
+    public boolean isSupported() {
+        if (INTS.length() < 4) {
+            return false;
+        }
+        try {
+            return selfTest();
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void decodeShorts(byte[] src, int srcPos, short[] dst, int dstPos, int length, boolean bigEndian) {
+        final int step = SHORTS.length();
+        final int bound = SHORTS.loopBound(length);
+        int i = 0;
+
+        for (; i < bound; i += step) {
+            // lanes are reinterpreted in little endian order
+            ShortVector v = ByteVector.fromArray(BYTES_OF_SHORTS, src, srcPos + 2 * i).reinterpretAsShorts();
+            if (bigEndian) {
+                v = v.lanewise(VectorOperators.LSHL, 8).or(v.lanewise(VectorOperators.LSHR, 8));
+            }
+            v.intoArray(dst, dstPos + i);
+        }
+        scalar.decodeShorts(src, srcPos + 2 * i, dst, dstPos + i, length - i, bigEndian);
+    }
+
+    @Override
+    public void widen(short[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed) {
+        final int step = INTS.length();
+        final int bound = INTS.loopBound(length);
+        int i = 0;
+
+        // sign extended and masked, ZERO_EXTEND_S2I fails on some JDKs
+        for (; i < bound; i += step) {
+            final IntVector v = ShortVector.fromArray(SHORTS_OF_INTS, src, srcPos + i)
+                    .convertShape(VectorOperators.S2I, INTS, 0).reinterpretAsInts();
+            (signed ? v : v.and(0xFFFF)).intoArray(dst, dstPos + i);
+        }
+        scalar.widen(src, srcPos + i, dst, dstPos + i, length - i, signed);
+    }
+
+    @Override
+    public void widen(byte[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed) {
+        int i = 0;
+
+        if (BYTES_OF_INTS != null) {
+            final int step = INTS.length();
+            final int bound = INTS.loopBound(length);
+            for (; i < bound; i += step) {
+                final IntVector v = ByteVector.fromArray(BYTES_OF_INTS, src, srcPos + i)
+                        .convertShape(VectorOperators.B2I, INTS, 0).reinterpretAsInts();
+                (signed ? v : v.and(0xFF)).intoArray(dst, dstPos + i);
+            }
+        }
+        scalar.widen(src, srcPos + i, dst, dstPos + i, length - i, signed);
+    }
+
+    @Override
+    public void mask(int[] buffer, int from, int to, int bits, boolean signed, boolean padded, int pad) {
+        final int shift = 32 - bits;
+        final VectorOperators.Binary extend = signed ? VectorOperators.ASHR : VectorOperators.LSHR;
+        final int step = INTS.length();
+        final int bound = from + INTS.loopBound(to - from);
+        int i = from;
+
+        for (; i < bound; i += step) {
+            final IntVector v = IntVector.fromArray(INTS, buffer, i);
+            final IntVector cut = v.lanewise(VectorOperators.LSHL, shift).lanewise(extend, shift);
+            (padded ? cut.blend(v, v.compare(VectorOperators.EQ, pad)) : cut).intoArray(buffer, i);
+        }
+        scalar.mask(buffer, i, to, bits, signed, padded, pad);
+    }
+
+    @Override
+    public void rescale(int[] buffer, int from, int to, int slope, int intercept, boolean padded, int pad,
+            int[] minMax, long[] pads) {
+        final boolean identity = slope == 1 && intercept == 0;
+        final int step = INTS.length();
+        final int bound = from + INTS.loopBound(to - from);
+        IntVector low = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+        IntVector high = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+        int i = from;
+
+        for (; i < bound; i += step) {
+            final IntVector v = IntVector.fromArray(INTS, buffer, i);
+            if (padded) {
+                final VectorMask<Integer> padding = v.compare(VectorOperators.EQ, pad);
+                low = low.min(v.blend(Integer.MAX_VALUE, padding));
+                high = high.max(v.blend(Integer.MIN_VALUE, padding));
+                if (!identity) {
+                    // a blend rather than a masked store, which is slow on some JDKs
+                    v.mul(slope).add(intercept).blend(v, padding).intoArray(buffer, i);
+                }
+                if (pads != null && padding.anyTrue()) {
+                    mark(pads, i, toBits(padding), step);
+                }
+            } else {
+                low = low.min(v);
+                high = high.max(v);
+                if (!identity) {
+                    v.mul(slope).add(intercept).intoArray(buffer, i);
+                }
+            }
+        }
+        scalar.rescale(buffer, i, to, slope, intercept, padded, pad, minMax, pads);
+        minMax[0] = Math.min(minMax[0], low.reduceLanes(VectorOperators.MIN));
+        minMax[1] = Math.max(minMax[1], high.reduceLanes(VectorOperators.MAX));
+    }
+
+    /**
+     * Returns the lanes of a mask as bits, as {@link VectorMask#toLong()}
+     * does, but with a reduction that is fast on JDKs where that method is
+     * not.
+     *
+     * @param mask the mask
+     *
+     * @return one bit per lane, the first lane lowest
+     */
+    private static long toBits(final VectorMask<Integer> mask) {
+        if (LANE_BITS == null) {
+            return mask.toLong();
+        }
+        return IntVector.zero(INTS).blend(LANE_BITS, mask).reduceLanes(VectorOperators.OR) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Sets the bits of the lanes of a vector in the bit set of pixel
+     * positions, {@link PixelKernel#rescale} describes the layout.
+     *
+     * @param pads the positions
+     * @param index index of the pixel of the first lane
+     * @param lanes one bit per lane, the first lane lowest
+     * @param count number of lanes
+     */
+    private static void mark(final long[] pads, final int index, final long lanes, final int count) {
+        final int bit = index & 63;
+        pads[index >>> 6] |= lanes << bit;
+        if (bit + count > 64) { // the lanes run into the next word
+            pads[(index >>> 6) + 1] |= lanes >>> (64 - bit);
+        }
+    }
+
+    /**
+     * Runs every kernel on random pixels, with lengths that leave a scalar
+     * tail, and compares the results with the scalar kernel.
+     *
+     * @return <code>true</code> if all results agree
+     */
+    private boolean selfTest() {
+        final Random random = new Random(0x7FE00010L);
+        final int length = 4 * Math.max(SHORTS.length(), INTS.length()) + 3;
+        final byte[] bytes = new byte[2 * length + 1];
+        random.nextBytes(bytes);
+        final short[] shorts = new short[length];
+        final short[] expectedShorts = new short[length];
+        final int[] ints = new int[length];
+        final int[] expectedInts = new int[length];
+        final int[] range = new int[2];
+        final int[] expectedRange = new int[2];
+        final long[] pads = new long[(length + 63) / 64];
+        final long[] expectedPads = new long[pads.length];
+
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean flag = pass == 0;
+            decodeShorts(bytes, 1, shorts, 0, length, flag);
+            scalar.decodeShorts(bytes, 1, expectedShorts, 0, length, flag);
+            if (!Arrays.equals(shorts, expectedShorts)) {
+                return false;
+            }
+
+            widen(shorts, 1, ints, 0, length - 1, flag);
+            scalar.widen(shorts, 1, expectedInts, 0, length - 1, flag);
+            if (!Arrays.equals(ints, expectedInts)) {
+                return false;
+            }
+
+            widen(bytes, 1, ints, 0, length, flag);
+            scalar.widen(bytes, 1, expectedInts, 0, length, flag);
+            if (!Arrays.equals(ints, expectedInts)) {
+                return false;
+            }
+
+            final int pad = ints[length / 2];
+            mask(ints, 1, length, 12, flag, flag, pad);
+            scalar.mask(expectedInts, 1, length, 12, flag, flag, pad);
+            if (!Arrays.equals(ints, expectedInts)) {
+                return false;
+            }
+
+            // positions from the second pixel on, so the lanes of a vector straddle two words
+            rescale(ints, 1, length, -3, 1024, flag, pad, range, pads);
+            scalar.rescale(expectedInts, 1, length, -3, 1024, flag, pad, expectedRange, expectedPads);
+            if (!Arrays.equals(ints, expectedInts) || !Arrays.equals(range, expectedRange)
+                    || !Arrays.equals(pads, expectedPads)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -6,20 +6,36 @@
 package RawDCMLibary.DICOM;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import RawDCMLibary.exceptions.DICOM_Exception;
 import RawDCMLibary.model.DICOMFileInputStream;
+import RawDCMLibary.model.DICOMStreamHandler;
 import RawDCMLibary.model.FileBase;
+import RawDCMLibary.model.FileDicomFragmentIndex;
+import RawDCMLibary.model.FileDicomFrameReader;
 import RawDCMLibary.model.FileDicomKey;
 import RawDCMLibary.model.FileDicomSQ;
+import RawDCMLibary.model.FileDicomSQItem;
 import RawDCMLibary.model.FileDicomTag;
 import RawDCMLibary.model.FileDicomTagInfo.VR;
 import RawDCMLibary.model.FileDicomTagTable;
@@ -59,6 +75,7 @@ import static RawDCMLibary.model.FileInfoBase.ULTRASOUND;
 import static RawDCMLibary.model.FileInfoBase.UNKNOWN_MODALITY;
 import static RawDCMLibary.model.FileInfoBase.XRAY_ANGIOGRAPHY;
 import RawDCMLibary.model.FileRawChunk;
+import RawDCMLibary.model.PixelBuffer;
 import RawDCMLibary.model.enums.Enums.Unit;
 import RawDCMLibary.model.enums.Enums.VRtype;
 import java.util.Arrays;
@@ -67,7 +84,7 @@ import java.util.Arrays;
  *
  * @author shaesler
  */
-public class DICOMFile {
+public class DICOMFile implements Closeable {
 
     /**
      * Pixel or voxel resolutions for each dimension - default = 1.0. The z-dim
@@ -122,6 +139,27 @@ public class DICOMFile {
      */
     public static final String SEQ_ITEM_UNDEF_END = "FFFE,E0DD";
 
+    /**
+     * The tag marking the start of the image data, packed as
+     * <code>(group &lt;&lt; 16) | element</code>.
+     */
+    public static final int IMAGE_TAG_WORD = 0x7FE00010;
+
+    /**
+     * The tag marking the beginning of a dicom sequence item, packed.
+     */
+    public static final int SEQ_ITEM_BEGIN_WORD = 0xFFFEE000;
+
+    /**
+     * The tag marking the end of a dicom sequence item, packed.
+     */
+    public static final int SEQ_ITEM_END_WORD = 0xFFFEE00D;
+
+    /**
+     * The tag marking the end of an undefined length dicom sequence, packed.
+     */
+    public static final int SEQ_ITEM_UNDEF_END_WORD = 0xFFFEE0DD;
+
     private final int UNDEFINED_LENGTH = -2;
     /**
      * The Endianess of the data. Intel, DEC Alpha ***** LSB first byte
@@ -161,14 +199,20 @@ public class DICOMFile {
 
     private long fileLength;
 
+    /**
+     * The whole DICOM object when it was not read from a file, otherwise
+     * <code>null</code>.
+     */
+    private ByteBuffer source;
+
     private VRtype vrType = VRtype.EXPLICIT;
 
-    public static boolean LITTLE_ENDIAN = false;
+    public static final boolean LITTLE_ENDIAN = false;
 
     /**
      * Byte order. Leftmost byte is most significant.
      */
-    public static boolean BIG_ENDIAN = true;
+    public static final boolean BIG_ENDIAN = true;
 
     /**
      * Whether the tag currently being processed and read in is a sequence tag.
@@ -292,12 +336,23 @@ public class DICOMFile {
     /**
      * Number of bytes to the start the image data - ie. the header length
      */
-    private int imageOffset;
+    private long imageOffset;
+
+    /**
+     * Length in bytes of the Pixel Data element (7FE0,0010) as given in the
+     * header, -1 when the element has an undefined length (encapsulated).
+     */
+    private long pixelDataLength = -1;
     private double min;
     private double max;
 
     private int[] imageStream;
 
+    /**
+     * Reads single frames, opened on first use by {@link #getFrame(int)}.
+     */
+    private FileDicomFrameReader frameReader;
+
     private int[][] pixelArray;
 
     private int defaultWindowWidth = 0;
@@ -315,18 +370,77 @@ public class DICOMFile {
     public DICOMFile(String filePath, String fileName) {
         dcmFileStream = new DICOMFileInputStream(this);
         File file = new File(filePath + fileName);
-        this.fileLength = (int) file.length();
+        this.fileLength = file.length();
         this.tagTable = new FileDicomTagTable(vr_type);
     }
 
     public DICOMFile(String fullFileName) {
         File file = new File(fullFileName);
-        this.fileLength = (int) file.length();
+        this.fileLength = file.length();
+        this.filePath = file.getAbsolutePath();
+        dcmFileStream = new DICOMFileInputStream(this);
+        this.tagTable = new FileDicomTagTable(vr_type);
+    }
+
+    /**
+     * Creates a DICOM object that is read with an existing parser instead of
+     * a new one, for reading many files in turn. The parser is reset for this
+     * file and must no longer be used for the file it read before.
+     *
+     * @param fullFileName the file to read
+     * @param parser a parser to reuse
+     *
+     * @see DICOMFileInputStream#reset(DICOMFile)
+     */
+    public DICOMFile(String fullFileName, DICOMFileInputStream parser) {
+        File file = new File(fullFileName);
+        this.fileLength = file.length();
         this.filePath = file.getAbsolutePath();
+        parser.reset(this);
+        dcmFileStream = parser;
+        this.tagTable = new FileDicomTagTable(vr_type);
+    }
+
+    /**
+     * Creates a DICOM object that is read from memory instead of a file. The
+     * buffer is not copied, from its position to its limit it must hold the
+     * whole object.
+     *
+     * @param buffer the DICOM object
+     */
+    public DICOMFile(ByteBuffer buffer) {
+        this.source = buffer.slice();
+        this.fileLength = source.limit();
         dcmFileStream = new DICOMFileInputStream(this);
         this.tagTable = new FileDicomTagTable(vr_type);
     }
 
+    /**
+     * Creates a DICOM object from a stream, e.g. a socket or an archive
+     * entry. The stream is read forward once to its end and kept in memory,
+     * no temporary file is written. The stream is not closed.
+     *
+     * @param in stream positioned at the start of the DICOM object
+     *
+     * @throws IOException if the stream cannot be read
+     */
+    public DICOMFile(InputStream in) throws IOException {
+        this(Channels.newChannel(in));
+    }
+
+    /**
+     * Creates a DICOM object from a channel. The channel is read forward once
+     * to its end and kept in memory, no temporary file is written. The
+     * channel is not closed.
+     *
+     * @param channel channel positioned at the start of the DICOM object
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    public DICOMFile(ReadableByteChannel channel) throws IOException {
+        this(DICOMFileInputStream.readFully(channel));
+    }
+
     public String getFilePath() {
         return filePath;
     }
@@ -368,21 +482,205 @@ public class DICOMFile {
     }
 
     public void readHeader() throws IOException {
-        if (dcmFileStream.openForRead(this.filePath)) {
+        readHeader(true);
+    }
+
+    /**
+     * Reads only the meta data of the file. The parse stops when the Pixel
+     * Data element is reached, its offset and length are recorded and no pixel
+     * buffers are allocated. The image can still be loaded afterwards with
+     * {@link #readImage()}.
+     *
+     * @throws IOException if the file cannot be opened, or its header cannot
+     * be parsed, e.g. because it is not a DICOM file
+     */
+    public void readHeaderOnly() throws IOException {
+        readHeader(false);
+    }
+
+    /**
+     * Sets whether tag values are decoded on first access instead of while
+     * the header is read.
+     *
+     * @param lazyValues <code>true</code> to decode values on first access
+     *
+     * @see DICOMFileInputStream#setLazyValues(boolean)
+     */
+    public void setLazyValues(boolean lazyValues) {
+        dcmFileStream.setLazyValues(lazyValues);
+    }
+
+    /**
+     * Sets whether the items of sequences are parsed on first access instead
+     * of while the header is read.
+     *
+     * @param lazySequences <code>true</code> to parse sequences on first
+     * access
+     *
+     * @see DICOMFileInputStream#setLazySequences(boolean)
+     */
+    public void setLazySequences(boolean lazySequences) {
+        dcmFileStream.setLazySequences(lazySequences);
+    }
+
+    /**
+     * Limits how deeply nested and how many sequence items are read from the
+     * header; the rest of a sequence beyond a limit is stepped over.
+     *
+     * @param maxDepth deepest nesting of sequences that is read
+     * @param maxItems largest number of sequence items read
+     *
+     * @see DICOMFileInputStream#setMaxSequenceDepth(int)
+     * @see DICOMFileInputStream#setMaxSequenceItems(int)
+     */
+    public void setSequenceLimits(int maxDepth, int maxItems) {
+        dcmFileStream.setMaxSequenceDepth(maxDepth);
+        dcmFileStream.setMaxSequenceItems(maxItems);
+    }
+
+    /**
+     * Restricts the next header reads to the given tags, all other elements
+     * are stepped over and reading ends once the last of them has been
+     * passed.
+     *
+     * @param tags the tags to read, <code>null</code> to read every tag
+     *
+     * @see DICOMFileInputStream#setTagFilter(java.util.Collection)
+     */
+    public void setTagFilter(Collection<FileDicomKey> tags) {
+        dcmFileStream.setTagFilter(tags);
+    }
+
+    /**
+     * Returns the problems found while reading the header, e.g. tags that
+     * were skipped because of a corrupt length.
+     *
+     * @return the problems in the order they were found, empty if none
+     *
+     * @see DICOMFileInputStream#getParseProblems()
+     */
+    public List<String> getParseProblems() {
+        return dcmFileStream.getParseProblems();
+    }
+
+    /**
+     * Sets whether problems found while reading the header are printed to
+     * System.err as well as recorded. They are printed by default.
+     *
+     * @param printProblems <code>false</code> to only record them
+     */
+    public void setPrintProblems(boolean printProblems) {
+        dcmFileStream.setPrintProblems(printProblems);
+    }
+
+    /**
+     * Returns where the fragments of encapsulated pixel data lie and which of
+     * them make up each frame.
+     *
+     * @return the index, <code>null</code> if the pixel data is not
+     * encapsulated or the file cannot be opened
+     *
+     * @throws IOException if the file cannot be read
+     *
+     * @see DICOMFileInputStream#getFragmentIndex()
+     */
+    public FileDicomFragmentIndex getFragmentIndex() throws IOException {
+        if (openForRead()) {
             try {
-                dcmFileStream.readBinary((int) this.fileLength);
-                dcmFileStream.readHeader();
-                readImage();
-                this.defaultWindowLevel = Short.valueOf(this.tagTable.getValue("0028,1050") != null ? this.tagTable.getValue("0028,1050").toString() : "0");
-                this.defaultWindowWidth = Short.valueOf(this.tagTable.getValue("0028,1051") != null ? this.tagTable.getValue("0028,1051").toString() : "0");
+                return dcmFileStream.getFragmentIndex();
+            } finally {
+                dcmFileStream.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the file, or the buffer when this object was not read from a
+     * file, for reading.
+     *
+     * @return true if the object can be read
+     */
+    private boolean openForRead() {
+        if (source != null) {
+            return dcmFileStream.openForRead(source);
+        }
+        return dcmFileStream.openForRead(this.filePath);
+    }
+
+    /**
+     * Streams the elements of the file to the handler instead of reading them
+     * into the tag table of this file.
+     *
+     * @param handler receives the elements, sequences and pixel data
+     * fragments in file order
+     *
+     * @throws IOException if the file cannot be read
+     *
+     * @see DICOMFileInputStream#readEvents(DICOMStreamHandler)
+     */
+    public void readEvents(DICOMStreamHandler handler) throws IOException {
+        if (openForRead()) {
+            try {
+                dcmFileStream.mapBinary(this.fileLength);
+                dcmFileStream.readEvents(handler);
             } catch (DICOM_Exception ex) {
                 Logger.getLogger(DICOMFile.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                dcmFileStream.close();
+            }
+        }
+    }
+
+    /**
+     * Writes this object in the Deflated Explicit VR Little Endian transfer
+     * syntax. The object must be Explicit VR Little Endian or deflated
+     * already.
+     *
+     * @param out stream the object is written to; it is not closed
+     *
+     * @throws IOException if the object cannot be read or written
+     *
+     * @see DICOMFileInputStream#writeDeflated(OutputStream, int)
+     */
+    public void writeDeflated(OutputStream out) throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            dcmFileStream.mapBinary(this.fileLength);
+            dcmFileStream.writeDeflated(out, Deflater.DEFAULT_COMPRESSION);
+        } catch (DICOM_Exception ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } finally {
+            dcmFileStream.close();
+        }
+    }
+
+    private void readHeader(boolean loadImage) throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            dcmFileStream.mapBinary(this.fileLength);
+            if (!dcmFileStream.readHeader()) {
+                throw new IOException("Cannot parse the DICOM header of " + filePath + ": "
+                        + dcmFileStream.getParseProblems());
+            }
+            if (loadImage) {
+                readImage();
             }
+            this.defaultWindowLevel = Short.valueOf(this.tagTable.getValue("0028,1050") != null ? this.tagTable.getValue("0028,1050").toString() : "0");
+            this.defaultWindowWidth = Short.valueOf(this.tagTable.getValue("0028,1051") != null ? this.tagTable.getValue("0028,1051").toString() : "0");
+        } catch (DICOM_Exception ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } finally {
+            dcmFileStream.close();
         }
     }
 
     public void readImage() {
-        if (dcmFileStream.openForRead(this.filePath)) {
+        if (openForRead()) {
             this.imageStream = dcmFileStream.readImage();
             if (this.imageStream != null) {
                 this.pixelArray = new int[extents[1]][extents[0]];
@@ -397,12 +695,186 @@ public class DICOMFile {
     }
 
     public int[] getPixelData() {
-        if (dcmFileStream.openForRead(this.filePath)) {
+        if (openForRead()) {
             return dcmFileStream.getPixelData();
         }
         return null;
     }
 
+    /**
+     * Returns the pixels of all frames in the width and signedness they are
+     * stored with, without widening them to ints.
+     *
+     * @return the pixels
+     *
+     * @throws IOException if the file cannot be opened, or the pixels cannot
+     * be read or are more than one array holds
+     *
+     * @see DICOMFileInputStream#getPixels()
+     */
+    public PixelBuffer getPixels() throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            return dcmFileStream.getPixels();
+        } finally {
+            dcmFileStream.close();
+        }
+    }
+
+    /**
+     * Returns the pixels of all frames in modality units, with padding
+     * replaced, in the narrowest type that holds them.
+     *
+     * @return the rescaled pixels
+     *
+     * @throws IOException if the file cannot be opened, or the pixels cannot
+     * be read or are more than one array holds
+     *
+     * @see DICOMFileInputStream#getRescaledPixels()
+     */
+    public PixelBuffer getRescaledPixels() throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            return dcmFileStream.getRescaledPixels();
+        } finally {
+            dcmFileStream.close();
+        }
+    }
+
+    /**
+     * Reads one frame. Where the frames lie is worked out on the first call;
+     * after that a frame costs one positioned read of the file, and several
+     * threads may read frames at the same time. The file stays open until
+     * {@link #close()} is called.
+     *
+     * @param index zero based frame number
+     *
+     * @return the pixels of the frame, in the width they are stored with
+     *
+     * @throws IOException if the frame cannot be read
+     *
+     * @see FileDicomFrameReader
+     */
+    public PixelBuffer getFrame(int index) throws IOException {
+        return getFrameReader().readFrame(index);
+    }
+
+    /**
+     * Reads consecutive frames into a buffer, as {@link #getFrame(int)} does.
+     *
+     * @param from zero based number of the first frame
+     * @param to number of the frame after the last one
+     * @param buffer buffer of the data type of this object, at least
+     * <code>(to - from)</code> frames long
+     *
+     * @throws IOException if the frames cannot be read
+     */
+    public void readFrames(int from, int to, PixelBuffer buffer) throws IOException {
+        getFrameReader().readFrames(from, to, buffer);
+    }
+
+    /**
+     * Returns the frame reader, opening it on first use.
+     *
+     * @return the frame reader
+     *
+     * @throws IOException if the header has not been read or the frames
+     * cannot be read one by one
+     */
+    private synchronized FileDicomFrameReader getFrameReader() throws IOException {
+        if (frameReader == null) {
+            if (!openForRead()) {
+                throw new IOException("Cannot open " + filePath);
+            }
+            try {
+                frameReader = dcmFileStream.openFrameReader();
+            } finally {
+                dcmFileStream.close();
+            }
+        }
+        return frameReader;
+    }
+
+    /**
+     * Closes the file kept open for reading frames, if any.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (frameReader != null) {
+            frameReader.close();
+            frameReader = null;
+        }
+    }
+
+    /**
+     * Returns a read-only view of the native pixel data of all frames over a
+     * memory mapping of the file, in the byte order of the file.
+     *
+     * @return the view
+     *
+     * @throws IOException if the pixel data is encapsulated, too large for
+     * one view, or the file cannot be mapped
+     *
+     * @see DICOMFileInputStream#getPixelView()
+     */
+    public ByteBuffer getPixelView() throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            return dcmFileStream.getPixelView();
+        } finally {
+            dcmFileStream.close();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the native pixel data of one frame over a
+     * memory mapping of the file, in the byte order of the file.
+     *
+     * @param frame zero based frame number
+     *
+     * @return the view
+     *
+     * @throws IOException if the pixel data is encapsulated or the file
+     * cannot be mapped
+     *
+     * @see DICOMFileInputStream#getPixelView(int)
+     */
+    public ByteBuffer getPixelView(int frame) throws IOException {
+        if (!openForRead()) {
+            throw new IOException("Cannot open " + filePath);
+        }
+        try {
+            return dcmFileStream.getPixelView(frame);
+        } finally {
+            dcmFileStream.close();
+        }
+    }
+
+    /**
+     * Returns a read-only view of 16 bit native pixel data of all frames,
+     * one short per pixel sample.
+     *
+     * @return the view
+     *
+     * @throws IOException if the pixels are not 16 bit or cannot be mapped
+     *
+     * @see #getPixelView()
+     */
+    public ShortBuffer getShortPixelView() throws IOException {
+        if (bitsAllocated != 16) {
+            throw new IOException("Pixels of " + bitsAllocated + " bits allocated are not shorts");
+        }
+        return getPixelView().asShortBuffer();
+    }
+
     public int[] getImageStream() {
         return imageStream;
     }
@@ -825,9 +1297,9 @@ public class DICOMFile {
         while (itr.hasNext()) {
             int group = itr.next();
             try {
-                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getValue(false);
+                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getRawValue();
                 if (length != lengthComp.get(group).get()) {
-                    System.err.println("Computed group: " + Integer.toHexString(group) + " length does not agree with stored value.\n");
+                    dcmFileStream.reportProblem("Computed group: " + Integer.toHexString(group) + " length does not agree with stored value.");
                 }
                 tagTable.get(new FileDicomKey(group, 0)).setValue(new Integer(lengthComp.get(group).get()));
 
@@ -846,7 +1318,7 @@ public class DICOMFile {
         if (tag.getValueRepresentation() != VR.SQ) {
             length.add(tag.getDataLength());
         } else {
-            length.add(((FileDicomSQ) tag.getValue(false)).getDataLength());
+            length.add(((FileDicomSQ) tag.getRawValue()).getDataLength());
         }
         if (vr_type == VRtype.EXPLICIT) {
             if (tag.getType().reservedBytes()) {
@@ -1443,14 +1915,27 @@ public class DICOMFile {
         this.fileInfo = fileInfo;
     }
 
-    public int getImageOffset() {
+    public long getImageOffset() {
         return imageOffset;
     }
 
-    public void setImageOffset(int imageOffset) {
+    public void setImageOffset(long imageOffset) {
         this.imageOffset = imageOffset;
     }
 
+    /**
+     * Returns the length of the Pixel Data element as read from the header.
+     *
+     * @return length in bytes, -1 if undefined (encapsulated pixel data)
+     */
+    public long getPixelDataLength() {
+        return pixelDataLength;
+    }
+
+    public void setPixelDataLength(long pixelDataLength) {
+        this.pixelDataLength = pixelDataLength;
+    }
+
     public String getPhotometricInterp() {
         return photometricInterp;
     }
@@ -1801,9 +2286,9 @@ public class DICOMFile {
             } else if (tagKey.equals("0028,1201") || tagKey.equals("0028,1202") || tagKey.equals("0028,1203")) {
                 //for keyNum, from dicom standard, 1 is red, 2 is green, 3 is blue
                 int keyNum = Integer.valueOf(tagKey.getElement().substring(tagKey.getElement().length() - 1));
-                Object data = tag.getValue(false);
-                if (data instanceof Number[]) {
-                    final int lutVals = ((Number[]) data).length;
+                Object data = tag.getRawValue();
+                if (data instanceof short[]) {
+                    final int lutVals = ((short[]) data).length;
 
                 }
 
@@ -2027,21 +2512,31 @@ public class DICOMFile {
      */
     private final void setInfoFromTags(FileDicomTagTable tagTable, boolean insideSequenceTag) {
         HashMap<Integer, LengthStorageUnit> lengthComp = new HashMap<Integer, LengthStorageUnit>();
-        Iterator<Map.Entry<FileDicomKey, FileDicomTag>> itr = tagTable.getTagList().entrySet().iterator();
+        // the tables still being walked, the items of sequences on top of the table they are in, so that
+        // deeply nested sequences do not recurse
+        final ArrayDeque<Iterator<FileDicomTag>> open = new ArrayDeque<Iterator<FileDicomTag>>();
+        open.push(tagTable.getTagList().values().iterator());
         FileDicomTag tag = null;
 
-        while (itr.hasNext()) {
-            tag = itr.next().getValue();
-            if (!insideSequenceTag && tag.getElement() != 0) {
-                appendLengthTag(tag, lengthComp);
+        while (!open.isEmpty()) {
+            final Iterator<FileDicomTag> itr = open.peek();
+            if (!itr.hasNext()) {
+                open.pop();
+                continue;
             }
-            if (tag.getValue(false) instanceof FileDicomSQ) {
-                FileDicomSQ sq = (FileDicomSQ) tag.getValue(false);
-                for (int i = 0; i < sq.getSequence().size(); i++) {
-                    setInfoFromTags(sq.getSequence().get(i), true);
-                }
+            tag = itr.next();
+            if (!insideSequenceTag && open.size() == 1 && tag.getElement() != 0
+                    && tagTable.containsTag(new FileDicomKey(tag.getGroup(), 0))) {
+                appendLengthTag(tag, lengthComp); // only groups with a length tag can be checked
             }
             setInfoFromTag(tag);
+            if (tag.isSequence()
+                    && !((FileDicomSQ) tag.getRawValue()).hasDeferredItems()) { // deferred items stay unparsed
+                final Vector<FileDicomSQItem> items = ((FileDicomSQ) tag.getRawValue()).getSequence();
+                for (int i = items.size() - 1; i >= 0; i--) { // first item on top
+                    open.push(items.get(i).getTagList().values().iterator());
+                }
+            }
         }
 
         updateLengthTags(lengthComp);
@@ -191,6 +191,9 @@ public class DICOM_Constants {
     /** DOCUMENT ME! */
     public static final String UID_TransferBIGENDIANEXPLICIT = "1.2.840.10008.1.2.2";
 
+    /** Deflated Explicit VR Little Endian, the data set after the meta group is deflated. */
+    public static final String UID_TransferDEFLATEDLITTLEENDIANEXPLICIT = "1.2.840.10008.1.2.1.99";
+
     /** DOCUMENT ME! */
     public static final String UID_TransferJPEGBASELINEPROCESS1 = "1.2.840.10008.1.2.4.50";
 
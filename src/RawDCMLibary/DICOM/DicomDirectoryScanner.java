@@ -0,0 +1,417 @@
+package RawDCMLibary.DICOM;
+
+import RawDCMLibary.model.FileDicomKey;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Reads the headers of all DICOM files below a directory concurrently.
+ *
+ * <p>
+ * The tree is walked on the calling thread and each file is parsed as a task
+ * of an executor: by default one virtual thread per file where the running
+ * Java supports them, otherwise a pool with a thread per processor. How many
+ * files are read from disk at the same time is limited separately by a number
+ * of I/O permits. Results are handed to the callback on the calling thread,
+ * in the order the files finish, and are not kept by the scanner. A file that
+ * cannot be parsed produces a result with its error instead of ending the
+ * scan.</p>
+ *
+ * <pre>
+ * DicomDirectoryScanner scanner = new DicomDirectoryScanner(Paths.get("/data/study"));
+ * scanner.setIoPermits(8);
+ * DicomDirectoryScanner.Summary summary = scanner.scan(result -&gt; index(result));
+ * System.out.println(summary);
+ * </pre>
+ */
+public class DicomDirectoryScanner {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * Default number of files read from disk at the same time.
+     */
+    public static final int DEFAULT_IO_PERMITS = 16;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The directory that is scanned.
+     */
+    private final Path root;
+
+    /**
+     * Executor the files are parsed on, <code>null</code> for the default.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * Number of files read from disk at the same time.
+     */
+    private int ioPermits = DEFAULT_IO_PERMITS;
+
+    /**
+     * Selects the files that are parsed.
+     */
+    private Predicate<Path> fileFilter = Files::isRegularFile;
+
+    /**
+     * Tags to read, <code>null</code> for all.
+     */
+    private Collection<FileDicomKey> tagFilter = null;
+
+    /**
+     * Whether tag values are decoded on first access.
+     */
+    private boolean lazyValues = false;
+
+    /**
+     * Whether the items of sequences are parsed on first access.
+     */
+    private boolean lazySequences = false;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates a scanner for a directory tree.
+     *
+     * @param root the directory to scan
+     */
+    public DicomDirectoryScanner(Path root) {
+        this.root = root;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Sets the executor the files are parsed on. It is not shut down by the
+     * scanner. By default virtual threads are used where available.
+     *
+     * @param executor the executor, <code>null</code> for the default
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets how many files are read from disk at the same time, independently
+     * of the number of threads.
+     *
+     * @param ioPermits number of concurrent reads, at least 1
+     */
+    public void setIoPermits(int ioPermits) {
+        if (ioPermits < 1) {
+            throw new IllegalArgumentException("At least one I/O permit is needed: " + ioPermits);
+        }
+        this.ioPermits = ioPermits;
+    }
+
+    /**
+     * Selects the files that are parsed, by default all regular files.
+     *
+     * @param fileFilter accepts the paths to parse
+     */
+    public void setFileFilter(Predicate<Path> fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Restricts each header read to the given tags.
+     *
+     * @param tags the tags to read, <code>null</code> to read every tag
+     *
+     * @see DICOMFile#setTagFilter(Collection)
+     */
+    public void setTagFilter(Collection<FileDicomKey> tags) {
+        this.tagFilter = tags;
+    }
+
+    /**
+     * Sets whether tag values are decoded on first access.
+     *
+     * @param lazyValues <code>true</code> to defer decoding of tag values
+     *
+     * @see DICOMFile#setLazyValues(boolean)
+     */
+    public void setLazyValues(boolean lazyValues) {
+        this.lazyValues = lazyValues;
+    }
+
+    /**
+     * Sets whether the items of sequences are parsed on first access.
+     *
+     * @param lazySequences <code>true</code> to defer parsing of sequences
+     *
+     * @see DICOMFile#setLazySequences(boolean)
+     */
+    public void setLazySequences(boolean lazySequences) {
+        this.lazySequences = lazySequences;
+    }
+
+    /**
+     * Parses the headers of all files below the directory and hands each
+     * result to the callback as it becomes available.
+     *
+     * @param callback receives a result per file, on the calling thread
+     *
+     * @return counts and throughput of the scan
+     *
+     * @throws IOException if the directory tree cannot be walked
+     */
+    public Summary scan(Consumer<Result> callback) throws IOException {
+        final boolean ownExecutor = executor == null;
+        final ExecutorService service = ownExecutor ? newDefaultExecutor() : executor;
+        final Semaphore ioLimit = new Semaphore(ioPermits);
+        final BlockingQueue<Result> finished = new LinkedBlockingQueue<Result>();
+        // bounds the results waiting for the callback when it is slower than the parsing
+        final int maxPending = Math.max(64, ioPermits * 4);
+        final long start = System.nanoTime();
+        int submitted = 0;
+        int delivered = 0;
+        int failed = 0;
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            final Iterator<Path> files = paths.filter(fileFilter).iterator();
+
+            while (files.hasNext()) {
+                final Path path = files.next();
+
+                while (submitted - delivered >= maxPending) {
+                    failed += deliver(finished.take(), callback);
+                    delivered++;
+                }
+                service.execute(() -> finished.add(parse(path, ioLimit)));
+                submitted++;
+
+                Result result;
+                while ((result = finished.poll()) != null) {
+                    failed += deliver(result, callback);
+                    delivered++;
+                }
+            }
+
+            while (delivered < submitted) {
+                failed += deliver(finished.take(), callback);
+                delivered++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan of " + root + " interrupted after " + delivered + " files");
+        } finally {
+            if (ownExecutor) {
+                service.shutdownNow();
+            }
+        }
+
+        final Summary summary = new Summary(delivered, failed, System.nanoTime() - start);
+        Logger.getLogger(DicomDirectoryScanner.class.getName()).log(Level.INFO, "{0}: {1}", new Object[]{root, summary});
+        return summary;
+    }
+
+    /**
+     * Parses the headers of all files below the directory.
+     *
+     * @return a result per file, in the order the files finished
+     *
+     * @throws IOException if the directory tree cannot be walked
+     */
+    public List<Result> scan() throws IOException {
+        final List<Result> results = new ArrayList<Result>();
+        scan(results::add);
+        return results;
+    }
+
+    /**
+     * Hands a result to the callback.
+     *
+     * @return 1 if the file could not be parsed, otherwise 0
+     */
+    private static int deliver(Result result, Consumer<Result> callback) {
+        callback.accept(result);
+        return result.isSuccess() ? 0 : 1;
+    }
+
+    /**
+     * Reads the header of one file while holding an I/O permit.
+     *
+     * @param path the file
+     * @param ioLimit the I/O permits
+     *
+     * @return the result, never <code>null</code>
+     */
+    private Result parse(Path path, Semaphore ioLimit) {
+        final long start = System.nanoTime();
+        DICOMFile file = null;
+
+        try {
+            ioLimit.acquire();
+            try {
+                file = new DICOMFile(path.toString());
+                file.setPrintProblems(false);
+                file.setLazyValues(lazyValues);
+                file.setLazySequences(lazySequences);
+                file.setTagFilter(tagFilter);
+                file.readHeaderOnly();
+            } finally {
+                ioLimit.release();
+            }
+            return new Result(path, file, file.getParseProblems(), null, System.nanoTime() - start);
+        } catch (Throwable e) { // one broken file must neither end the scan nor leave it waiting
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            final List<String> problems = file != null ? file.getParseProblems() : Collections.<String>emptyList();
+            return new Result(path, null, problems, e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Creates an executor with a virtual thread per task if the running Java
+     * has them, otherwise a pool with a thread per processor.
+     */
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            final Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+    /**
+     * The outcome of reading one file.
+     */
+    public static final class Result {
+
+        private final Path path;
+        private final DICOMFile file;
+        private final List<String> problems;
+        private final Throwable error;
+        private final long nanos;
+
+        Result(Path path, DICOMFile file, List<String> problems, Throwable error, long nanos) {
+            this.path = path;
+            this.file = file;
+            this.problems = problems;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the file that was read
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the file with its header read, <code>null</code> if it
+         * could not be parsed
+         */
+        public DICOMFile getFile() {
+            return file;
+        }
+
+        /**
+         * @return problems found in a header that was still read, e.g.
+         * skipped corrupt tags
+         */
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        /**
+         * @return why the file could not be parsed, <code>null</code> on
+         * success
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return whether the header was read
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return time spent on this file in nanoseconds, including waiting
+         * for an I/O permit
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return path + (error == null ? "" : ": " + error);
+        }
+    }
+
+    /**
+     * Counts and throughput of a scan.
+     */
+    public static final class Summary {
+
+        private final int files;
+        private final int failed;
+        private final long elapsedNanos;
+
+        Summary(int files, int failed, long elapsedNanos) {
+            this.files = files;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of files that were read, including failures
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return number of files that could not be parsed
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return wall clock time of the scan in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return files read per second of wall clock time
+         */
+        public double getFilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : files * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d files (%d failed) in %.2f s, %.1f files/sec", files, failed,
+                    elapsedNanos / 1e9, getFilesPerSecond());
+        }
+    }
+}
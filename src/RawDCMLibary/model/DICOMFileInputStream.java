@@ -1,18 +1,38 @@
 package RawDCMLibary.model;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.InflaterInputStream;
 import RawDCMLibary.DICOM.DICOMFile;
 import static RawDCMLibary.DICOM.DICOMFile.FLOAT;
@@ -57,12 +77,44 @@ public class DICOMFileInputStream extends FileDicomBase {
      */
     public static final String IMAGE_TAG = "7F[0-9A-F][0-9A-F],0010";
 
+    /**
+     * The Extended Offset Table (7FE0,0001), 64-bit offsets of the frames of
+     * encapsulated pixel data.
+     */
+    private static final int EXTENDED_OFFSET_TABLE = 0x7FE00001;
+
+    /**
+     * Largest object, in bytes, that can be read from a stream or channel
+     * into memory: the largest array most JVMs allocate.
+     */
+    public static final int MAX_SOURCE_SIZE = Integer.MAX_VALUE - 8;
+
     private static final long serialVersionUID = -3072660161266896186L;
 
-    private final int UNDEFINED_LENGTH = -2;
+    /**
+     * The value representations indexed by their two letter code, see
+     * {@link #toVR(byte[])}.
+     */
+    private static final VR[] VR_BY_CODE = new VR[26 * 26];
+
+    static {
+        for (final VR vr : VR.values()) {
+            final String code = vr.name();
+            if (code.length() == 2 && code.charAt(0) >= 'A' && code.charAt(0) <= 'Z'
+                    && code.charAt(1) >= 'A' && code.charAt(1) <= 'Z') {
+                VR_BY_CODE[(code.charAt(0) - 'A') * 26 + (code.charAt(1) - 'A')] = vr;
+            }
+        }
+    }
 
     private FileInputStream inFileStream = null;
 
+    /**
+     * The whole DICOM object when it was not read from a file, otherwise
+     * <code>null</code>. Header and image are both read from it.
+     */
+    private ByteBuffer source = null;
+
     private boolean endianess;
 
     /**
@@ -82,6 +134,23 @@ public class DICOMFileInputStream extends FileDicomBase {
 
     private boolean encapsulatedJP2 = false;
 
+    /**
+     * The transfer syntax of the data set, <code>null</code> until the meta
+     * group has been read.
+     */
+    private TransferSyntax transferSyntax = null;
+
+    /**
+     * Whether the data set after the meta group is deflated, as for the
+     * Deflated Explicit VR Little Endian transfer syntax.
+     */
+    private boolean deflated = false;
+
+    /**
+     * File position of the first deflated byte of the data set.
+     */
+    private long dataSetStart = 0;
+
     private boolean isEnhanced4D = false;
 
     private int enhancedNumSlices;
@@ -101,6 +170,64 @@ public class DICOMFileInputStream extends FileDicomBase {
      */
     private boolean hasHeaderBeenRead = false;
 
+    /**
+     * If true, tag values are not decoded while the header is parsed. Tags
+     * keep the location of their value in the header buffer and decode it the
+     * first time it is asked for.
+     */
+    private boolean lazyValues = false;
+
+    /**
+     * If true, the items of sequences are not parsed while the header is
+     * read. The sequences keep the location of their items and parse them
+     * the first time they are accessed.
+     */
+    private boolean lazySequences = false;
+
+    /**
+     * Selects the top level tags (packed group and element) that are read,
+     * all others are stepped over. <code>null</code> reads every tag.
+     */
+    private IntPredicate tagFilter = null;
+
+    /**
+     * The parse ends at the first top level tag after this packed tag, 0 to
+     * parse up to the pixel data.
+     */
+    private int stopTag = 0;
+
+    /**
+     * Problems found while reading the last header, such as corrupt or
+     * truncated tags that were skipped.
+     */
+    private final ArrayList<String> problems = new ArrayList<String>();
+
+    /**
+     * Whether problems are also printed to System.err as they are found.
+     */
+    private boolean printProblems = true;
+
+    /**
+     * Position of the top level pixel data element's tag, recorded when the
+     * parser passes it; -1 if it has not been passed.
+     */
+    private long pixelDataTagOffset = -1;
+
+    /**
+     * Position and length of the value of the top level Extended Offset Table
+     * (7FE0,0001), recorded when the parser passes it; -1 if the file has
+     * none.
+     */
+    private long extendedOffsetTableOffset = -1;
+
+    private int extendedOffsetTableLength = 0;
+
+    /**
+     * The fragments of encapsulated pixel data, built when the parser reaches
+     * the pixel data element; <code>null</code> for native pixel data.
+     */
+    private FileDicomFragmentIndex fragmentIndex;
+
     /**
      * Meta data structure in which to save all the DICOM tags.
      */
@@ -146,7 +273,39 @@ public class DICOMFileInputStream extends FileDicomBase {
     private int elementWord;
 
     private FileDicomTagTable[] enhancedTagTables;
-    private String nameSQ;
+    private int tagSQ;
+
+    /**
+     * Default for {@link #setMaxSequenceDepth(int)}.
+     */
+    public static final int DEFAULT_MAX_SEQUENCE_DEPTH = 64;
+
+    /**
+     * Default for {@link #setMaxSequenceItems(int)}.
+     */
+    public static final int DEFAULT_MAX_SEQUENCE_ITEMS = 1000000;
+
+    /**
+     * Deepest nesting of sequences that is read.
+     */
+    private int maxSequenceDepth = DEFAULT_MAX_SEQUENCE_DEPTH;
+
+    /**
+     * Largest number of sequence items read from one header.
+     */
+    private int maxSequenceItems = DEFAULT_MAX_SEQUENCE_ITEMS;
+
+    /**
+     * Number of sequence items read from the current header.
+     */
+    private int sequenceItemCount = 0;
+
+    /**
+     * Set by processNextTag when it reaches a sequence inside an item: the key
+     * and length of the sequence, whose items the sequence reader reads next.
+     */
+    private FileDicomKey nestedSequenceKey = null;
+    private int nestedSequenceLength = 0;
 
     private FileRaw rawFile;
 
@@ -181,7 +340,10 @@ public class DICOMFileInputStream extends FileDicomBase {
 
         try {
             inFileStream = new FileInputStream(fileName);
-            this.rawFile = new FileRaw(fileInfo);
+            if (rawFile == null) {
+                this.rawFile = new FileRaw(fileInfo);
+            }
+            this.source = null;
         } catch (final FileNotFoundException e) {
             return (false);
         }
@@ -190,7 +352,107 @@ public class DICOMFileInputStream extends FileDicomBase {
     }
 
     /**
-     * Read file stream data into buffer.
+     * Reads a DICOM object that is already in memory. The buffer is used as
+     * it is, from its position to its limit, without copying, and header and
+     * image are both read from it.
+     *
+     * @param buffer the DICOM object
+     *
+     * @return true
+     */
+    public boolean openForRead(final ByteBuffer buffer) {
+        this.source = buffer.slice();
+        if (rawFile == null) {
+            this.rawFile = new FileRaw(fileInfo);
+        }
+        setTagBuffer(source);
+
+        return (true);
+    }
+
+    /**
+     * Reads a DICOM object from a stream, e.g. a socket or an archive entry.
+     * The stream is read forward once to its end and kept in memory, no
+     * temporary file is written. The stream is not closed.
+     *
+     * @param in stream positioned at the start of the DICOM object
+     *
+     * @return true if the stream could be read
+     */
+    public boolean openForRead(final InputStream in) {
+        return openForRead(Channels.newChannel(in));
+    }
+
+    /**
+     * Reads a DICOM object from a channel. The channel is read forward once
+     * to its end and kept in memory, no temporary file is written. The
+     * channel is not closed.
+     *
+     * @param channel channel positioned at the start of the DICOM object
+     *
+     * @return true if the channel could be read
+     */
+    public boolean openForRead(final ReadableByteChannel channel) {
+        try {
+            return openForRead(readFully(channel));
+        } catch (final IOException e) {
+            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, e);
+            return (false);
+        }
+    }
+
+    /**
+     * Reads a channel to its end. A non-blocking channel is read until it has
+     * no bytes available, a read of 0 bytes is taken as its end.
+     *
+     * @param channel the channel to read
+     *
+     * @return the bytes read, flipped for reading
+     *
+     * @throws IOException if the channel cannot be read, or holds more than
+     * {@link #MAX_SOURCE_SIZE} bytes
+     */
+    public static ByteBuffer readFully(final ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) BUFFER_SIZE);
+
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= MAX_SOURCE_SIZE) {
+                    if (channel.read(ByteBuffer.allocate(1)) <= 0) {
+                        break;
+                    }
+                    throw new IOException("DICOM object too large for an in-memory source, more than "
+                            + MAX_SOURCE_SIZE + " bytes");
+                }
+                final ByteBuffer larger = ByteBuffer.allocate((int) Math.min(2L * buffer.capacity(), MAX_SOURCE_SIZE));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            // a blocking channel reads at least one byte, 0 means a non-blocking one has nothing more
+            if (channel.read(buffer) <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Returns whether the object is read from memory rather than from a file.
+     *
+     * @return <code>true</code> if it was opened from a buffer, stream or
+     * channel
+     */
+    public boolean isInMemory() {
+        return source != null;
+    }
+
+    /**
+     * Read file stream data into buffer. The data is copied onto the heap in
+     * one array, so this is limited to 2GB; files are normally read with
+     * {@link #mapBinary(long)}.
      *
      * @param count number of bytes to read into buffer
      *
@@ -200,34 +462,67 @@ public class DICOMFileInputStream extends FileDicomBase {
      * readiing in the data to the port.
      */
     public int readBinary(final int count) throws DICOM_Exception {
-        super.tagBuffer = new byte[count];
-        super.fLength = count;
+        final byte[] buffer = new byte[count];
         int actualNumOfByteRead = 0;
 
         try {
-            actualNumOfByteRead = inFileStream.read(super.tagBuffer, 0, count);
+            actualNumOfByteRead = inFileStream.read(buffer, 0, count);
         } catch (final IOException e) {
             close();
-            throw new DICOM_Exception("DICOM_FileIO.readBinary( " + Arrays.toString(super.tagBuffer) + ", " + count + " ): " + e);
+            throw new DICOM_Exception("DICOM_FileIO.readBinary( " + count + " ): " + e);
         }
 
         if (actualNumOfByteRead < 0) {
             close();
-            throw new DICOM_Exception("DICOM_FileIO.readBinary( " + Arrays.toString(super.tagBuffer) + ", " + count + " ) = " + actualNumOfByteRead);
+            throw new DICOM_Exception("DICOM_FileIO.readBinary( " + count + " ) = " + actualNumOfByteRead);
         }
+        setTagBuffer(ByteBuffer.wrap(buffer, 0, actualNumOfByteRead).slice());
 
         return (actualNumOfByteRead);
     }
 
+    /**
+     * Maps the opened file read-only as the tag buffer instead of copying it
+     * onto the heap, so the header parse only touches the pages it reads.
+     * Files larger than {@link #WINDOW_SIZE} are mapped a window at a time.
+     *
+     * @param count length of the file in bytes
+     *
+     * @return The number of bytes that can be parsed.
+     *
+     * @throws DICOM_Exception Throws an exception if the file could not be
+     * mapped.
+     */
+    public long mapBinary(final long count) throws DICOM_Exception {
+        if (source != null) { // already in memory
+            return fLength;
+        }
+        try {
+            mapTagBuffer(inFileStream.getChannel(), count);
+            return fLength;
+        } catch (final IOException e) {
+            close();
+            throw new DICOM_Exception("DICOM_FileIO.mapBinary( " + count + " ): " + e);
+        }
+    }
+
     public boolean readHeader() throws IOException {
 
         endianess = FileBase.LITTLE_ENDIAN; // all DICOM files start as little endian (tags 0002)
         flag = true;
         int exceptionCount = 0;
         int maxExceptionCount = 10;
+        boolean aborted = false; // the data set could not be parsed, e.g. the file is not DICOM
+        int elementsRead = 0;
 
         metaGroupLength = 0;
         elementLength = 0;
+        problems.clear();
+        pixelDataTagOffset = -1;
+        extendedOffsetTableOffset = -1;
+        extendedOffsetTableLength = 0;
+        fragmentIndex = null;
+        sequenceItemCount = 0;
         fileInfo.setEndianess(endianess);
 
         skipBytes(ID_OFFSET); // Find "DICM" tag
@@ -249,6 +544,7 @@ public class DICOMFileInputStream extends FileDicomBase {
                 // syntax group has been read in
                 if (getFilePointer() >= (ID_OFFSET + 4 + metaGroupLength)) {
                     endianess = fileInfo.isEndianess();
+                    inflateDataSet();
                 }
             } else {
                 if (getFilePointer() >= metaGroupLength) {
@@ -257,66 +553,293 @@ public class DICOMFileInputStream extends FileDicomBase {
             }
             FileDicomKey key = null;
             int tagElementLength = 0;
+            final long tagStart = getFilePointer();
             try {
                 key = getNextTag(endianess);
                 tagElementLength = elementLength;
-            } catch (ArrayIndexOutOfBoundsException aie) {
-                System.err.println("Reached end of file while attempting to read: " + getFilePointer() + "\n");
-                key = new FileDicomKey("7FE0,0010"); //process image tag
-                vrBytes = new byte[]{'O', 'W'};
-                int imageLoc = locateImageTag(0, numEmbeddedImages);
+                if (key.getTag() == DICOMFile.IMAGE_TAG_WORD) {
+                    pixelDataTagOffset = tagStart;
+                } else if (key.getTag() == EXTENDED_OFFSET_TABLE && elementLength > 0) {
+                    extendedOffsetTableOffset = getFilePointer();
+                    extendedOffsetTableLength = elementLength;
+                }
+            } catch (IndexOutOfBoundsException | BufferUnderflowException aie) {
+                reportProblem("Reached end of file while attempting to read: " + getFilePointer());
+                key = new FileDicomKey(DICOMFile.IMAGE_TAG_WORD); //process image tag
+                vrBytes[0] = 'O';
+                vrBytes[1] = 'W';
+                long imageLoc = findImageTag();
                 seek(imageLoc);
             }
-            int bPtrOld = getFilePointer();
+            if (stopTag != 0 && !isParserTag(key.getTag()) && Integer.compareUnsigned(key.getTag(), stopTag) > 0) {
+                fileInfo.setInfoFromTags(); // every requested tag has been read
+                break;
+            }
+            if (tagFilter != null && !isParserTag(key.getTag()) && !tagFilter.test(key.getTag())) {
+                try {
+                    skipValue(endianess); // not requested, step over the value without a dictionary lookup
+                    elementsRead++;
+                } catch (IndexOutOfBoundsException | BufferUnderflowException aie) {
+                    reportProblem("Reached end of file while skipping tag: " + key);
+                    seek(fLength);
+                }
+                if (isEndOfData()) {
+                    flag = false;
+                }
+                continue;
+            }
+            long bPtrOld = getFilePointer();
             try {
                 flag = processNextTag(tagTable, key, endianess, false);
+                elementsRead++;
                 if (flag == false && imageLoadReady == false) {
-                    System.err.println("Error parsing tag: " + key + "\n");
+                    reportProblem("Error parsing tag: " + key);
+                    aborted = true;
                     break;
+                } else if (flag == false) {
+                    break; // pixel data reached, its offset and length have been recorded
                 }
             } catch (IOException | CloneNotSupportedException e) {
-                System.err.println("Error parsing tag: " + key + "\n");
+                reportProblem("Error parsing tag: " + key);
                 exceptionCount++;
                 // Prevent infinite looping
                 if (exceptionCount >= maxExceptionCount) {
+                    aborted = true;
                     break;
                 }
             }
             if (bPtrOld + tagElementLength != getFilePointer()) {
-                System.err.println("Possible invalid tag length specified, processing and tag lengths do not agree.");
+                reportProblem("Possible invalid tag length specified, processing and tag lengths do not agree.");
             }
             if (tagElementLength != -1 && bPtrOld + tagElementLength > getFilePointer()) {
                 seek(bPtrOld + tagElementLength); //processing tag was likely not successful, report error but continue parsing
-                System.err.println("Skipping tag due to file corruption (or image tag reached): " + key + "\n");
+                reportProblem("Skipping tag due to file corruption (or image tag reached): " + key);
             }
 
-            if (getFilePointer() >= fLength || (elementLength == -1 && key.toString().matches(IMAGE_TAG))) { // for dicom files that contain no image information, the image tag will never be encountered
-                int imageLoc = locateImageTag(0, numEmbeddedImages);
-                if (!notDir) { // Done reading tags, if DICOMDIR then don't do anything else
+            if (isEndOfData() || (elementLength == -1 && isImageTag(key.getTag()))) { // for dicom files that contain no image information, the image tag will never be encountered
+                if (!notDir || imageLoadReady) { // Done reading tags, if DICOMDIR then don't do anything else
                     flag = false;
-                } else if (imageLoc != -1 && !imageLoadReady) {
-                    seek(imageLoc);
-                    flag = true; //image tag exists but has not been processed yet
                 } else {
-                    flag = false;
+                    long imageLoc = findImageTag();
+                    if (imageLoc != -1) {
+                        seek(imageLoc);
+                        flag = true; //image tag exists but has not been processed yet
+                    } else {
+                        flag = false;
+                    }
                 }
             }
         }
 
+        if (aborted || elementsRead == 0) {
+            return false; // nothing could be read, e.g. the file is not DICOM
+        }
         if (notDir) {
             hasHeaderBeenRead = true;
-            return true;
-        } else {
-            return true;
         }
+        return true;
+    }
+
+    /**
+     * Reads the data set as a stream of events instead of building a tag
+     * table. Elements, sequences, items and pixel data fragments are reported
+     * to the handler in file order; nothing is kept by the reader, and nesting
+     * is followed with an explicit stack, so memory use does not depend on
+     * the size or depth of the data set. The meta group is read as usual to
+     * pick up the transfer syntax.
+     *
+     * @param handler receives the events
+     *
+     * @throws IOException if the transfer syntax is not supported or the file
+     * ends in the middle of an element
+     *
+     * @see DICOMStreamHandler
+     */
+    public void readEvents(final DICOMStreamHandler handler) throws IOException {
+        endianess = FileBase.LITTLE_ENDIAN; // all DICOM files start as little endian (tags 0002)
+        metaGroupLength = 0;
+        elementLength = 0;
+        fileInfo.setEndianess(endianess);
+
+        skipBytes(ID_OFFSET); // Find "DICM" tag
+        if (!getString(4).equals("DICM")) {
+            fileInfo.containsDICM = false;
+            seek(0); // set file pointer to zero
+        }
+
+        // end offset of each open sequence and item, -1 if of undefined length
+        long[] containerEnd = new long[16];
+        boolean[] containerIsItem = new boolean[16];
+        int depth = 0;
+
+        try {
+            while (true) {
+                if (getFilePointer() >= (fileInfo.containsDICM ? ID_OFFSET + 4 + metaGroupLength : metaGroupLength)) {
+                    endianess = fileInfo.isEndianess();
+                    inflateDataSet();
+                }
+
+                // close the sequences and items whose defined length has been read
+                while (depth > 0 && containerEnd[depth - 1] >= 0 && getFilePointer() >= containerEnd[depth - 1]) {
+                    depth--;
+                    if (containerIsItem[depth]) {
+                        handler.endItem();
+                    } else {
+                        handler.endSequence();
+                    }
+                }
+                if (isEndOfData()) {
+                    break;
+                }
+
+                getNextElement(endianess);
+                final int tag = (groupWord << 16) | elementWord;
+                final long start = getFilePointer();
+
+                if (tag == DICOMFile.SEQ_ITEM_END_WORD || tag == DICOMFile.SEQ_ITEM_UNDEF_END_WORD) {
+                    if (depth > 0) {
+                        depth--;
+                        if (containerIsItem[depth]) {
+                            handler.endItem();
+                        } else {
+                            handler.endSequence();
+                        }
+                    }
+                    continue;
+                }
+
+                final boolean isItem = tag == DICOMFile.SEQ_ITEM_BEGIN_WORD;
+                final VR vr = isItem ? null : getElementVR(new FileDicomKey(tag));
+
+                if (!isItem && elementLength < 0 && (vr == VR.OB || vr == VR.OW || isImageTag(tag))) {
+                    handler.startElement(tag, vr, elementLength); // encapsulated data
+                    readFragments(handler);
+                } else if (isItem || vr == VR.SQ || elementLength < 0) {
+                    if (depth == containerEnd.length) {
+                        containerEnd = Arrays.copyOf(containerEnd, depth * 2);
+                        containerIsItem = Arrays.copyOf(containerIsItem, depth * 2);
+                    }
+                    containerEnd[depth] = elementLength < 0 ? -1 : start + elementLength;
+                    containerIsItem[depth] = isItem;
+                    depth++;
+                    if (isItem) {
+                        handler.startItem(elementLength);
+                    } else {
+                        handler.startSequence(tag, vr, elementLength);
+                    }
+                } else {
+                    handler.startElement(tag, vr, elementLength);
+                    if (tag == DICOMFile.IMAGE_TAG_WORD && depth == 0) {
+                        handler.pixelDataFragment(0, getValueBuffer(start, elementLength));
+                    } else {
+                        handler.value(getValueBuffer(start, elementLength));
+                    }
+
+                    if (tag == 0x00020000) { // length of the transfer syntax group
+                        metaGroupLength = getInt(endianess) + 12; // 12 is the length of 0002,0000 tag
+                    } else if (tag == 0x00020010 && !processTransferSyntax(getString(elementLength))) {
+                        throw new IOException("Unsupported transfer syntax");
+                    }
+                    seek(start + elementLength);
+                }
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException aie) {
+            throw new IOException("Reached end of file while reading element at " + getFilePointer());
+        }
+
+        while (depth > 0) { // file ended inside of a sequence
+            depth--;
+            if (containerIsItem[depth]) {
+                handler.endItem();
+            } else {
+                handler.endSequence();
+            }
+        }
+    }
+
+    /**
+     * Reports the items of an element of undefined length that holds
+     * encapsulated data, up to and including its sequence delimiter.
+     *
+     * @param handler receives a fragment event per item
+     *
+     * @throws IOException if the file ends in the middle of an item
+     */
+    private void readFragments(final DICOMStreamHandler handler) throws IOException {
+        int index = 0;
+        while (!isEndOfData()) {
+            getNextElement(endianess);
+            final int tag = (groupWord << 16) | elementWord;
+            if (tag == DICOMFile.SEQ_ITEM_UNDEF_END_WORD) {
+                break;
+            }
+
+            final long start = getFilePointer();
+            if (tag == DICOMFile.SEQ_ITEM_BEGIN_WORD && elementLength >= 0) {
+                handler.pixelDataFragment(index++, getValueBuffer(start, elementLength));
+            }
+            seek(start + Math.max(elementLength, 0));
+        }
+    }
+
+    /**
+     * Returns a read-only view of part of the file in the byte order of the
+     * current element and moves the file pointer to its start.
+     *
+     * @param offset file position of the first byte
+     * @param length number of bytes
+     *
+     * @return the view, positioned at its first byte
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    private ByteBuffer getValueBuffer(final long offset, final int length) throws IOException {
+        seek(offset);
+        final int index = index(length);
+        final ByteBuffer value = tagBuffer.duplicate();
+        value.limit(index + length);
+        value.position(index);
+        return value.slice().asReadOnlyBuffer()
+                .order(endianess == FileBase.BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
     }
 
-    private boolean processImageData(int[] extents2, int imageNumber, int imageTagLoc) throws IOException {
-        if (imageTagLoc != locateImageTag(0, numEmbeddedImages)) {
+    /**
+     * Determines the value representation of the element just read, from the
+     * file for explicit VR and from the dicom dictionary for implicit VR, the
+     * same way as processNextTag.
+     *
+     * @param key the key of the element
+     *
+     * @return the value representation, UN if it cannot be determined
+     *
+     * @throws IOException if the dictionary could not be consulted
+     */
+    private VR getElementVR(final FileDicomKey key) {
+        final FileDicomTagInfo entry = DicomDictionary.resolve(key);
+        VR vr = null;
 
+        if ((fileInfo.getVr_type() == VRtype.IMPLICIT) || (groupWord == 2)) {
+            vr = entry != null ? entry.getType() : null;
+            if (vr == null) {
+                vr = key.getElementNumber() == 0 ? VR.UL : VR.UN;
+            }
+        } else {
+            vr = toVR(vrBytes);
+
+            if (key.getTag() == DICOMFile.IMAGE_TAG_WORD) {
+                vr = VR.OB;
+            } else if ((vr == VR.UN || vr == VR.XX || vr == null) && entry != null) {
+                vr = entry.getType();
+            } else if (vr == null) {
+                vr = VR.UN;
+            }
         }
+        return vr;
+    }
 
+    private boolean processImageData(int[] extents2, int imageNumber, long imageTagLoc) throws IOException {
         fileInfo.setInfoFromTags();
+        fileInfo.setPixelDataLength(elementLength == -1 ? -1 : elementLength & 0xFFFFFFFFL); // unsigned, may exceed 2GB
         final int imageLength = extents[0] * extents[1] * fileInfo.bitsAllocated / 8;
 
         if (fileInfo.getModality() == FileInfoBase.POSITRON_EMISSION_TOMOGRAPHY) {
@@ -334,6 +857,9 @@ public class DICOMFileInputStream extends FileDicomBase {
             }
         } else { // encapsulated
             fileInfo.setImageOffset(imageTagLoc - 12 > 0 ? imageTagLoc - 12 : imageTagLoc);
+            if (elementLength == -1) {
+                fragmentIndex = buildFragmentIndex(imageTagLoc);
+            }
         }
         if (extents[0] == 0 || extents[1] == 0) {
             extents = guessImageLength(extents);
@@ -352,7 +878,8 @@ public class DICOMFileInputStream extends FileDicomBase {
      * Helper method for dicom files that do not specify a valid extents
      */
     private int[] guessImageLength(int[] extents) throws IOException {
-        int possImageLength = (int) ((this.rawFile.getRaFile().length() - fileInfo.getImageOffset()) * (fileInfo.bytesPerPixel));
+        inflate(Long.MAX_VALUE); // the length of a deflated data set is known once it is inflated
+        int possImageLength = (int) ((fLength - fileInfo.getImageOffset()) * (fileInfo.bytesPerPixel));
         if (possImageLength % ((int) Math.sqrt(possImageLength)) == 0) { //most likely for squares unless enhanced dicom and no extents have been found
             extents[0] = (int) Math.sqrt(possImageLength);
             extents[1] = extents[0];
@@ -386,63 +913,210 @@ public class DICOMFileInputStream extends FileDicomBase {
     private FileDicomKey getNextTag(boolean endianess) throws IOException {
         // ******* Gets the next element
         getNextElement(endianess); // gets group, element, length
-        final String name = convertGroupElement(groupWord, elementWord);
-        final FileDicomKey key = new FileDicomKey(name);
-        return key;
+        return new FileDicomKey((groupWord << 16) | elementWord);
     }
 
     /**
-     * Converts the integer values of the group word and element word into a
-     * string that is the hexadecimal representation of group word and element
-     * word, separated by a comma.
+     * Looks up the value representation of a two letter code without
+     * creating a String for it.
      *
-     * @param groupWord The group word of the element.
-     * @param elementWord The element word of the element.
+     * @param code the two bytes of the value representation
      *
-     * @return String representation of the group element.
+     * @return the value representation, <code>null</code> if the code is not
+     * one
      */
-    private String convertGroupElement(final int groupWord, final int elementWord) {
-        String first, second;
-
-        first = Integer.toString(groupWord, 16);
-
-        while (first.length() < 4) { // prepend with '0' as needed
-            first = "0" + first;
-        }
-
-        first = first.toUpperCase();
-        second = Integer.toString(elementWord, 16);
+    private static VR toVR(final byte[] code) {
+        final int first = code[0] - 'A';
+        final int second = code[1] - 'A';
 
-        while (second.length() < 4) { // prepend with '0' as needed
-            second = "0" + second;
+        if (first < 0 || first >= 26 || second < 0 || second >= 26) {
+            return null;
         }
+        return VR_BY_CODE[first * 26 + second];
+    }
 
-        second = second.toUpperCase();
-
-        return (first + "," + second); // name is the hex string of the tag
+    /**
+     * Returns whether the packed tag is the image tag. Only 7FE0,0010 counts,
+     * as in {@link #findImageTag()} and everywhere else the pixel data is
+     * looked for; the retired 7Fxx,0010 groups are read as any other tag.
+     *
+     * @param tag the packed group and element of the tag
+     *
+     * @return <code>true</code> if tag is 7FE0,0010
+     */
+    private static boolean isImageTag(final int tag) {
+        return tag == DICOMFile.IMAGE_TAG_WORD;
     }
 
     /**
-     * Closes both the input and output streams if not null.
+     * Writes the object with its data set deflated, in the Deflated Explicit
+     * VR Little Endian transfer syntax. The preamble and the meta group are
+     * copied with the new transfer syntax UID and group length, and the data
+     * set is deflated straight from the tag buffer a chunk at a time, so the
+     * object is never held in memory as a whole. An object that is already
+     * deflated is copied as it is.
+     *
+     * @param out stream the object is written to; it is not closed
+     * @param level deflate level from 0 to 9, or
+     * <code>Deflater.DEFAULT_COMPRESSION</code>
+     *
+     * @throws IOException if the object has no meta group, its data set is
+     * not Explicit VR Little Endian, or it cannot be written
      */
-    public void close() {
+    public void writeDeflated(final OutputStream out, final int level) throws IOException {
+        final ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        String transferSyntax = null;
 
-        if (inFileStream != null) {
-            try {
-                inFileStream.close();
-            } catch (final IOException e) {
+        seek(0);
+        skipBytes(ID_OFFSET);
+        if (!getString(4).equals("DICM")) {
+            throw new IOException("Only objects with a file meta group can be written deflated");
+        }
+        try {
+            while (!isEndOfData()) {
+                final long start = getFilePointer();
+                getNextElement(FileBase.LITTLE_ENDIAN);
+                if (groupWord != 0x0002) {
+                    seek(start); // first element of the data set
+                    break;
+                }
+
+                final long valueStart = getFilePointer();
+                final int tag = (groupWord << 16) | elementWord;
+                if (tag == 0x00020010) {
+                    transferSyntax = getString(elementLength).trim();
+                    writeMetaElement(meta, elementWord, "UI",
+                            DICOM_Constants.UID_TransferDEFLATEDLITTLEENDIANEXPLICIT.getBytes(StandardCharsets.US_ASCII));
+                } else if (tag != 0x00020000) { // the group length is written anew
+                    final byte[] element = new byte[(int) (valueStart - start) + elementLength];
+                    seek(start);
+                    read(element);
+                    meta.write(element);
+                }
+                seek(valueStart + elementLength);
             }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException aie) {
+            throw new IOException("Reached end of file while reading the meta group");
         }
+        final long dataSetOffset = getFilePointer();
+
+        if (DICOM_Constants.UID_TransferDEFLATEDLITTLEENDIANEXPLICIT.equals(transferSyntax)) {
+            seek(0);
+            copyTo(out, null);
+            return;
+        } else if (!DICOM_Constants.UID_TransferLITTLEENDIANEXPLICIT.equals(transferSyntax)) {
+            throw new IOException("Only Explicit VR Little Endian can be written deflated, not " + transferSyntax);
+        }
+
+        final byte[] preamble = new byte[ID_OFFSET + 4];
+        final ByteArrayOutputStream groupLength = new ByteArrayOutputStream();
+        final byte[] length = new byte[4];
+        setBufferInt(length, meta.size(), 0, FileBase.LITTLE_ENDIAN);
+        writeMetaElement(groupLength, 0x0000, "UL", length);
 
+        seek(0);
+        read(preamble);
+        out.write(preamble);
+        groupLength.writeTo(out);
+        meta.writeTo(out);
+
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            seek(dataSetOffset);
+            copyTo(out, deflater);
+        } finally {
+            deflater.end();
+        }
     }
 
     /**
-     * Increments the location, then reads the elementWord, groupWord, and
-     * elementLength. It also tests for an end of file and resets the
-     * elementWord if it encounters one.
+     * Writes an element of the meta group in Explicit VR Little Endian.
      *
-     * @param bigEndian <code>true</code> indicates big endian byte order,
-     * <code>false</code> indicates little endian.
+     * @param out stream the element is written to
+     * @param element element number in group 0002
+     * @param vr value representation, a short one with a 2 byte length
+     * @param value the value, of even length
+     */
+    private static void writeMetaElement(final ByteArrayOutputStream out, final int element, final String vr,
+            final byte[] value) {
+        out.write(0x02);
+        out.write(0x00);
+        out.write(element & 0xFF);
+        out.write(element >>> 8);
+        out.write(vr.charAt(0));
+        out.write(vr.charAt(1));
+        out.write(value.length & 0xFF);
+        out.write(value.length >>> 8);
+        out.write(value, 0, value.length);
+    }
+
+    /**
+     * Writes the rest of the tag buffer from the file pointer on, deflated if
+     * a deflater is given. A deflated stream of odd length is padded with a
+     * zero byte, as the standard requires.
+     *
+     * @param out stream the bytes are written to
+     * @param deflater raw deflater, or <code>null</code> to copy the bytes as
+     * they are
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private void copyTo(final OutputStream out, final Deflater deflater) throws IOException {
+        byte[] chunk = new byte[(int) BUFFER_SIZE];
+        final byte[] deflatedChunk = new byte[(int) BUFFER_SIZE];
+        long written = 0;
+
+        while (!isEndOfData()) {
+            if (remaining(chunk.length) < chunk.length) {
+                chunk = new byte[(int) remaining(chunk.length)]; // last chunk
+            }
+            read(chunk);
+            if (deflater == null) {
+                out.write(chunk);
+                continue;
+            }
+            deflater.setInput(chunk);
+            while (!deflater.needsInput()) {
+                final int count = deflater.deflate(deflatedChunk);
+                out.write(deflatedChunk, 0, count);
+                written += count;
+            }
+        }
+
+        if (deflater != null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(deflatedChunk);
+                out.write(deflatedChunk, 0, count);
+                written += count;
+            }
+            if ((written & 1) != 0) {
+                out.write(0);
+            }
+        }
+    }
+
+    /**
+     * Closes both the input and output streams if not null.
+     */
+    public void close() {
+
+        if (inFileStream != null) {
+            try {
+                inFileStream.close();
+            } catch (final IOException e) {
+            }
+        }
+
+    }
+
+    /**
+     * Increments the location, then reads the elementWord, groupWord, and
+     * elementLength. It also tests for an end of file and resets the
+     * elementWord if it encounters one.
+     *
+     * @param bigEndian <code>true</code> indicates big endian byte order,
+     * <code>false</code> indicates little endian.
      *
      * @throws IOException DOCUMENT ME!
      */
@@ -460,10 +1134,8 @@ public class DICOMFileInputStream extends FileDicomBase {
              * explicit tags carry an extra 4 bytes after the tag (group, element) information to describe the type of
              * tag. the element dictionary describes this info, so we skip past it here. (apr 2004)
              */
-            final String tagname = convertGroupElement(groupWord, elementWord);
-
-            if (tagname.equals(DICOMFile.SEQ_ITEM_BEGIN) || tagname.equals(DICOMFile.SEQ_ITEM_END)
-                    || tagname.equals(DICOMFile.SEQ_ITEM_UNDEF_END) || tagname.equals("FFFE,EEEE")) // reserved
+            if (groupWord == 0xFFFE && (elementWord == 0xE000 || elementWord == 0xE00D
+                    || elementWord == 0xE0DD || elementWord == 0xEEEE)) // item, item end, sequence end, reserved
             {
                 elementLength = getInt(bigEndian);
             } else {
@@ -533,12 +1205,14 @@ public class DICOMFileInputStream extends FileDicomBase {
             }
         } // explicit VR with 32-bit length
         else if (((b1 == 79) && (b2 == 66)) || ((b1 == 79) && (b2 == 87)) || ((b1 == 83) && (b2 == 81))
-                || ((b1 == 85) && (b2 == 78)) || ((b1 == 85) && (b2 == 84))) {
+                || ((b1 == 85) && (b2 == 78)) || ((b1 == 85) && (b2 == 84))
+                || ((b1 == 79) && ((b2 == 68) || (b2 == 70) || (b2 == 76) || (b2 == 86)))
+                || ((b1 == 85) && ((b2 == 67) || (b2 == 82)))) {
 
-            // VR = 'OB', or 'OW' or 'SQ' or 'UN' or 'UT'
+            // VR = 'OB', or 'OW' or 'SQ' or 'UN' or 'UT', or 'OD', 'OF', 'OL', 'OV', 'UC', 'UR'
             vrBytes[0] = b1;
             vrBytes[1] = b2;
-            fileInfo.isCurrentTagSQ = new String(vrBytes).equals("SQ");
+            fileInfo.isCurrentTagSQ = (b1 == 'S') && (b2 == 'Q');
 
             // SQ - check for length FFFFFFFF (undefined), otherwise should be 0.
             if ((b1 == 83) && (b2 == 81)) { // 'SQ'
@@ -564,7 +1238,7 @@ public class DICOMFileInputStream extends FileDicomBase {
             vrBytes[0] = b1; // these are not VR for item tags!!!!!!!!!
             vrBytes[1] = b2;
 
-            fileInfo.isCurrentTagSQ = new String(vrBytes).equals("SQ");
+            fileInfo.isCurrentTagSQ = (b1 == 'S') && (b2 == 'Q');
 
             if (endianess == FileBase.LITTLE_ENDIAN) {
                 return ((b3 & 0xff) | ((b4 & 0xff) << 8));
@@ -703,6 +1377,79 @@ public class DICOMFileInputStream extends FileDicomBase {
         this.fileInfo = fileInfo;
     }
 
+    /**
+     * Prepares this stream for reading another file, so that one instance can
+     * parse any number of files in turn. Everything learned about the last
+     * file is cleared; the raw image reader with its scratch buffers and the
+     * settings (lazy values, tag filter, stop tag) are kept. The stream must
+     * not be used for the previous file afterwards.
+     *
+     * @param fileInfo the file to read next
+     */
+    public void reset(DICOMFile fileInfo) {
+        close();
+        inFileStream = null;
+        source = null;
+        tagBuffer = null;
+        fLength = 0;
+        seek(0);
+        notDir = true;
+        numEmbeddedImages = 0;
+
+        this.fileInfo = fileInfo;
+        endianess = FileBase.LITTLE_ENDIAN;
+        extents = new int[2]; // handed on to the file info, so not reused
+        isEnhanced = false;
+        encapsulated = false;
+        encapsulatedJP2 = false;
+        deflated = false;
+        dataSetStart = 0;
+        transferSyntax = null;
+        isEnhanced4D = false;
+        enhancedNumSlices = 0;
+        enhancedNumVolumes = 0;
+        flag = true;
+        metaGroupLength = 0;
+        elementLength = 0;
+        hasHeaderBeenRead = false;
+        dirInfo = null;
+        lossy = false;
+        imageLoadReady = false;
+        groupWord = 0;
+        elementWord = 0;
+        enhancedTagTables = null;
+        tagSQ = 0;
+        compressionType = FileInfoBase.COMPRESSION_NONE;
+        inflaterStream = null;
+
+        bitsAllocated = -1;
+        bytesPerPixel = 1;
+        containsDICM = true;
+        displayType = 0;
+        instanceNumber = -1;
+        isCurrentTagSQ = false;
+        multiFrame = false;
+        olderVersion = false;
+        orientation = null;
+        photometricInterp = "MONOCHROME2";
+        pixelPaddingValue = null;
+        pixelRepresentation = UNDEFINED_PIXEL_REP;
+        planarConfig = 0;
+        sliceLocation = 0;
+        vr_type = VRtype.IMPLICIT;
+        xLocation = 0;
+        yLocation = 0;
+        zLocation = 0;
+        tagTable = null;
+        isEnhancedDicom = false;
+        problems.clear();
+        pixelDataTagOffset = -1;
+        extendedOffsetTableOffset = -1;
+        extendedOffsetTableLength = 0;
+        fragmentIndex = null;
+        sequenceItemCount = 0;
+    }
+
     //~ Methods --------------------------------------------------------------------------------------------------------
     /**
      * This method extracts directional cosines from the DICOM image header (tag
@@ -895,9 +1642,9 @@ public class DICOMFileInputStream extends FileDicomBase {
         while (itr.hasNext()) {
             int group = itr.next();
             try {
-                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getValue(false);
+                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getRawValue();
                 if (length.intValue() != lengthComp.get(group).get()) {
-                    System.err.println("Computed group: " + Integer.toHexString(group) + " length does not agree with stored value.\n");
+                    reportProblem("Computed group: " + Integer.toHexString(group) + " length does not agree with stored value.");
                 }
                 tagTable.get(new FileDicomKey(group, 0)).setValue(new Integer(lengthComp.get(group).get()));
 
@@ -916,7 +1663,7 @@ public class DICOMFileInputStream extends FileDicomBase {
         if (tag.getValueRepresentation() != VR.SQ) {
             length.add(tag.getDataLength());
         } else {
-            length.add(((FileDicomSQ) tag.getValue(false)).getDataLength());
+            length.add(((FileDicomSQ) tag.getRawValue()).getDataLength());
         }
         if (vr_type == VRtype.EXPLICIT) {
             if (tag.getType().reservedBytes()) {
@@ -1103,10 +1850,246 @@ public class DICOMFileInputStream extends FileDicomBase {
         setModality(getModalityFromDicomStr(value));
     }
 
+    /**
+     * Returns the transfer syntax of the data set read last.
+     *
+     * @return the transfer syntax, <code>null</code> if no meta group with a
+     * transfer syntax has been read
+     */
+    public TransferSyntax getTransferSyntax() {
+        return transferSyntax;
+    }
+
     public VRtype getVr_type() {
         return vr_type;
     }
 
+    /**
+     * Restricts the header parse to the given tags. Every other top level
+     * element is stepped over by its length, without a dictionary lookup or
+     * decoding its value, and the parse ends once the highest requested tag
+     * has been passed. The meta group (0002), the image dimensions, the number
+     * of frames and the pixel data are always read.
+     *
+     * @param tags the tags to read, <code>null</code> to read every tag
+     */
+    public void setTagFilter(Collection<FileDicomKey> tags) {
+        if (tags == null) {
+            setTagFilter((IntPredicate) null);
+            stopTag = 0;
+            return;
+        }
+
+        final int[] selected = new int[tags.size()];
+        int i = 0;
+        int last = 0;
+        for (FileDicomKey key : tags) {
+            selected[i++] = key.getTag();
+            if (Integer.compareUnsigned(key.getTag(), last) > 0) {
+                last = key.getTag();
+            }
+        }
+        Arrays.sort(selected);
+
+        setTagFilter(tag -> Arrays.binarySearch(selected, tag) >= 0);
+        stopTag = last;
+    }
+
+    /**
+     * Restricts the header parse to the top level tags accepted by the
+     * filter. The filter is given the packed tag, <code>(group &lt;&lt; 16) |
+     * element</code>; rejected elements are stepped over by their length. The
+     * meta group (0002), the image dimensions, the number of frames and the
+     * pixel data are always read.
+     *
+     * @param filter selects the tags to read, <code>null</code> to read every
+     * tag
+     */
+    public void setTagFilter(IntPredicate filter) {
+        this.tagFilter = filter;
+    }
+
+    /**
+     * Ends the header parse at the first top level tag that comes after the
+     * given one.
+     *
+     * @param key the last tag of interest, <code>null</code> to parse up to the
+     * pixel data
+     */
+    public void setStopTag(FileDicomKey key) {
+        this.stopTag = key == null ? 0 : key.getTag();
+    }
+
+    /**
+     * Returns the problems found while reading the last header, e.g. tags
+     * that were skipped because of a corrupt length. The header may still be
+     * usable.
+     *
+     * @return the problems in the order they were found, empty if none
+     */
+    public List<String> getParseProblems() {
+        return Collections.unmodifiableList(new ArrayList<String>(problems));
+    }
+
+    /**
+     * Sets whether problems found while reading a header are printed to
+     * System.err as well as recorded. They are printed by default.
+     *
+     * @param printProblems <code>false</code> to only record them
+     *
+     * @see #getParseProblems()
+     */
+    public void setPrintProblems(boolean printProblems) {
+        this.printProblems = printProblems;
+    }
+
+    /**
+     * Records a problem found while reading the header, and prints it unless
+     * printing was turned off with {@link #setPrintProblems(boolean)}. Also
+     * used by DICOMFile for problems found in the tags read.
+     *
+     * @param message description of the problem
+     */
+    public void reportProblem(String message) {
+        problems.add(message);
+        if (printProblems) {
+            System.err.println(message + "\n");
+        }
+    }
+
+    /**
+     * Starts inflating the data set when the meta group has been read and the
+     * transfer syntax is deflated. The parser then reads on in the inflated
+     * bytes at the same file pointer.
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    private void inflateDataSet() throws IOException {
+        if (deflated && !isInflated()) {
+            dataSetStart = getFilePointer();
+            inflateTagBuffer(dataSetStart);
+        }
+    }
+
+    /**
+     * Returns where the pixel data starts. The position recorded when the
+     * parser passed the pixel data element is used if there is one, the file
+     * is only searched for the tag when the parser never reached it.
+     *
+     * @return position of the pixel data, -1 if the file has none
+     */
+    private long findImageTag() throws IOException {
+        if (pixelDataTagOffset != -1) {
+            return pixelDataTagOffset + (fileInfo.getVr_type() == VRtype.IMPLICIT ? 8 : 12);
+        }
+        final long imageLoc = locateImageTag(0, numEmbeddedImages);
+        if (imageLoc == -1) {
+            reportProblem("No image tag was found for this DICOM image");
+        }
+        return imageLoc;
+    }
+
+    /**
+     * Returns whether tag values are decoded on first access rather than
+     * while the header is parsed.
+     *
+     * @return <code>true</code> if lazy value decoding is enabled
+     */
+    public boolean isLazyValues() {
+        return lazyValues;
+    }
+
+    /**
+     * Sets whether tag values are decoded on first access rather than while
+     * the header is parsed. With lazy values the cost of reading a header
+     * mostly depends on the number of elements, not on the size of their
+     * values. The tags the parser needs itself (group 0002, image dimensions
+     * and frame count) are always decoded. A value that cannot be decoded
+     * makes the tag accessors throw an UncheckedIOException instead of a
+     * parse problem being recorded.
+     *
+     * @param lazyValues <code>true</code> to decode values on first access
+     */
+    public void setLazyValues(boolean lazyValues) {
+        this.lazyValues = lazyValues;
+    }
+
+    /**
+     * Returns whether the items of sequences are parsed on first access
+     * rather than while the header is read.
+     *
+     * @return <code>true</code> if lazy sequence parsing is enabled
+     */
+    public boolean isLazySequences() {
+        return lazySequences;
+    }
+
+    /**
+     * Sets whether the items of sequences are parsed on first access rather
+     * than while the header is read. A sequence of defined length is stepped
+     * over by its length, one of undefined length by following the element
+     * lengths to its delimiter. This makes reading the top level tags of
+     * objects with large sequences cheap, such as the per-frame functional
+     * groups of enhanced objects. Those are then kept as a sequence in the
+     * tag table instead of being split into per frame tag tables. The
+     * directory records of a DICOMDIR are always read. Items that cannot be
+     * parsed make the sequence accessors throw an UncheckedIOException
+     * instead of a parse problem being recorded.
+     *
+     * @param lazySequences <code>true</code> to parse sequences on first
+     * access
+     */
+    public void setLazySequences(boolean lazySequences) {
+        this.lazySequences = lazySequences;
+    }
+
+    /**
+     * Returns the deepest nesting of sequences that is read.
+     *
+     * @return the maximum sequence depth
+     */
+    public int getMaxSequenceDepth() {
+        return maxSequenceDepth;
+    }
+
+    /**
+     * Sets the deepest nesting of sequences that is read; a top level
+     * sequence has depth 1. Deeper sequences are stepped over and reported as
+     * a parse problem.
+     *
+     * @param maxSequenceDepth the maximum sequence depth, at least 1
+     */
+    public void setMaxSequenceDepth(int maxSequenceDepth) {
+        if (maxSequenceDepth < 1) {
+            throw new IllegalArgumentException("Sequence depth must be at least 1: " + maxSequenceDepth);
+        }
+        this.maxSequenceDepth = maxSequenceDepth;
+    }
+
+    /**
+     * Returns the largest number of sequence items read from one header.
+     *
+     * @return the maximum number of items
+     */
+    public int getMaxSequenceItems() {
+        return maxSequenceItems;
+    }
+
+    /**
+     * Sets the largest number of sequence items read from one header, over
+     * all sequences. This bounds the memory a header can take. The rest of a
+     * sequence in which the limit is reached is stepped over and reported as
+     * a parse problem.
+     *
+     * @param maxSequenceItems the maximum number of items, not negative
+     */
+    public void setMaxSequenceItems(int maxSequenceItems) {
+        if (maxSequenceItems < 0) {
+            throw new IllegalArgumentException("Number of sequence items must not be negative: " + maxSequenceItems);
+        }
+        this.maxSequenceItems = maxSequenceItems;
+    }
+
     public void setVr_type(VRtype vr_type) {
         this.vr_type = vr_type;
     }
@@ -1123,18 +2106,21 @@ public class DICOMFileInputStream extends FileDicomBase {
         String strValue = null;
         Object data = null;
         VR vr = null; // value representation of data
-        String name = key.toString(); // string representing the tag
+        final int tag = key.getTag(); // packed group and element of the tag
         int tagVM;
 
+        // one dictionary search per element
+        final FileDicomTagInfo entry = DicomDictionary.resolve(key);
+
         if ((fileInfo.getVr_type() == VRtype.IMPLICIT) || (groupWord == 2)) {
 
             // implicit VR means VR is based on tag as defined in dictionary
-            vr = DicomDictionary.getType(key);
-            tagVM = DicomDictionary.getVM(key);
+            vr = entry != null ? entry.getType() : null;
+            tagVM = entry != null ? entry.getValueMultiplicity() : 0;
 
             // the tag was not found in the dictionary..
             if (vr == null) {
-                if (Integer.parseInt(key.getElement(), 16) == 0) {
+                if (key.getElementNumber() == 0) {
                     vr = VR.UL;
                 } else {
                     vr = VR.UN;
@@ -1142,24 +2128,19 @@ public class DICOMFileInputStream extends FileDicomBase {
                 }
             }
         } else { // Explicit VR  
-            try {
-                vr = VR.valueOf(new String(vrBytes));
-            } catch (Exception e) {
-
-            } finally {
-                if (key.toString().matches(DICOMFile.IMAGE_TAG)) {
-                    if (!key.getGroup().equals("7FDF")) { //defunct scanner companies use this as another private group sometimes
-                        vr = VR.OB;
-                    }
-                } else if ((vr == VR.UN || vr == VR.XX || vr == null) && new DicomDictionary().containsTag(key)) {
-                    vr = new DicomDictionary().getType(key);
-                } else if (vr == null) {
-                    vr = VR.UN;
+            vr = toVR(vrBytes);
 
+            if (tag == DICOMFile.IMAGE_TAG_WORD) {
+                if (key.getGroupNumber() != 0x7FDF) { //defunct scanner companies use this as another private group sometimes
+                    vr = VR.OB;
                 }
+            } else if ((vr == VR.UN || vr == VR.XX || vr == null) && entry != null) {
+                vr = entry.getType();
+            } else if (vr == null) {
+                vr = VR.UN;
             }
 
-            if (!new DicomDictionary().containsTag(key)) {
+            if (entry == null) {
                 tagVM = 1;
                 if (vr.getType() instanceof FileDicomTagInfo.NumType) {
                     tagVM = elementLength / ((NumType) vr.getType()).getNumBytes();
@@ -1175,11 +2156,9 @@ public class DICOMFileInputStream extends FileDicomBase {
                         "Private Tag"));
 
             } else {
-                final FileDicomTagInfo info = new DicomDictionary().getInfo(key);
-                // this is required if DicomDictionary contains wild card characters
-                info.setKey(key);
-                tagTable.putPrivateTagValue(info);
-                tagVM = info.getValueMultiplicity();
+                // the resolved entry already carries this key, also for wild card groups
+                tagTable.putPrivateTagValue(entry);
+                tagVM = entry.getValueMultiplicity();
                 tagTable.get(key).setValueRepresentation(vr);
 
             }
@@ -1189,6 +2168,20 @@ public class DICOMFileInputStream extends FileDicomBase {
             throw new IOException("Error while reading header");
         }
 
+        if (lazyValues && elementLength > 0 && !isParserTag(tag) && FileDicomDeferredValue.isDeferrable(vr)) {
+            // only remember where the value is, the tag decodes it on first access
+            final int valueIndex = index(elementLength);
+            final FileDicomDeferredValue deferred = new FileDicomDeferredValue(tagBuffer, valueIndex,
+                    elementLength, vr, tagVM, endianess);
+            if (vr == VR.UN) {
+                processUnknownVR(tagTable, key, tagVM, deferred);
+            } else {
+                tagTable.setValue(key, deferred, elementLength);
+            }
+            seek(getFilePointer() + elementLength);
+            return true;
+        }
+
         try {
 
             if (vr.getType().equals(StringType.STRING) || vr.getType().equals(StringType.DATE)) {
@@ -1213,11 +2206,11 @@ public class DICOMFileInputStream extends FileDicomBase {
                     tagTable.setValue(key, innerKey, elementLength);
                     break;
                 case OW:
-                    if (name.equals("0028,1201") || name.equals("0028,1202") || name.equals("0028,1203")) {
+                    if (tag == 0x00281201 || tag == 0x00281202 || tag == 0x00281203) {
                         //return getColorPallete(tagTable, new FileDicomKey(name));  //for processing either red(1201), green(1202), or blue(1203)
                     }
                 case OB:
-                    if (name.matches(DICOMFile.IMAGE_TAG) && !inSequence) { //can be either OW or OB
+                    if (tag == DICOMFile.IMAGE_TAG_WORD && !inSequence) { //can be either OW or OB
                         return processImageData(extents, numEmbeddedImages, getFilePointer() + (fileInfo.getVr_type() == VRtype.IMPLICIT ? 4 : 0)); //finished reading image tags and all image data, get final image for display
                     }
                     data = getByte(tagVM, elementLength, endianess);
@@ -1225,11 +2218,16 @@ public class DICOMFileInputStream extends FileDicomBase {
                     break;
                 case UN:
                     if (elementLength != -1) {
-                        processUnknownVR(tagTable, strValue, key, tagVM, strValue);
+                        processUnknownVR(tagTable, key, tagVM, readUnknownData(elementLength));
                         break;
                     } //else is implicit sequence, so continue
                 case SQ:
-                    processSequence(tagTable, key, name, endianess);
+                    if (inSequence && !lazySequences) { // the items are read by getSequence, without recursing
+                        nestedSequenceKey = key;
+                        nestedSequenceLength = elementLength;
+                        break;
+                    }
+                    processSequence(tagTable, key, endianess);
                     if (flag == false) {
                         return false;
                     }
@@ -1258,31 +2256,31 @@ public class DICOMFileInputStream extends FileDicomBase {
             throw new IOException();
         }
 
-        if (name.equals("0002,0000")) { // length of the transfer syntax group
+        if (tag == 0x00020000) { // length of the transfer syntax group
             if (data != null) {
                 metaGroupLength = ((Integer) (data)).intValue() + 12; // 12 is the length of 0002,0000 tag
             }
-        } else if (name.equals("0004,1220")) {
+        } else if (tag == 0x00041220) {
             notDir = false;
-        } else if (name.equals("0002,0010")) {
+        } else if (tag == 0x00020010) {
             boolean supportedTransferSyntax = processTransferSyntax(strValue);
             if (!supportedTransferSyntax) {
                 return false;
             }
 
-        } else if (name.equals("0028,0010") && !inSequence) { // Set the extents, used for reading the image in FileInfoDicom's processTags
+        } else if (tag == 0x00280010 && !inSequence) { // Set the extents, used for reading the image in FileInfoDicom's processTags
             extents[1] = ((Short) data).intValue();
             // fileInfo.columns = extents[1];
-        } else if (name.equals("0028,0011") && !inSequence) {
+        } else if (tag == 0x00280011 && !inSequence) {
             extents[0] = ((Short) data).intValue();
             // fileInfo.rows = extents[0];
-        } else if (!isEnhanced && name.equals("0002,0002")) {                           // need to determine if this is enhanced dicom
+        } else if (!isEnhanced && tag == 0x00020002) {                           // need to determine if this is enhanced dicom
             if (strValue.trim().equals(DICOM_Constants.UID_EnhancedMRStorage) // if it is, set up all the additional fileinfos needed and attach
                     || strValue.trim().equals(DICOM_Constants.UID_EnhancedCTStorage) // the childTagTables to the main tagTable
                     || strValue.trim().equals(DICOM_Constants.UID_EnhancedXAStorage)) {
                 isEnhanced = true;
             }
-        } else if (isEnhanced && name.equals("0028,0008")) {
+        } else if (isEnhanced && tag == 0x00280008) {
             final int nImages = Integer.valueOf(strValue.trim()).intValue();
             fileInfo.setIsEnhancedDicom(true);
             if (nImages > 1) {
@@ -1293,57 +2291,50 @@ public class DICOMFileInputStream extends FileDicomBase {
         return true;
     }
 
+    /**
+     * Takes the byte order, VR encoding and pixel data encoding of the data
+     * set from the transfer syntax.
+     *
+     * @param strValue the transfer syntax UID
+     *
+     * @return <code>false</code> if the transfer syntax is not known, in which
+     * case the data set cannot be read
+     *
+     * @see TransferSyntaxRegistry
+     */
     private boolean processTransferSyntax(String strValue) {
         // Transfer Syntax UID: DICOM part 10 page 13, part 5 p. 42-48, Part 6 p. 53
-        // 1.2.840.10008.1.2 Implicit VR Little Endian (Default)
-        // 1.2.840.10008.1.2.1 Explicit VR Little Endian
-        // 1.2.840.10008.1.2.2 Explicit VR Big Endian
-        // 1.2.840.10008.1.2.4.50 8-bit Lossy JPEG (JPEG Coding Process 1)
-        // 1.2.840.10008.1.2.4.51 12-bit Lossy JPEG (JPEG Coding Process 4)
-        // 1.2.840.10008.1.2.4.57 Lossless JPEG Non-hierarchical (JPEG Coding Process 14)
-        // we should bounce out if we don't support this transfer syntax
-        if (strValue.trim().equals("1.2.840.10008.1.2")) {
-            fileInfo.setEndianess(FileBase.LITTLE_ENDIAN);
-            fileInfo.setVr_type(VRtype.IMPLICIT);
-            encapsulated = false;
-        } else if (strValue.trim().equals("1.2.840.10008.1.2.1")) {
-            fileInfo.setEndianess(FileBase.LITTLE_ENDIAN);
-            fileInfo.setVr_type(VRtype.EXPLICIT);
-            encapsulated = false;
-        } else if (strValue.trim().equals("1.2.840.10008.1.2.2")) {
-            fileInfo.setEndianess(FileBase.BIG_ENDIAN);
-            fileInfo.setVr_type(VRtype.EXPLICIT);
-            encapsulated = false;
-        } else if (strValue.trim().startsWith("1.2.840.10008.1.2.4.")) { // JPEG
-            fileInfo.setEndianess(FileBase.LITTLE_ENDIAN);
-            fileInfo.setVr_type(VRtype.EXPLICIT);
-            encapsulated = true;
-            if (strValue.trim().equals(DICOM_Constants.UID_TransferJPEG2000LOSSLESS)) {
-                encapsulatedJP2 = true;
-            }
-
-            if (strValue.trim().equals("1.2.840.10008.1.2.4.57")
-                    || strValue.trim().equals("1.2.840.10008.1.2.4.58")
-                    || strValue.trim().equals("1.2.840.10008.1.2.4.65")
-                    || strValue.trim().equals("1.2.840.10008.1.2.4.66")
-                    || strValue.trim().equals("1.2.840.10008.1.2.4.70")
-                    || strValue.trim().equals("1.2.840.10008.1.2.4.90")) {
-                lossy = false;
-            } else {
-                lossy = true;
-            }
-        } else {
+        final TransferSyntax syntax = TransferSyntaxRegistry.get(strValue);
+        if (syntax == null) {
             return false; // unable to process tags without recognized transfer syntax
         }
+
+        transferSyntax = syntax;
+        fileInfo.setEndianess(syntax.isEndianess());
+        fileInfo.setVr_type(syntax.getVrType());
+        encapsulated = syntax.isEncapsulated();
+        encapsulatedJP2 = syntax.getUid().equals(DICOM_Constants.UID_TransferJPEG2000LOSSLESS);
+        deflated = syntax.isDeflated();
+        lossy = syntax.isLossy();
         return true;
     }
 
-    private void processSequence(FileDicomTagTable tagTable, FileDicomKey key, String name, boolean endianess) throws IOException {
+    private void processSequence(FileDicomTagTable tagTable, FileDicomKey key, boolean endianess) throws IOException {
+        final int tag = key.getTag();
         final int len = elementLength;
         // save these values because they'll change as the sequence is read in below.
         FileDicomSQ sq;
+        if (lazySequences && tag != 0x00041220) {
+            sq = deferSequence(len, endianess);
+            try {
+                tagTable.setValue(key, sq, len);
+            } catch (CloneNotSupportedException ex) {
+                Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return;
+        }
         // ENHANCED DICOM per frame
-        if (name.equals("5200,9230")) {
+        if (tag == 0x52009230) {
             isEnhanced = true;
             int numSlices = 0;
             sq = getSequence(endianess, len);
@@ -1375,7 +2366,7 @@ public class DICOMFileInputStream extends FileDicomBase {
                 tagTable.removeTag(key);
             }
         } else {
-            if (name.equals("0004,1220")) {
+            if (tag == 0x00041220) {
                 dirInfo = getSequence(endianess, len);
                 sq = new FileDicomSQ();
                 sq.setWriteAsUnknownLength(len == -1);
@@ -1418,7 +2409,7 @@ public class DICOMFileInputStream extends FileDicomBase {
             // we will get the number of slices in a volumne. Then determine
             // number of volumes by taking total num slices / num slices per volume
             // ftp://medical.nema.org/medical/dicom/final/cp583_ft.pdf
-            currNum = ((Number) ((FileDicomSQ) frameTag.getValue(false)).getItem(0).get("0020,9057").getValue(false)).intValue();
+            currNum = ((Number) ((FileDicomSQ) frameTag.getRawValue()).getItem(0).get("0020,9057").getValue(false)).intValue();
         }
         if (!isEnhanced4D) {
             isEnhanced4D = !sliceInt.add(currNum); //if slice already existed, sliceInt returns false, sets isEnhanced4D to true
@@ -1430,18 +2421,63 @@ public class DICOMFileInputStream extends FileDicomBase {
         return numSlices;
     }
 
-    private void processUnknownVR(FileDicomTagTable tagTable, String name, FileDicomKey key, int tagVM, String strValue) throws IOException {
+    /**
+     * Returns whether the parser needs the value of a tag itself: the meta
+     * group, the image dimensions, the number of frames and the pixel data.
+     * These are always read and decoded, whatever filter or lazy mode is set.
+     *
+     * @param tag the packed group and element of the tag
+     *
+     * @return <code>true</code> if the value is used during parsing
+     */
+    private static boolean isParserTag(final int tag) {
+        return (tag >>> 16) == 0x0002 || tag == 0x00280008 || tag == 0x00280010 || tag == 0x00280011
+                || tag == DICOMFile.IMAGE_TAG_WORD;
+    }
+
+    /**
+     * Steps over the value of the element just read. Values of undefined
+     * length are stepped over by following their items up to the matching
+     * sequence delimiter.
+     *
+     * @param endianess byte order indicator; <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     *
+     * @throws IOException if the end of the buffer is reached
+     */
+    private void skipValue(final boolean endianess) throws IOException {
+        if (elementLength >= 0) {
+            seek(getFilePointer() + elementLength);
+            return;
+        }
+
+        int depth = 1; // number of open undefined length elements
+        while (depth > 0 && !isEndOfData()) {
+            getNextElement(endianess);
+            final int tag = (groupWord << 16) | elementWord;
+
+            if (tag == DICOMFile.SEQ_ITEM_END_WORD || tag == DICOMFile.SEQ_ITEM_UNDEF_END_WORD) {
+                depth--;
+            } else if (elementLength < 0) {
+                depth++;
+            } else {
+                seek(getFilePointer() + elementLength);
+            }
+        }
+    }
+
+    private void processUnknownVR(FileDicomTagTable tagTable, FileDicomKey key, int tagVM, Object value) throws IOException {
         try {
             try {
                 // set the value if the tag is in the dictionary (which means it isn't private..) or has already
                 // been put into the tag table without a value (private tag with explicit vr)
-                if (new DicomDictionary().containsTag(key) || tagTable.containsTag(key)) {
-                    tagTable.setValue(key, readUnknownData(), elementLength);
+                if (DicomDictionary.containsTag(key) || tagTable.containsTag(key)) {
+                    tagTable.setValue(key, value, elementLength);
                 } else {
                     tagTable
                             .putPrivateTagValue(new FileDicomTagInfo(key, VR.UN, tagVM, "PrivateTag", "Private Tag"));
 
-                    tagTable.setValue(key, readUnknownData(), elementLength);
+                    tagTable.setValue(key, value, elementLength);
                 }
             } catch (CloneNotSupportedException ex) {
                 Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
@@ -1454,481 +2490,526 @@ public class DICOMFileInputStream extends FileDicomBase {
     }
 
     /**
-     * Reads a length of the data and deposits it into a single Short or an
-     * array of Short as needed by the tag's VM.
-     *
-     * @return Object
+     * Steps over the items of a sequence and returns a sequence that parses
+     * them on first access.
      *
-     * @throws IOException DOCUMENT ME!
+     * @param seqLength length of the sequence, -1 if undefined
+     * @param endianess Big or little
      *
-     * @param vm value multiplicity of the DICOM tag data. VM does not represent
-     * how many to find.
-     * @param length number of bytes to read out of data stream; the length is
-     * not used.
-     * @param endianess byte order indicator; here <code>true</code> indicates
-     * big-endian and <code>false</code> indicates little-endian.
+     * @return the sequence, without its items
      */
-    private Object getByte(final int vm, final int length, final boolean endianess) throws IOException {
-        int len = (elementLength == UNDEFINED_LENGTH) ? 0 : elementLength;
-        int i = 0;
-        Object readObject = null; // the Object we read in
-
-        if (vm > 1) {
-            final Byte[] array = new Byte[length];
-
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Byte((byte) getByte());
-                len -= 1;
-                i++;
-            }
-
-            readObject = array;
-        } else if ((vm < 1) && (length > 2)) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            final Byte[] array = new Byte[length];
+    private FileDicomSQ deferSequence(final int seqLength, final boolean endianess) throws IOException {
+        if (seqLength == 0) {
+            return new FileDicomSQ();
+        }
 
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Byte((byte) getByte());
-                len -= 1;
-                i++;
-            }
+        final long start = getFilePointer();
+        if (seqLength > 0) {
+            seek(start + seqLength);
+        } else {
+            skipValue(endianess); // follows the element lengths to the sequence delimiter
+        }
+        final long end = getFilePointer();
 
-            readObject = array;
-        } else if (length > 0) {
-            final Byte[] array = new Byte[length];
+        seek(start);
+        index((int) Math.min(end - start, Integer.MAX_VALUE)); // the whole sequence has to be in the kept buffer
+        final FileDicomSQ sq = new FileDicomSQ(new FileDicomDeferredSequence(fileInfo, tagBuffer, getWindowStart(),
+                start, seqLength, endianess, metaGroupLength, lazyValues));
+        sq.setWriteAsUnknownLength(seqLength < 0);
+        seek(end);
 
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Byte((byte) getByte());
-                len -= 1;
-                i++;
-            }
+        return sq;
+    }
 
-            readObject = array;
-        }
+    /**
+     * Parses the items of a sequence that was stepped over when the header
+     * was read.
+     *
+     * @param buffer buffer holding the sequence
+     * @param bufferStart file position of the first byte of the buffer
+     * @param offset file position of the first item
+     * @param seqLength length of the sequence, -1 if undefined
+     * @param endianess byte order of the data set
+     * @param metaGroupLength length of the meta group of the file
+     *
+     * @return the sequence with its items
+     *
+     * @throws IOException if the sequence cannot be read
+     */
+    FileDicomSQ readDeferredSequence(final ByteBuffer buffer, final long bufferStart, final long offset,
+            final int seqLength, final boolean endianess, final int metaGroupLength) throws IOException {
+        setTagWindow(buffer, bufferStart);
+        this.metaGroupLength = metaGroupLength;
+        this.endianess = endianess;
+        seek(offset);
 
-        return readObject;
+        return getSequence(endianess, seqLength);
     }
 
     /**
-     * Reads a length of the data and deposits it into a single Short or an
-     * array of Short as needed by the tag's VM.
+     * Gets the sequence in a sequence tag. Sequences of items have special
+     * encodings that are detailed in the DICOM standard. There is usually an
+     * "item" tag, then a dataset encoded exactly like other tags, then a tag
+     * indicating the end of the sequence.
+     *
+     * <P>
+     * Sequences nested in the items are read by the same loop, with an
+     * explicit stack of the open sequences and items, so deep nesting does
+     * not use up the Java stack. A sequence nested deeper than
+     * {@link #getMaxSequenceDepth()} is stepped over. Once the header has more
+     * items than {@link #getMaxSequenceItems()}, the rest of a sequence is
+     * stepped over when its next item starts, keeping the items read so far.
+     * Either is reported as a parse problem, and the enclosing sequences and
+     * items are read on.
+     * </P>
      *
-     * @return Object
+     * <P>
+     * For further information see the DICOM Standard, Part 5, Section 7.
+     * </P>
      *
-     * @throws IOException DOCUMENT ME!
+     * @param endianess Big or little
+     * @param seqLength Length of this sequence, although possibly left
+     * undefined.
      *
-     * @param vm value multiplicity of the DICOM tag data. VM does not represent
-     * how many to find.
-     * @param length number of bytes to read out of data stream; the length is
-     * not used.
-     * @param endianess byte order indicator; here <code>true</code> indicates
-     * big-endian and <code>false</code> indicates little-endian.
+     * @return A DicomSQ object which stores the new tags and their info
+     *
+     * @see DicomSQ
      */
-    private Object getShort(final int vm, final int length, final boolean endianess) throws IOException {
-        int len = (elementLength == UNDEFINED_LENGTH) ? 0 : elementLength;
-        int i = 0;
-        Object readObject = null; // the Object we read in
+    private FileDicomSQ getSequence(final boolean endianess, final int seqLength) throws IOException {
+        final FileDicomSQ sq = new FileDicomSQ();
+        sq.setWriteAsUnknownLength(seqLength == -1);
 
-        if (vm > 1) {
-            final Short[] array = new Short[length / 2];
+        // There is no more of the tag to read if the length of the tag
+        // is zero. In fact, trying to get the Next element is potentially
+        // bad, so we'll just shut down the reading here.
+        if (seqLength == 0) {
+            return sq;
+        }
 
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Short((short) getUnsignedShort(endianess));
-                len -= 2;
-                i++;
-            }
+        final ArrayDeque<SequenceFrame> open = new ArrayDeque<SequenceFrame>();
+        int sequenceDepth = 1;
+        open.push(new SequenceFrame(sq, null, getFilePointer(), seqLength, null, null));
 
-            readObject = array;
-        } else if (((vm < 1) && (length > 2))) {
+        while (!open.isEmpty()) {
+            final SequenceFrame frame = open.peek();
 
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            final Short[] array = new Short[length / 2];
+            if (frame.item == null) { // in a sequence, between items
+                //if defined sequence length, will not read next tag once length has been reached
+                if (frame.length != -1 && getFilePointer() >= frame.start + frame.length) {
+                    closeSequence(open.pop());
+                    sequenceDepth--;
+                    continue;
+                }
+                getNextElement(endianess); // gets the next ITEM tag
+                tagSQ = (groupWord << 16) | elementWord;
+
+                if (tagSQ == DICOMFile.SEQ_ITEM_UNDEF_END_WORD) {
+                    closeSequence(open.pop());
+                    sequenceDepth--;
+                } else if (tagSQ == DICOMFile.SEQ_ITEM_BEGIN_WORD) {
+                    if (++sequenceItemCount > maxSequenceItems) {
+                        reportProblem("More than " + maxSequenceItems + " sequence items, skipping the rest of the sequence");
+                        open.push(new SequenceFrame(null, new FileDicomSQItem(null, fileInfo.getVr_type()),
+                                getFilePointer(), elementLength, null, null)); // the item just started
+                        skipSequence(open, endianess);
+                        sequenceDepth--;
+                        continue;
+                    }
 
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Short((short) getUnsignedShort(endianess));
-                len -= 2;
-                i++;
+                    // elementLength here is the length of the
+                    // item as it written into the File
+                    final FileDicomSQItem item = new FileDicomSQItem(null, fileInfo.getVr_type());
+                    item.setWriteAsUnknownLength(elementLength == -1); //if reported item length is -1, item will continue to be written with unknown length
+                    frame.sq.addItem(item);
+                    if (elementLength != 0) {
+                        open.push(new SequenceFrame(null, item, getFilePointer(), elementLength, null, null));
+                    }
+                }
+                continue;
             }
 
-            readObject = array;
-        } else if (((vm == 1) && (length > 2))) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            readObject = new Short((short) getUnsignedShort(endianess));
-            len -= 2;
-
-            while (len > 0) { // we should validate with VM here too
-                getUnsignedShort(endianess);
-                len -= 2;
-                i++;
+            // in an item, reading its tags up to the item end tag FFFE,E00D
+            if (frame.length != -1 && getFilePointer() - frame.start >= frame.length) {
+                open.pop();
+                continue;
+            }
+            final FileDicomKey key = getNextTag(endianess);
+            tagSQ = key.getTag();
+
+            if (tagSQ == DICOMFile.SEQ_ITEM_END_WORD) {
+                open.pop();
+            } else if (tagSQ == DICOMFile.IMAGE_TAG_WORD) {
+                numEmbeddedImages++;
+                seek(getFilePointer() + elementLength); //embedded image not displayed //TODO: make this image availbale in the dicom infobox
+            } else {
+                boolean dataSetflag = true; //whether dicom header processing should continue
+                nestedSequenceKey = null;
+                try {
+                    dataSetflag = processNextTag(frame.item, key, endianess, true);
+                } catch (CloneNotSupportedException ex) {
+                    Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
+                }
+
+                if (nestedSequenceKey != null) { // a sequence starts, its items are read next
+                    final FileDicomSQ nested = new FileDicomSQ();
+                    nested.setWriteAsUnknownLength(nestedSequenceLength == -1);
+                    final SequenceFrame nestedFrame = new SequenceFrame(nested, null, getFilePointer(),
+                            nestedSequenceLength, nestedSequenceKey, frame.item);
+                    nestedSequenceKey = null;
+
+                    if (nestedSequenceLength == 0) {
+                        closeSequence(nestedFrame);
+                    } else if (sequenceDepth >= maxSequenceDepth) {
+                        reportProblem("Sequences nested deeper than " + maxSequenceDepth + ", skipping the sequence "
+                                + nestedFrame.key);
+                        open.push(nestedFrame);
+                        skipSequence(open, endianess);
+                    } else {
+                        open.push(nestedFrame);
+                        sequenceDepth++;
+                    }
+                } else if (!dataSetflag) {
+                    open.pop();
+                }
             }
-        } else if (length == 2) {
-            readObject = new Short((short) getUnsignedShort(endianess));
         }
 
-        return readObject;
+        return sq;
     }
 
     /**
-     * Gets private tags or other tags where the type is unknown; does not
-     * change the data, so it may be written out correctly.
-     *
-     * @return A Byte array of length elementLength with the data stored in it.
+     * Stores a sequence that has been read completely in the item it was
+     * found in. The outermost sequence is returned by getSequence instead.
      *
-     * @throws IOException DOCUMENT ME!
+     * @param frame the sequence that has been read
      */
-    private Object readUnknownData() throws IOException {
-        byte[] bytesValue;
-        Byte[] bytesV;
-
-        if (elementLength < 0) {
-            return null;
+    private void closeSequence(final SequenceFrame frame) {
+        if (frame.parent == null) {
+            return;
         }
-
-        bytesValue = new byte[elementLength];
-        read(bytesValue);
-        bytesV = new Byte[elementLength];
-
-        for (int k = 0; k < bytesValue.length; k++) {
-            bytesV[k] = new Byte(bytesValue[k]);
+        try {
+            frame.parent.setValue(frame.key, frame.sq, frame.length);
+        } catch (CloneNotSupportedException ex) {
+            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
         }
-
-        return bytesV;
     }
 
     /**
-     * Reads a length of the data and deposits it into a single Double or an
-     * array of Double as needed by the tag's VM.
-     *
-     * @return Object
+     * Steps over the rest of the innermost open sequence and of the item open
+     * in it, keeping the items that have been read so far. The enclosing
+     * sequences and items stay open.
      *
-     * @throws IOException DOCUMENT ME!
-     *
-     * @param vm value multiplicity of the DICOM tag data. VM does not represent
-     * how many to find.
-     * @param length number of bytes to read out of data stream; the length is
-     * not used.
-     * @param endianess byte order indicator; here <code>true</code> indicates
-     * big-endian and <code>false</code> indicates little-endian.
+     * @param open the open sequences and items, innermost on top
+     * @param endianess Big or little
      */
-    private Object getDouble(final int vm, final int length, final boolean endianess) throws IOException {
-        int len = (elementLength == UNDEFINED_LENGTH) ? 0 : elementLength;
-        int i = 0;
-        Object readObject = null;
-
-        if (vm > 1) {
-            final Double[] array = new Double[length / 8];
-
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Double(getDouble(endianess));
-                len -= 8;
-                i++;
-            }
-
-            readObject = array;
-        } else if ((vm < 1) && (length > 8)) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data
-            // we actually do it as above.
-            final Double[] array = new Double[length / 8];
-
-            while (len > 0) {
-                array[i] = new Double(getDouble(endianess));
-                len -= 8;
-                i++;
+    private void skipSequence(final ArrayDeque<SequenceFrame> open, final boolean endianess) throws IOException {
+        SequenceFrame frame;
+        do {
+            frame = open.pop();
+            if (frame.length >= 0) {
+                seek(frame.start + frame.length);
+            } else {
+                elementLength = -1;
+                skipValue(endianess); // follows the element lengths to the delimiter
             }
+        } while (frame.item != null);
+        closeSequence(frame);
+    }
 
-            readObject = array;
-        } else if (((vm == 1) && (length > 8))) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            readObject = new Double(getDouble(endianess));
-            len -= 8;
-
-            while (len > 0) { // we should validate with VM here too
-                getDouble(endianess);
-                len -= 8;
-                i++;
-            }
-        } else if (length == 8) {
-            readObject = new Double(getDouble(endianess));
+    public int[] getPixelData() {
+        int numberFrame = Integer.valueOf(this.fileInfo.getTagTable().get("0028,0008")!= null ? this.fileInfo.getTagTable().get("0028,0008").getValue(false).toString().trim():"1");
+        int length = this.fileInfo.getExtents()[0] * this.fileInfo.getExtents()[1] * numberFrame;
+        int[] imageBuffer = new int[length];
+        try {
+            readRawPixelData(imageBuffer, fileInfo.getDataType(), 0);
+            return imageBuffer;
+        } catch (IOException ex) {
+            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
         }
+        return null;
+    }
 
-        return readObject;
+    public int[] readImage() {
+        int numberFrame = Integer.valueOf(this.fileInfo.getTagTable().get("0028,0008")!= null ? this.fileInfo.getTagTable().get("0028,0008").getValue(false).toString().trim():"1");
+        int length = this.fileInfo.getExtents()[0] * this.fileInfo.getExtents()[1] * numberFrame;
+        int[] imageBuffer = new int[length];
+        try {
+            readImage(imageBuffer, fileInfo.getDataType(), 0);
+            return imageBuffer;
+        } catch (IOException ex) {
+            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
     }
 
     /**
-     * Reads a length of the data and deposits it into a single Float or an
-     * array of Float as needed by the tag's VM.
+     * Returns the pixels of all frames in the width and signedness they are
+     * stored with, e.g. as a short array for 16 bit images. Rescale slope and
+     * pixel padding are not applied.
      *
-     * @return Object
+     * @return the pixels
      *
-     * @throws IOException DOCUMENT ME!
+     * @throws IOException if the pixels cannot be read, or are more than one
+     * array holds, in which case {@link #readPixels(PixelBuffer, int)} reads
+     * them frame by frame
      *
-     * @param vm value multiplicity of the DICOM tag data. VM does not represent
-     * how many to find.
-     * @param length number of bytes to read out of data stream; the length is
-     * not used.
-     * @param endianess byte order indicator; here <code>true</code> indicates
-     * big-endian and <code>false</code> indicates little-endian.
+     * @see PixelBuffer#allocate(int, int)
      */
-    private Object getFloat(final int vm, final int length, final boolean endianess) throws IOException {
-        int len = (elementLength == UNDEFINED_LENGTH) ? 0 : elementLength;
-        int i = 0;
-        Object readObject = null;
-
-        if (vm > 1) {
-            final Float[] array = new Float[length / 4];
-
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Float(getFloat(endianess));
-                len -= 4;
-                i++;
-            }
-
-            readObject = array;
-        } else if ((vm < 1) && (length > 4)) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data
-            // we actually do it as above.
-            final Float[] array = new Float[length / 4];
-
-            while (len > 0) {
-                array[i] = new Float(getFloat(endianess));
-                len -= 4;
-                i++;
-            }
-
-            readObject = array;
-        } else if (((vm == 1) && (length > 4))) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            readObject = new Float(getFloat(endianess));
-            len -= 4;
-
-            while (len > 0) { // we should validate with VM here too
-                getFloat(endianess);
-                len -= 4;
-                i++;
-            }
-        } else if (length == 4) {
-            readObject = new Float(getFloat(endianess));
+    public PixelBuffer getPixels() throws IOException {
+        final long length = (long) fileInfo.getExtents()[0] * fileInfo.getExtents()[1] * getNumberOfFrames();
+        if (length > MAX_SOURCE_SIZE) {
+            throw new IOException(length + " pixels do not fit one array");
         }
-
-        return readObject;
+        final PixelBuffer pixels = PixelBuffer.allocate(fileInfo.getDataType(), (int) length);
+        readPixels(pixels, 0);
+        return pixels;
     }
 
     /**
-     * Reads a length of the data and deposits it into a single Integer or an
-     * array of Integer as needed by the tag's VM.
+     * Returns the pixels of all frames in modality units: padding is replaced
+     * and the rescale slope and intercept are applied, into a buffer of the
+     * narrowest type that holds the result. The minimum and maximum of the
+     * stored pixels are recorded in the file info.
      *
-     * @return Object
+     * @return the rescaled pixels
      *
-     * @throws IOException DOCUMENT ME!
+     * @throws IOException if the pixels cannot be read, or are more than one
+     * array holds
      *
-     * @param vm value multiplicity of the DICOM tag data. VM does not represent
-     * how many to find.
-     * @param length number of bytes to read out of data stream; the length is
-     * not used.
-     * @param endianess byte order indicator; here <code>true</code> indicates
-     * big-endian and <code>false</code> indicates little-endian.
-     */
-    private Object getInteger(final int vm, final int length, final boolean endianess) throws IOException {
-        int len = (elementLength == UNDEFINED_LENGTH) ? 0 : elementLength;
-        int i = 0;
-        Object readObject = null;
+     * @see PixelTransform#apply(PixelBuffer)
+     */
+    public PixelBuffer getRescaledPixels() throws IOException {
+        final PixelBuffer pixels = getPixels();
+        final Object bitsStored = fileInfo.getTagTable().getValue("0028,0101");
+        final PixelTransform transform = new PixelTransform(fileInfo.getRescaleSlope(),
+                fileInfo.getRescaleIntercept(), fileInfo.pixelPaddingValue,
+                bitsStored instanceof Number ? ((Number) bitsStored).intValue() : 0);
+        final PixelBuffer rescaled = transform.apply(pixels);
+        fileInfo.setMin(transform.getMin());
+        fileInfo.setMax(transform.getMax());
+        return rescaled;
+    }
 
-        if (vm > 1) {
-            final Integer[] array = new Integer[length / 4];
+    /**
+     * Reads pixels into a buffer of the data type of the file, without
+     * widening them. Native 8, 16 and 32 bit pixels are copied from the file
+     * in bulk; color pixels are packed as ARGB, as {@link #readRawPixelData}
+     * does, and encapsulated frames are decoded one at a time and narrowed.
+     *
+     * @param buffer buffer the pixels are read into, one or more frames long
+     * @param imageNo number of the first frame divided by the number of frames
+     * the buffer holds
+     *
+     * @throws IOException if the buffer does not fit the data type or the
+     * pixels cannot be read
+     */
+    public void readPixels(final PixelBuffer buffer, final int imageNo) throws IOException {
+        final int dataType = fileInfo.getDataType();
+        if (buffer.getDataType() != dataType) {
+            throw new IOException("Pixels of data type " + dataType + " cannot be read into " + buffer);
+        }
 
-            while (len > 0) { // we should validate with VM here too
-                array[i] = new Integer(getInt(endianess));
-                len -= 4;
-                i++;
+        if (buffer instanceof PixelBuffer.IntPixels && dataType != DICOMFile.INTEGER && dataType != DICOMFile.UINTEGER) {
+            readRawPixelData(((PixelBuffer.IntPixels) buffer).getArray(), dataType, imageNo);
+        } else if (encapsulated) {
+            final int frameLength = fileInfo.getExtents()[0] * fileInfo.getExtents()[1];
+            final int count = Math.max(buffer.getLength() / Math.max(frameLength, 1), 1);
+            final int[] frame = new int[frameLength];
+            for (int k = 0; k < count; k++) {
+                readEncapsulatedImage(frame, dataType, imageNo * count + k);
+                for (int i = 0; i < frameLength; i++) {
+                    buffer.setInt(k * frameLength + i, frame[i]);
+                }
             }
-
-            readObject = array;
-        } else if ((vm < 1) && (length > 4)) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            final Integer[] array = new Integer[length / 4];
-
-            while (len > 0) {
-                array[i] = new Integer(getInt(endianess));
-                len -= 4;
-                i++;
+        } else {
+            mapPixelData();
+            final int bytesPerPixel = buffer.getBytesPerPixel();
+            final int chunk = (int) (WINDOW_SIZE / bytesPerPixel);
+            long position = fileInfo.getImageOffset() + (long) imageNo * buffer.getLength() * bytesPerPixel;
+
+            seek(position);
+            if (remaining((long) buffer.getLength() * bytesPerPixel) < (long) buffer.getLength() * bytesPerPixel) {
+                throw new IOException("End bound exceeds EOF");
             }
-
-            readObject = array;
-        } else if (((vm == 1) && (length > 4))) {
-
-            // not a valid VM, but we don't initialise the VM to 1,
-            // so we will use this fact to guess at valid data.
-            // we actually do it as above.
-            readObject = new Integer(getInt(endianess));
-            len -= 4;
-
-            while (len > 0) { // we should validate with VM here too
-                getInt(endianess);
-                len -= 4;
-                i++;
+            for (int offset = 0; offset < buffer.getLength(); offset += chunk) {
+                final int length = Math.min(chunk, buffer.getLength() - offset);
+                final ByteBuffer pixels = getValueBuffer(position, length * bytesPerPixel)
+                        .order(fileInfo.isEndianess() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                buffer.put(pixels, offset, length);
+                position += (long) length * bytesPerPixel;
             }
-        } else if (length == 4) {
-            readObject = new Integer(getInt(endianess));
         }
-
-        return readObject;
     }
 
     /**
-     * Gets the sequence in a sequence tag. Sequences of items have special
-     * encodings that are detailed in the DICOM standard. There is usually an
-     * "item" tag, then a dataset encoded exactly like other tags, then a tag
-     * indicating the end of the sequence.
+     * Returns a read-only view of the native pixel data of all frames,
+     * directly over a memory mapping of that range of the file, in the byte
+     * order of the file. Nothing is copied to the heap; pixels are read from
+     * the page cache. For an object read from a buffer, or with a deflated
+     * data set, the view is a slice of that buffer. Use
+     * {@link ByteBuffer#asShortBuffer()} for 16 bit pixels.
      *
-     * <P>
-     * For further information see the DICOM Standard, Part 5, Section 7.
-     * </P>
+     * @return the view, positioned at the first pixel
      *
-     * @param endianess Big or little
-     * @param seqLength Length of this sequence, although possibly left
-     * undefined.
+     * @throws IOException if the pixel data is encapsulated or larger than
+     * 2 GB, in which case {@link #getPixelView(int)} reads it frame by frame
+     */
+    public ByteBuffer getPixelView() throws IOException {
+        final long length = getFrameByteLength() * getNumberOfFrames();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Pixel data of " + length + " bytes does not fit one view");
+        }
+        return getPixelView(fileInfo.getImageOffset(), length);
+    }
+
+    /**
+     * Returns a read-only view of the native pixel data of one frame, as
+     * {@link #getPixelView()} does for all frames.
      *
-     * @return A DicomSQ object which stores the new tags and their info
+     * @param frame zero based frame number
      *
-     * @see DicomSQ
+     * @return the view, positioned at the first pixel of the frame
+     *
+     * @throws IOException if the pixel data is encapsulated or the frame is
+     * not in the file
      */
-    private FileDicomSQ getSequence(final boolean endianess, final int seqLength) throws IOException {
-        final FileDicomSQ sq = new FileDicomSQ();
-        sq.setWriteAsUnknownLength(seqLength == -1);
-
-        // There is no more of the tag to read if the length of the tag
-        // is zero. In fact, trying to get the Next element is potentially
-        // bad, so we'll just shut down the reading here.
-        if (seqLength == 0) {
-            return sq;
+    public ByteBuffer getPixelView(final int frame) throws IOException {
+        if (frame < 0 || frame >= getNumberOfFrames()) {
+            throw new IOException("Frame " + frame + " was asked for, the pixel data holds "
+                    + getNumberOfFrames() + " frames");
         }
+        final long length = getFrameByteLength();
+        return getPixelView(fileInfo.getImageOffset() + frame * length, length);
+    }
 
-        // hold on to where the sequence is before items for measuring
-        // distance from beginning of sequence
-        final int seqStart = getFilePointer();
-
-        getNextElement(endianess); // gets the first ITEM tag
-        nameSQ = convertGroupElement(groupWord, elementWord);
-
-        while (!nameSQ.equals(DICOMFile.SEQ_ITEM_UNDEF_END)) {
-            if (nameSQ.equals(DICOMFile.SEQ_ITEM_BEGIN)) {
-
-                // elementLength here is the length of the
-                // item as it written into the File
-                FileDicomSQItem item = null;
-                if (elementLength == 0) {
-                    item = new FileDicomSQItem(null, fileInfo.getVr_type());
-                } else {
-                    item = getDataSet(elementLength, endianess);
-                }
-                item.setWriteAsUnknownLength(elementLength == -1); //if reported item length is -1, item will continue to be written with unknown length
-                if (item != null) {
-                    sq.addItem(item);
-                }
-            }
+    /**
+     * Returns the number of bytes of a frame of native pixel data.
+     *
+     * @return the length in bytes
+     *
+     * @throws IOException if the pixel data is encapsulated or its pixels are
+     * not whole bytes
+     */
+    private long getFrameByteLength() throws IOException {
+        if (encapsulated) {
+            throw new IOException("Encapsulated pixel data of " + transferSyntax + " has to be decoded");
+        } else if (fileInfo.getDataType() == DICOMFile.BOOLEAN) {
+            throw new IOException("Pixels of 1 bit are not whole bytes");
+        }
+        return (long) fileInfo.getExtents()[0] * fileInfo.getExtents()[1] * fileInfo.bytesPerPixel;
+    }
 
-            //if defined sequence length, will not read next tag once length has been reached
-            if (seqLength == -1 || seqStart + seqLength > getFilePointer()) {
-                getNextElement(endianess); // gets the first ITEM tag
-                nameSQ = convertGroupElement(groupWord, elementWord);
-            } else {
-                return sq;
+    /**
+     * Returns a read-only view of a range of the file, in its byte order.
+     *
+     * @param offset file position of the first byte
+     * @param length number of bytes
+     *
+     * @return the view
+     *
+     * @throws IOException if the range is not in the file or cannot be mapped
+     */
+    private ByteBuffer getPixelView(final long offset, final long length) throws IOException {
+        final ByteOrder order = fileInfo.isEndianess() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        if (source == null && !deflated && inFileStream != null) {
+            final FileChannel channel = inFileStream.getChannel();
+            if (offset < 0 || offset + length > channel.size()) {
+                throw new IOException("End bound exceeds EOF");
             }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer().order(order);
         }
 
-        return sq;
+        mapPixelData();
+        seek(offset);
+        if (offset < 0 || remaining(length) < length) {
+            throw new IOException("End bound exceeds EOF");
+        }
+        return getValueBuffer(offset, (int) length).order(order);
     }
 
     /**
-     * Reads a set of DICOM tags from a DICOM sequence item, ending with the
-     * data-element end tag <code>
-     * FFFE,E00D</code>. This list of tags in a DICOM sequence item and places
-     * them into a hashtable held within a FileDicomItem.
-     *
-     * @param itemLength Length of the item in bytes.
-     * @param endianess Big (true) or little (false).
+     * Creates a reader of single frames. Where the frames lie is worked out
+     * here, once; the reader then reads them with positioned reads of its
+     * own channel, so it can be used by several threads and while this
+     * parser reads other files. The header must have been read.
      *
-     * @return The sequence item read in.
+     * @return the reader, to be closed by the caller
      *
-     * @see FileDicomItem
-     */
-    private FileDicomSQItem getDataSet(int itemLength, final boolean endianess) throws IOException {
-        final FileDicomSQItem table = new FileDicomSQItem(null, fileInfo.getVr_type());
-        table.setWriteAsUnknownLength(itemLength == -1); //if reported item length is -1, item will continue to be written with unknown length
+     * @throws IOException if the header has not been read, the pixels are not
+     * supported frame by frame, or there is no decoder for encapsulated
+     * frames
+     */
+    public FileDicomFrameReader openFrameReader() throws IOException {
+        final int dataType = fileInfo.getDataType();
+        if (fileInfo.getImageOffset() <= 0) {
+            throw new IOException("The header has not been read up to the pixel data");
+        }
 
-        final int startfptr = getFilePointer();
-        boolean dataSetflag = true; //whether dicom header processing should continue
-        while (dataSetflag && !nameSQ.equals(DICOMFile.SEQ_ITEM_END) && (getFilePointer() - startfptr < itemLength || itemLength == -1)) {
-            FileDicomKey key = getNextTag(endianess);
-            nameSQ = key.toString();
-            if (!nameSQ.equals(DICOMFile.SEQ_ITEM_END) && !nameSQ.matches(DICOMFile.IMAGE_TAG)) {
-                try {
-                    dataSetflag = processNextTag(table, key, endianess, true);
-                } catch (CloneNotSupportedException ex) {
-                    Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            } else if (nameSQ.matches(DICOMFile.IMAGE_TAG)) {
-                numEmbeddedImages++;
-                seek(getFilePointer() + elementLength); //embedded image not displayed //TODO: make this image availbale in the dicom infobox
+        FileDicomFragmentIndex index = null;
+        PixelDecoder decoder = null;
+        if (encapsulated) {
+            index = getFragmentIndex();
+            decoder = transferSyntax == null ? null : TransferSyntaxRegistry.getDecoder(transferSyntax.getUid(), dataType);
+            if (decoder == null) {
+                throw new IOException("No pixel decoder for " + transferSyntax + " and data type " + dataType);
+            } else if (index == null || !index.hasFrames()) {
+                throw new IOException("The fragments of pixel data cannot be assigned to frames");
             }
+        } else if (PixelBuffer.allocate(dataType, 0) instanceof PixelBuffer.IntPixels
+                && dataType != DICOMFile.INTEGER && dataType != DICOMFile.UINTEGER) {
+            throw new IOException("Pixels of data type " + dataType + " are not read frame by frame");
         }
 
-        return table;
+        if (source != null || deflated) {
+            mapPixelData();
+            inflate(Long.MAX_VALUE);
+            return new FileDicomFrameReader(fileInfo, null, getValueBuffer(0, (int) fLength), fileInfo.getImageOffset(),
+                    getNumberOfFrames(), index, decoder);
+        }
+        final FileChannel channel = FileChannel.open(Paths.get(fileInfo.getFilePath()), StandardOpenOption.READ);
+        return new FileDicomFrameReader(fileInfo, channel, null, fileInfo.getImageOffset(), getNumberOfFrames(),
+                index, decoder);
     }
 
-    public int[] getPixelData() {
-        int numberFrame = Integer.valueOf(this.fileInfo.getTagTable().get("0028,0008")!= null ? this.fileInfo.getTagTable().get("0028,0008").getValue(false).toString().trim():"1");
-        int length = this.fileInfo.getExtents()[0] * this.fileInfo.getExtents()[1] * numberFrame;
-        int[] imageBuffer = new int[length];
-        try {
-            readRawPixelData(imageBuffer, fileInfo.getDataType(), 0);
-            return imageBuffer;
-        } catch (IOException ex) {
-            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        return null;
+    /**
+     * Returns the number of frames, from Number of Frames (0028,0008).
+     *
+     * @return the number of frames, 1 if the tag is missing
+     */
+    private int getNumberOfFrames() {
+        final Object frameCount = fileInfo.getTagTable().getValue("0028,0008");
+        return frameCount == null ? 1 : Integer.parseInt(frameCount.toString().trim());
     }
 
-    public int[] readImage() {
-        int numberFrame = Integer.valueOf(this.fileInfo.getTagTable().get("0028,0008")!= null ? this.fileInfo.getTagTable().get("0028,0008").getValue(false).toString().trim():"1");
-        int length = this.fileInfo.getExtents()[0] * this.fileInfo.getExtents()[1] * numberFrame;
-        int[] imageBuffer = new int[length];
-        try {
-            readImage(imageBuffer, fileInfo.getDataType(), 0);
-            return imageBuffer;
-        } catch (IOException ex) {
-            Logger.getLogger(DICOMFileInputStream.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Points the raw image reader at the file, or at the buffer when the
+     * object was not read from a file or its data set is deflated.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    private void openImageSource() throws IOException {
+        if (deflated) {
+            if (!isInflated()) { // the object was opened again after the header was read
+                inflateTagBuffer(dataSetStart);
+            }
+            inflate(Long.MAX_VALUE);
+            rawFile.setImageSource(tagBuffer.duplicate(), fileInfo);
+        } else if (source != null) {
+            rawFile.setImageSource(source, fileInfo);
+        } else {
+            rawFile.setImageFile(fileInfo.getFilePath(), fileInfo, FileBase.READ);
         }
-        return null;
     }
 
     public void readRawPixelData(final int[] buffer, final int imageType, final int imageNo) throws IOException {
+        if (encapsulated) {
+            readEncapsulatedImage(buffer, imageType, imageNo);
+            return;
+        }
         try { // rafile (type RandomAccessFile) for header, rawfile (type FileRaw) for image data.
-            rawFile.setImageFile(fileInfo.getFilePath(), fileInfo, FileBase.READ);
-            rawFile.readImage(buffer, (long) fileInfo.getImageOffset() + (imageNo * buffer.length * fileInfo.bytesPerPixel), imageType);
-            rawFile.raFile.close();
-            rawFile.raFile = null;
+            openImageSource();
+            rawFile.readImage(buffer, fileInfo.getImageOffset() + ((long) imageNo * buffer.length * fileInfo.bytesPerPixel), imageType);
+            rawFile.close();
         } catch (final IOException error) {
             System.err.println("ReadDICOM IOexception error");
             throw (error);
@@ -1990,114 +3071,369 @@ public class DICOMFileInputStream extends FileDicomBase {
         if (!encapsulated) {
 
             try { // rafile (type RandomAccessFile) for header, rawfile (type FileRaw) for image data.
-                rawFile.setImageFile(fileInfo.getFilePath(), fileInfo, FileBase.READ);
-                rawFile.readImage(buffer, (long) fileInfo.getImageOffset() + (imageNo * buffer.length * fileInfo.bytesPerPixel), imageType);
-                rawFile.raFile.close();
-                rawFile.raFile = null;
+                openImageSource();
+                rawFile.readImage(buffer, fileInfo.getImageOffset() + ((long) imageNo * buffer.length * fileInfo.bytesPerPixel), imageType);
+                rawFile.close();
             } catch (final IOException error) {
                 error.printStackTrace();
                 System.err.println("ReadDICOM IOexception error");
                 throw (error);
             }
-        } //else { // encapsulated
+        } else { // encapsulated
+            readEncapsulatedImage(buffer, imageType, imageNo);
+        }
 
-//            if (jpegData == null) {
-//                if (encapsulatedJP2) {
-//                    System.out.println("calling encapsulatedJP2ImageData");
-//                    jpegData = encapsulatedJP2ImageData(imageType);
-//
-//                } else {
-//                    System.out.println("Calling encapsulatedImageData");
-//                    jpegData = encapsulatedImageData();
-//                }
-//            }
-//
-//            if (jpegData != null) {
-//
-//                try {
-//                    int j = imageNo * buffer.length;
-//
-//                    for (int i = 0; i < buffer.length; i++) {
-//                        buffer[i] = (short) jpegData[j];
-//                        j++;
-//                    }
-//                } catch (final ArrayIndexOutOfBoundsException aioobe) {
-//                }
-//
-//                // this means there was only one image - not multiframe.
-//                // if image WAS multiframe, we don't want to keep reading in the jpegData buffer
-//                // it will be non null the second time through, and won't be read in again.
-//                if (jpegData.length == buffer.length) {
-//                    jpegData = null;
-//                }
-//            }
-//        }
-        // Matt changed from double to float for speed purposes 2/2003 not great increase but 5-10%.
-        double tmp;
-        short pixelPad = Short.MIN_VALUE;
-        double min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
-
-        // fix pixel padding and remap to HU units
-        if (fileInfo.getPixelPadValue() != null) {
-            pixelPad = fileInfo.getPixelPadValue();
-        }
-        // System.out.println("pixel _pad = "+ pixelPad);
-
-        float slope = (float) fileInfo.getRescaleSlope();
-        final float intercept = (float) fileInfo.getRescaleIntercept();
-        if (slope == 0) {
-            slope = 1;
-        }
-
-        // System.out.println(" slope = " + slope + " intercept = " + intercept);
-        // Why is this here? It overwrites the slope and intercept.
-        // if (fileInfo.getModality() == FileInfoBase.MAGNETIC_RESONANCE) {
-        // slope = 1;
-        // intercept = 0;
-        // }
-        boolean setOneMinMax = false;
-        for (final double element : buffer) {
-            tmp = element;
-
-            if (tmp != pixelPad) {
-                setOneMinMax = true;
-                if (tmp < min) {
-                    min = tmp;
-                }
-                if (tmp > max) {
-                    max = tmp;
-                }
+        // cut to Bits Stored, padding, rescale to modality units and min/max of the stored pixels in one pass;
+        // without a Pixel Padding Value, -32768 is taken as padding, as it always was here
+        final Object bitsStored = fileInfo.getTagTable().getValue("0028,0101");
+        final PixelTransform transform = new PixelTransform(fileInfo.getRescaleSlope(),
+                fileInfo.getRescaleIntercept(), fileInfo.getPixelPadValue() != null
+                ? fileInfo.getPixelPadValue() : Short.valueOf(Short.MIN_VALUE),
+                bitsStored instanceof Number ? ((Number) bitsStored).intValue() : 0);
+        transform.apply(buffer, imageType);
+        fileInfo.setMin(transform.getMin());
+        fileInfo.setMax(transform.getMax());
+    }
+
+    /**
+     * Decodes the frames of encapsulated pixel data that fill the buffer, with
+     * the cheapest decoder registered for the transfer syntax and data type.
+     * Frames are decoded in parallel if the decoder allows it.
+     *
+     * @param buffer buffer the frames are decoded into, one or more frames long
+     * @param imageType the data type of the image
+     * @param imageNo number of the first frame divided by the number of frames
+     * the buffer holds
+     *
+     * @throws IOException if there is no decoder or a frame cannot be decoded
+     *
+     * @see TransferSyntaxRegistry#getDecoder(String, int)
+     */
+    private void readEncapsulatedImage(final int[] buffer, final int imageType, final int imageNo) throws IOException {
+        final PixelDecoder decoder = transferSyntax == null ? null
+                : TransferSyntaxRegistry.getDecoder(transferSyntax.getUid(), imageType);
+        if (decoder == null) {
+            throw new IOException("No pixel decoder for " + transferSyntax + " and data type " + imageType);
+        }
+
+        final int frameLength = fileInfo.getExtents()[0] * fileInfo.getExtents()[1];
+        final int count = Math.max(buffer.length / Math.max(frameLength, 1), 1);
+        final int first = imageNo * count;
+        final FileDicomFragmentIndex index = getFragmentIndex();
+        if (index == null || !index.hasFrames()) {
+            throw new IOException((index == null ? "No" : index.getNumberOfFragments() + "")
+                    + " fragments of pixel data cannot be assigned to frames");
+        } else if (first + count > index.getNumberOfFrames()) {
+            throw new IOException("Frame " + (first + count - 1) + " was asked for, the pixel data holds "
+                    + index.getNumberOfFrames() + " frames");
+        }
+        final ByteBuffer[] frames = new ByteBuffer[count];
+        for (int k = 0; k < count; k++) {
+            frames[k] = getEncapsulatedFrame(index, first + k);
+        }
+
+        if (decoder.isFrameParallel() && count > 1) {
+            try {
+                IntStream.range(0, count).parallel().forEach(k -> {
+                    try {
+                        decoder.decode(frames[k], fileInfo, buffer, k * frameLength);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (int k = 0; k < count; k++) {
+                decoder.decode(frames[k], fileInfo, buffer, k * frameLength);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the fragments of encapsulated pixel data. It is
+     * built when the header is read; if the header was read some other way it
+     * is built here, from the item tags following the pixel data element.
+     *
+     * @return the index, <code>null</code> if the pixel data is not
+     * encapsulated
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    public FileDicomFragmentIndex getFragmentIndex() throws IOException {
+        if (fragmentIndex == null && encapsulated && fileInfo.getImageOffset() > 0) {
+            mapPixelData();
+            seek(fileInfo.getImageOffset());
+            getNextElement(FileBase.LITTLE_ENDIAN); // the pixel data element, of undefined length
+            if (elementLength == -1) {
+                fragmentIndex = buildFragmentIndex(getFilePointer());
+            }
+        }
+        return fragmentIndex;
+    }
+
+    /**
+     * Maps the file again, or inflates the data set again, if the mapping of
+     * the header has been released.
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private void mapPixelData() throws IOException {
+        if (deflated) {
+            if (!isInflated()) { // the object was opened again after the header was read
+                inflateTagBuffer(dataSetStart);
             }
+        } else if (source == null && inFileStream != null) {
+            mapTagBuffer(inFileStream.getChannel(), inFileStream.getChannel().size());
         }
-        if (setOneMinMax == false) {
-            min = max = buffer[0];
+    }
+
+    /**
+     * Returns the compressed bytes of one frame of encapsulated pixel data.
+     * A frame in a single fragment is a view of the file; the fragments of a
+     * frame split over several are joined.
+     *
+     * @param index the fragment index
+     * @param frame zero based frame number
+     *
+     * @return a read-only buffer of the frame
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private ByteBuffer getEncapsulatedFrame(final FileDicomFragmentIndex index, final int frame)
+            throws IOException {
+        mapPixelData();
+        final int first = index.getFirstFragment(frame);
+        final int count = index.getFragmentCount(frame);
+        if (count == 1) {
+            return getValueBuffer(index.getFragmentOffset(first), index.getFragmentLength(first));
         }
 
-        fileInfo.setMin(min);
-        fileInfo.setMax(max);
+        final long length = index.getFrameLength(frame);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Frame " + frame + " of " + length + " bytes is too large");
+        }
+        final ByteBuffer joined = ByteBuffer.allocate((int) length);
+        for (int i = first; i < first + count; i++) {
+            joined.put(getValueBuffer(index.getFragmentOffset(i), index.getFragmentLength(i)));
+        }
+        joined.flip();
+        return joined.asReadOnlyBuffer();
+    }
 
-        // System.out.println("min = " + min + " max = " + max);
-        if ((pixelPad <= min) || (pixelPad >= max)) {
+    /**
+     * Builds the index of encapsulated pixel data. Only the item tags are
+     * read, the fragments are stepped over. Frames are assigned to fragments
+     * by the first of these that fits the number of frames: the Extended
+     * Offset Table, the Basic Offset Table, one fragment per frame, all
+     * fragments for a single frame, and a new frame at every fragment that
+     * starts with a JPEG or JPEG 2000 start marker.
+     *
+     * @param firstItem file position of the Basic Offset Table item tag
+     *
+     * @return the index; it has no frames if none of the above fits
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private FileDicomFragmentIndex buildFragmentIndex(final long firstItem) throws IOException {
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        int numberOfFragments = 0;
+        long basicTableOffset = -1;
+        int basicTableLength = 0;
+
+        seek(firstItem);
+        while (!isEndOfData()) {
+            getNextElement(FileBase.LITTLE_ENDIAN);
+            final int tag = (groupWord << 16) | elementWord;
+            if (tag == DICOMFile.SEQ_ITEM_UNDEF_END_WORD) {
+                break;
+            } else if (tag != DICOMFile.SEQ_ITEM_BEGIN_WORD || elementLength < 0) {
+                reportProblem("Unexpected element " + Integer.toHexString(tag) + " in pixel data at "
+                        + getFilePointer());
+                break;
+            }
 
-            for (int i = 0; i < buffer.length; i++) {
+            final long start = getFilePointer();
+            if (basicTableOffset == -1) {
+                basicTableOffset = start;
+                basicTableLength = elementLength;
+            } else {
+                if (numberOfFragments == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, numberOfFragments * 2);
+                    lengths = Arrays.copyOf(lengths, numberOfFragments * 2);
+                }
+                offsets[numberOfFragments] = start;
+                lengths[numberOfFragments] = elementLength;
+                numberOfFragments++;
+            }
+            seek(start + elementLength);
+        }
 
-                // tmp = buffer[i];
-                // need to fix - we're altering image data so that when the file is
-                // written, it is not exactly the same as when it was read in, i.e.,
-                // there are no pixel pad values stored in the buffer; they've all been
-                // converted to the minimum value.
-                if (buffer[i] != pixelPad) {
-                    buffer[i] = (short) ((buffer[i] * slope) + intercept);
-                } else {
-                    buffer[i] = (short) ((min * slope) + intercept);
+        final int numberOfFrames = getNumberOfFrames();
+        int[] frames = null;
+
+        if (numberOfFragments > 0 && numberOfFrames > 0) {
+            if (extendedOffsetTableLength == numberOfFrames * 8) {
+                frames = mapFrameOffsets(readOffsetTable(extendedOffsetTableOffset, numberOfFrames, 8),
+                        offsets, numberOfFragments);
+            }
+            if (frames == null && basicTableLength == numberOfFrames * 4) {
+                frames = mapFrameOffsets(readOffsetTable(basicTableOffset, numberOfFrames, 4), offsets,
+                        numberOfFragments);
+            }
+            if (frames == null && (numberOfFragments == numberOfFrames || numberOfFrames == 1)) {
+                frames = new int[numberOfFrames + 1];
+                for (int i = 0; i < numberOfFrames; i++) {
+                    frames[i] = i;
                 }
+                frames[numberOfFrames] = numberOfFragments;
             }
-        } else {
-            if ((slope != 1) || (intercept != 0)) {
-                for (int i = 0; i < buffer.length; i++) {
-                    buffer[i] = (short) ((buffer[i] * slope) + intercept); // Rescale data
+            if (frames == null) {
+                frames = findFrameStarts(offsets, lengths, numberOfFragments, numberOfFrames);
+            }
+        }
+        if (frames == null && numberOfFragments > 0) {
+            reportProblem(numberOfFragments + " fragments of pixel data cannot be assigned to " + numberOfFrames
+                    + " frames");
+        }
+        return new FileDicomFragmentIndex(offsets, lengths, numberOfFragments, frames);
+    }
+
+    /**
+     * Reads the little endian offsets of an offset table.
+     *
+     * @param offset file position of the table value
+     * @param count number of offsets
+     * @param size 4 for the Basic, 8 for the Extended Offset Table
+     *
+     * @return the offsets
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private long[] readOffsetTable(final long offset, final int count, final int size) throws IOException {
+        final long[] table = new long[count];
+        seek(offset);
+        for (int i = 0; i < count; i++) {
+            table[i] = size == 8 ? getLong(FileBase.LITTLE_ENDIAN) : getUInt(FileBase.LITTLE_ENDIAN);
+        }
+        return table;
+    }
+
+    /**
+     * Assigns frames to fragments with the frame offsets of an offset table,
+     * which count from the item tag of the first fragment.
+     *
+     * @param frameOffsets offset of each frame
+     * @param offsets file position of the value of each fragment
+     * @param numberOfFragments number of fragments
+     *
+     * @return the first fragment of each frame followed by the number of
+     * fragments, <code>null</code> if an offset is not that of a fragment or
+     * the offsets are not ascending
+     */
+    private static int[] mapFrameOffsets(final long[] frameOffsets, final long[] offsets,
+            final int numberOfFragments) {
+        final long base = offsets[0] - 8;
+        final long[] items = new long[numberOfFragments];
+        for (int i = 0; i < numberOfFragments; i++) {
+            items[i] = offsets[i] - 8 - base;
+        }
+
+        final int[] frames = new int[frameOffsets.length + 1];
+        for (int k = 0; k < frameOffsets.length; k++) {
+            frames[k] = Arrays.binarySearch(items, frameOffsets[k]);
+            if (frames[k] < 0 || (k == 0 && frames[k] != 0) || (k > 0 && frames[k] <= frames[k - 1])) {
+                return null;
+            }
+        }
+        frames[frameOffsets.length] = numberOfFragments;
+        return frames;
+    }
+
+    /**
+     * Assigns frames to fragments by starting a new frame at every fragment
+     * that begins with a JPEG SOI or a JPEG 2000 SOC marker.
+     *
+     * @param offsets file position of the value of each fragment
+     * @param lengths value length of each fragment
+     * @param numberOfFragments number of fragments
+     * @param numberOfFrames the number of frames expected
+     *
+     * @return the first fragment of each frame followed by the number of
+     * fragments, <code>null</code> if the number of markers found is not the
+     * number of frames
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private int[] findFrameStarts(final long[] offsets, final int[] lengths, final int numberOfFragments,
+            final int numberOfFrames) throws IOException {
+        final int[] frames = new int[numberOfFrames + 1];
+        int frame = 0;
+        for (int i = 0; i < numberOfFragments; i++) {
+            if (lengths[i] >= 2 && (byteAt(offsets[i]) & 0xFF) == 0xFF
+                    && ((byteAt(offsets[i] + 1) & 0xFF) == 0xD8 || (byteAt(offsets[i] + 1) & 0xFF) == 0x4F)) {
+                if (frame == numberOfFrames) {
+                    return null;
                 }
+                frames[frame++] = i;
+            } else if (i == 0) {
+                return null;
             }
         }
+        if (frame != numberOfFrames) {
+            return null;
+        }
+        frames[numberOfFrames] = numberOfFragments;
+        return frames;
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+    /**
+     * A sequence or an item that getSequence is reading.
+     */
+    private static final class SequenceFrame {
+
+        /**
+         * The sequence, <code>null</code> for an item.
+         */
+        final FileDicomSQ sq;
+
+        /**
+         * The item, <code>null</code> for a sequence.
+         */
+        final FileDicomSQItem item;
+
+        /**
+         * File position of the first byte after the sequence or item tag.
+         */
+        final long start;
+
+        /**
+         * Length as given in the file, -1 if undefined.
+         */
+        final int length;
+
+        /**
+         * Key of a nested sequence in its parent item.
+         */
+        final FileDicomKey key;
+
+        /**
+         * Item a nested sequence is stored in, <code>null</code> for the
+         * outermost sequence.
+         */
+        final FileDicomTagTable parent;
+
+        SequenceFrame(FileDicomSQ sq, FileDicomSQItem item, long start, int length, FileDicomKey key,
+                FileDicomTagTable parent) {
+            this.sq = sq;
+            this.item = item;
+            this.start = start;
+            this.length = length;
+            this.key = key;
+            this.parent = parent;
+        }
     }
 }
@@ -0,0 +1,93 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.model.FileDicomTagInfo.VR;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the contents of a DICOM data set as a stream of events, in file
+ * order, from {@link DICOMFileInputStream#readEvents(DICOMStreamHandler)}.
+ * Nothing is materialized by the reader; a handler keeps only what it needs,
+ * so arbitrarily large and deeply nested data sets can be processed with
+ * constant memory. {@link FileDicomTagTableBuilder} is the handler that builds
+ * the usual tag table.
+ *
+ * <p>
+ * Tags are passed packed as <code>(group &lt;&lt; 16) | element</code>. Value
+ * buffers are read-only views of the file, positioned at the first value
+ * byte, in the byte order of the element. A handler that keeps one beyond the
+ * callback keeps the underlying mapping alive.</p>
+ *
+ * <p>
+ * The events of an element are:</p>
+ * <ul>
+ * <li>startElement, value - for an element with a defined length</li>
+ * <li>startSequence, (startItem, ..., endItem)*, endSequence - for a sequence,
+ * or any other element of undefined length</li>
+ * <li>startElement, pixelDataFragment* - for the Pixel Data of the data set
+ * and for encapsulated data. Native pixel data is a single fragment, the
+ * first fragment of encapsulated data is the Basic Offset Table.</li>
+ * </ul>
+ *
+ * All methods do nothing by default.
+ *
+ * @see DICOMFileInputStream#readEvents(DICOMStreamHandler)
+ */
+public interface DICOMStreamHandler {
+
+    /**
+     * An element starts.
+     *
+     * @param tag packed group and element of the element
+     * @param vr value representation of the element
+     * @param length value length given in the file, -1 if undefined
+     */
+    default void startElement(int tag, VR vr, int length) {
+    }
+
+    /**
+     * The value bytes of the element that has just started.
+     *
+     * @param value read-only view of the value
+     */
+    default void value(ByteBuffer value) {
+    }
+
+    /**
+     * A sequence starts.
+     *
+     * @param tag packed group and element of the sequence
+     * @param vr value representation of the sequence, SQ or UN
+     * @param length value length given in the file, -1 if undefined
+     */
+    default void startSequence(int tag, VR vr, int length) {
+    }
+
+    /**
+     * An item of the current sequence starts.
+     *
+     * @param length item length given in the file, -1 if undefined
+     */
+    default void startItem(int length) {
+    }
+
+    /**
+     * The current item ends.
+     */
+    default void endItem() {
+    }
+
+    /**
+     * The current sequence ends.
+     */
+    default void endSequence() {
+    }
+
+    /**
+     * A fragment of pixel data.
+     *
+     * @param index index of the fragment within the element, starting at 0
+     * @param fragment read-only view of the fragment
+     */
+    default void pixelDataFragment(int index, ByteBuffer fragment) {
+    }
+}
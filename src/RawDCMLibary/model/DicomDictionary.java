@@ -3,13 +3,15 @@ package RawDCMLibary.model;
 import java.io.*;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import RawDCMLibary.model.FileDicomTagInfo.VR;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class reads a text file that lists all the tags that the DICOM file
- * reader will need to know about. It stores these in a static Hashtable. We
+ * reader will need to know about. It stores these in static arrays sorted by
+ * tag and searches them with a binary search. We
  * assume the dictionary file is found in the working directory of mipav or in
  * the root of the jar file MIPAV is being run from (see the
  * ClassLoader.getResource() method, with the default name
@@ -42,6 +44,12 @@ import java.util.logging.Logger;
  * </p>
  *
  * <p>
+ * The build compiles the default dictionary into
+ * &quot;dicom_dictionary.bin&quot; (see {@link DicomDictionaryCompiler}),
+ * which is loaded instead of the text file when it is on the class path.
+ * </p>
+ *
+ * <p>
  * Furthermore, the utility of this class is enhanced to provide two additional
  * functions:
  * </p>
@@ -89,16 +97,34 @@ public class DicomDictionary {
     private static final int SUBSET_DICTIONARY = 2;
 
     /**
-     * Hashtable filled with known DICOM tags with empty value attributes.
+     * File name of the compiled form of the default dictionary, written by
+     * {@link DicomDictionaryCompiler} at build time.
+     */
+    public static final String COMPILED_DICTIONARY_FILENAME = "dicom_dictionary.bin";
+
+    /**
+     * Identifies a compiled dictionary, &quot;DCMD&quot;.
+     */
+    static final int COMPILED_MAGIC = 0x44434D44;
+
+    /**
+     * Layout version of the compiled dictionary.
+     */
+    static final int COMPILED_VERSION = 1;
+
+    /**
+     * The default dictionary, loaded on first use. It is replaced as a whole
+     * and never changed once published, so parsers on any number of threads
+     * can read it without locking.
      */
-    private static HashMap<FileDicomKey, FileDicomTagInfo> masterHashtable;
+    private static volatile Entries entries;
 
     /**
      * Hashtable filled with DICOM tags which are a subset (not necessarily a
      * proper subset) of dicom tags in the master table. This subset is then
      * used to export dicom tags to the XML image format.
      */
-    private static HashMap<FileDicomKey, FileDicomTagInfo> subsetHashtable;
+    private static volatile HashMap<FileDicomKey, FileDicomTagInfo> subsetHashtable;
 
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
@@ -114,14 +140,7 @@ public class DicomDictionary {
      */
     public static boolean containsTag(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        return DicomDictionary.masterHashtable.containsKey(key);
+        return DicomDictionary.lookup(key) != null;
     }
 
     /**
@@ -145,19 +164,18 @@ public class DicomDictionary {
      */
     public static HashMap<FileDicomKey, FileDicomTagInfo> getDicomTagTable(final boolean forceReload) throws CloneNotSupportedException {
 
-        if ((DicomDictionary.masterHashtable == null) || (forceReload == true)) {
+        if (forceReload == true) {
             DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
         }
 
-        final HashMap<FileDicomKey, FileDicomTagInfo> clonedHashtable = new HashMap<>(
-                (int) (DicomDictionary.masterHashtable.size() / 0.7));
-        final Enumeration<FileDicomKey> e = (Enumeration<FileDicomKey>) DicomDictionary.masterHashtable.keySet();
+        final FileDicomTagInfo[] infos = DicomDictionary.getEntries().infos;
+        final HashMap<FileDicomKey, FileDicomTagInfo> clonedHashtable = new HashMap<>((int) (infos.length / 0.7));
 
-        while (e.hasMoreElements()) {
-            final FileDicomKey key = e.nextElement();
-            final FileDicomTagInfo value = (FileDicomTagInfo) DicomDictionary.masterHashtable.get(key).clone();
+        for (final FileDicomTagInfo info : infos) {
+            final FileDicomKey key = (FileDicomKey) info.getKey().clone();
 
-            clonedHashtable.put(key, value);
+            clonedHashtable.put(key, new FileDicomTagInfo(key, info.getVersion(), info.getValueRepresentation(),
+                    info.getValueMultiplicity(), info.getKeyword(), info.getName()));
         }
 
         return clonedHashtable;
@@ -168,19 +186,13 @@ public class DicomDictionary {
      *
      * @param key the key to retreive information about
      *
-     * @return information about the requested key
+     * @return information about the requested key, shared by all parsers
+     * and read-only
      * @throws java.lang.CloneNotSupportedException
      */
     public static FileDicomTagInfo getInfo(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        return DicomDictionary.masterHashtable.get(key);
+        return DicomDictionary.lookup(key);
     }
 
     /**
@@ -194,20 +206,11 @@ public class DicomDictionary {
      * @throws java.lang.CloneNotSupportedException
      */
     public static String getKeyFromTagName(final String searchTagName) throws CloneNotSupportedException {
-        final Enumeration<FileDicomKey> enumeration = (Enumeration<FileDicomKey>) DicomDictionary.masterHashtable.keySet();
-
-        while (enumeration.hasMoreElements()) {
-            final FileDicomKey key = enumeration.nextElement();
-
-            // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-            final FileDicomKey searchKey = DicomDictionary.convertToWildKey(key);
 
-            final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(searchKey);
+        for (final FileDicomTagInfo tag : DicomDictionary.getEntries().infos) {
 
-            final String foundTagName = tag.getName();
-
-            if (foundTagName.equals(searchTagName)) {
-                return key.getKey();
+            if (tag.getName().equals(searchTagName)) {
+                return tag.getKey().getKey();
             }
         }
 
@@ -226,14 +229,7 @@ public class DicomDictionary {
      */
     public static String getKeyword(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(key);
+        final FileDicomTagInfo tag = DicomDictionary.lookup(key);
 
         if (tag == null) {
             return null;
@@ -254,14 +250,7 @@ public class DicomDictionary {
      */
     public static String getName(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(key);
+        final FileDicomTagInfo tag = DicomDictionary.lookup(key);
 
         if (tag == null) {
             return null;
@@ -328,14 +317,7 @@ public class DicomDictionary {
      */
     public static VR getType(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(key);
+        final FileDicomTagInfo tag = DicomDictionary.lookup(key);
 
         if (tag == null) {
             return null;
@@ -357,14 +339,7 @@ public class DicomDictionary {
      */
     public static int getVM(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(key);
+        final FileDicomTagInfo tag = DicomDictionary.lookup(key);
 
         if (tag == null) {
             return 0;
@@ -386,14 +361,7 @@ public class DicomDictionary {
      */
     public static VR getVR(FileDicomKey key) throws CloneNotSupportedException {
 
-        if (DicomDictionary.masterHashtable == null) {
-            DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
-        }
-
-        // if this key is one of a series, it needs to be converted to wild card chars for the dictionary
-        key = DicomDictionary.convertToWildKey(key);
-
-        final FileDicomTagInfo tag = DicomDictionary.masterHashtable.get(key);
+        final FileDicomTagInfo tag = DicomDictionary.lookup(key);
 
         if (tag == null) {
             return null;
@@ -528,22 +496,239 @@ public class DicomDictionary {
         }
     }
 
+    /**
+     * Finds a tag of the default dictionary, loading the dictionary on first
+     * use.
+     *
+     * @param key the key of the tag
+     *
+     * @return the dictionary entry, <code>null</code> if the tag is not in the
+     * dictionary
+     */
+    private static FileDicomTagInfo lookup(final FileDicomKey key) {
+        return DicomDictionary.lookup(DicomDictionary.getEntries(), key);
+    }
+
+    /**
+     * Finds a tag in the given dictionary.
+     *
+     * @param current the dictionary to search
+     * @param key the key of the tag
+     *
+     * @return the dictionary entry, <code>null</code> if the tag is not in the
+     * dictionary
+     */
+    private static FileDicomTagInfo lookup(final Entries current, final FileDicomKey key) {
+        int tag = key.getTag();
+        final int group = tag >>> 24;
+
+        // if this key is one of a series, the dictionary stores it with the wild card group
+        if (group == 0x50 || group == 0x60) {
+            tag &= 0xFF00FFFF;
+        }
+        final int index = Arrays.binarySearch(current.tags, tag);
+
+        return index >= 0 ? current.infos[index] : null;
+    }
+
+    /**
+     * Resolves a tag with a single dictionary search. Unlike
+     * {@link #getInfo(FileDicomKey)}, the entry returned always carries the
+     * given key, also for the repeating 50xx and 60xx groups, whose resolved
+     * entries are cached. The entries are shared by all parsers and are
+     * read-only, see {@link FileDicomTagInfo#isShared()}.
+     *
+     * @param key the key of the tag
+     *
+     * @return the dictionary entry for the key, <code>null</code> if the tag
+     * is not in the dictionary
+     */
+    public static FileDicomTagInfo resolve(final FileDicomKey key) {
+        final Entries current = DicomDictionary.getEntries();
+        final FileDicomTagInfo info = DicomDictionary.lookup(current, key);
+
+        if (info == null || !info.getKey().isWildcard() || key.isWildcard()) {
+            return info;
+        }
+
+        return current.wildcardEntries.computeIfAbsent(key.getTag(), (final Integer tag)
+                -> new FileDicomTagInfo(new FileDicomKey(tag), info.getVersion(), info.getValueRepresentation(),
+                        info.getValueMultiplicity(), info.getKeyword(), info.getName()).share());
+    }
+
+    /**
+     * Makes the given tags the default dictionary.
+     *
+     * @param infos the dictionary entries, sorted by their packed tag
+     */
+    private static void setDefaultDictionary(final FileDicomTagInfo[] infos) {
+        DicomDictionary.entries = new Entries(infos);
+    }
+
+    /**
+     * Returns the default dictionary, loading it once on first use.
+     *
+     * @return the default dictionary
+     */
+    private static Entries getEntries() {
+        Entries current = DicomDictionary.entries;
+
+        if (current == null) {
+            synchronized (DicomDictionary.class) {
+                current = DicomDictionary.entries;
+                if (current == null) {
+                    DicomDictionary.parseFile(DicomDictionary.DEFAULT_DICTIONARY);
+                    current = DicomDictionary.entries;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Sorts dictionary entries by their packed tag.
+     *
+     * @param dicomHash the dictionary entries
+     *
+     * @return the entries in ascending order of their packed tag
+     */
+    static FileDicomTagInfo[] sortByTag(final HashMap<FileDicomKey, FileDicomTagInfo> dicomHash) {
+        final FileDicomTagInfo[] infos = dicomHash.values().toArray(new FileDicomTagInfo[dicomHash.size()]);
+
+        Arrays.sort(infos, (final FileDicomTagInfo info1, final FileDicomTagInfo info2)
+                -> Integer.compare(info1.getKey().getTag(), info2.getKey().getTag()));
+
+        return infos;
+    }
+
+    /**
+     * Reads the compiled default dictionary from the class path.
+     *
+     * @return the dictionary entries sorted by their packed tag,
+     * <code>null</code> if there is no compiled dictionary or it does not
+     * match this version of the library
+     */
+    private static FileDicomTagInfo[] readCompiledFile() {
+        final InputStream in = DicomDictionary.class.getResourceAsStream("misc/" + DicomDictionary.COMPILED_DICTIONARY_FILENAME);
+
+        if (in == null) {
+            return null;
+        }
+
+        try (InputStream stream = in) {
+            // one read of the whole resource, then decoded from memory
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 17);
+            final byte[] chunk = new byte[1 << 16];
+            int count;
+
+            while ((count = stream.read(chunk)) != -1) {
+                bytes.write(chunk, 0, count);
+            }
+
+            final DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+            if (data.readInt() != DicomDictionary.COMPILED_MAGIC || data.readInt() != DicomDictionary.COMPILED_VERSION
+                    || data.readInt() != VR.values().length) {
+                return null;
+            }
+
+            final String[] strings = new String[data.readInt()];
+
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = data.readUTF().intern();
+            }
+
+            final VR[] vrs = VR.values();
+            final FileDicomTagInfo[] infos = new FileDicomTagInfo[data.readInt()];
+
+            for (int i = 0; i < infos.length; i++) {
+                final int tag = data.readInt();
+                final boolean wildcard = data.readBoolean();
+                final FileDicomKey key = wildcard ? new FileDicomKey(tag).toWildcard() : new FileDicomKey(tag);
+                final VR vr = vrs[data.readUnsignedByte()];
+                final int vm = data.readInt();
+
+                infos[i] = new FileDicomTagInfo(key, strings[data.readInt()], vr, vm, strings[data.readInt()],
+                        strings[data.readInt()]);
+            }
+
+            return infos;
+        } catch (final IOException | ArrayIndexOutOfBoundsException e) {
+            Logger.getLogger(DicomDictionary.class.getName()).log(Level.WARNING,
+                    "Compiled DICOM dictionary is unreadable, using " + DicomDictionary.DEFAULT_DICTIONARY_FILENAME, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes dictionary entries in the compiled form read at startup: the
+     * entries sorted by packed tag, each with its VR ordinal, VM and indices
+     * into a table of the distinct version, keyword and name strings.
+     *
+     * @param dictFile the file to write
+     * @param dicomHash the dictionary entries
+     *
+     * @throws IOException when the file cannot be written to.
+     */
+    public static void writeCompiledFile(final File dictFile, final HashMap<FileDicomKey, FileDicomTagInfo> dicomHash)
+            throws IOException {
+        final FileDicomTagInfo[] infos = DicomDictionary.sortByTag(dicomHash);
+        final LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+
+        for (final FileDicomTagInfo info : infos) {
+            strings.putIfAbsent(info.getVersion(), strings.size());
+            strings.putIfAbsent(info.getKeyword(), strings.size());
+            strings.putIfAbsent(info.getName(), strings.size());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictFile)))) {
+            out.writeInt(DicomDictionary.COMPILED_MAGIC);
+            out.writeInt(DicomDictionary.COMPILED_VERSION);
+            out.writeInt(VR.values().length);
+
+            out.writeInt(strings.size());
+            for (final String string : strings.keySet()) {
+                out.writeUTF(string);
+            }
+
+            out.writeInt(infos.length);
+            for (final FileDicomTagInfo info : infos) {
+                out.writeInt(info.getKey().getTag());
+                out.writeBoolean(info.getKey().isWildcard());
+                out.writeByte(info.getValueRepresentation().ordinal());
+                out.writeInt(info.getValueMultiplicity());
+                out.writeInt(strings.get(info.getVersion()));
+                out.writeInt(strings.get(info.getKeyword()));
+                out.writeInt(strings.get(info.getName()));
+            }
+        }
+    }
+
+    /**
+     * Parses a dictionary in the text format described above.
+     *
+     * @param dictFile the text dictionary
+     *
+     * @return the dictionary entries
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    static HashMap<FileDicomKey, FileDicomTagInfo> readTextFile(final File dictFile) throws IOException {
+        return DicomDictionary.parseDictionary(new BufferedReader(new FileReader(dictFile)), dictFile.getPath());
+    }
+
     /**
      * Converts group numbers of 60xx or 50xx dicom key elements so that the
      * dicom dictionary will be able to find them.
      */
     private static FileDicomKey convertToWildKey(final FileDicomKey key) throws CloneNotSupportedException {
-        final String wildCheck = key.getGroup().substring(0, 2);
-        // if key group is not a 50xx or 60xx, then returning the masterHashtable evaluation is enough
-        if (!wildCheck.equals("50") && !wildCheck.equals("60")) {
+        final int wildCheck = key.getTag() >>> 24;
+        // if key group is not a 50xx or 60xx, then the key can be looked up as it is
+        if ((wildCheck != 0x50 && wildCheck != 0x60) || key.isWildcard()) {
             return key;
         } else { // dicom dictionary stores wildcard values, so check after converting group name
-            String keyStr = key.toString();
-            final int commaLoc = keyStr.indexOf(',');
-            keyStr = keyStr.substring(0, commaLoc - 2) + "xx" + keyStr.substring(commaLoc);
-            final FileDicomKey newKey = (FileDicomKey) key.clone();
-            newKey.setKey(keyStr);
-            return newKey;
+            return key.toWildcard();
         }
     }
 
@@ -614,14 +799,18 @@ public class DicomDictionary {
  *
  * @see FileDicomTagInfo
  */
-private static void parseFile(final int dictionary_type) {
+private static synchronized void parseFile(final int dictionary_type) {
         String filename;
-        
-        final HashMap<FileDicomKey, FileDicomTagInfo> hashtable = new HashMap<>();
 
         if (dictionary_type == DicomDictionary.SUBSET_DICTIONARY) {
             filename = DicomDictionary.SUBSET_DICTIONARY_FILENAME;
         } else {
+            final FileDicomTagInfo[] compiled = DicomDictionary.readCompiledFile();
+
+            if (compiled != null) {
+                DicomDictionary.setDefaultDictionary(compiled);
+                return;
+            }
             filename = DicomDictionary.DEFAULT_DICTIONARY_FILENAME;
         }
         BufferedReader dictionaryReference = DicomDictionary.getFileReader(filename);
@@ -629,9 +818,32 @@ private static void parseFile(final int dictionary_type) {
         if (dictionaryReference == null) {
             System.out.println("Failed to read DICOM dictionary file from " + filename);
             System.out.println("If saving a dicom image, no tags will be saved.");
+            if (dictionary_type != DicomDictionary.SUBSET_DICTIONARY) {
+                DicomDictionary.setDefaultDictionary(new FileDicomTagInfo[0]);
+            }
             return;
         }
 
+        final HashMap<FileDicomKey, FileDicomTagInfo> hashtable = DicomDictionary.parseDictionary(dictionaryReference, filename);
+
+        if (dictionary_type == DicomDictionary.SUBSET_DICTIONARY) {
+            DicomDictionary.subsetHashtable = hashtable;
+        } else {
+            DicomDictionary.setDefaultDictionary(DicomDictionary.sortByTag(hashtable));
+        }
+    }
+
+    /**
+     * Parses the lines of a dictionary in the text format described above.
+     *
+     * @param dictionaryReference reader of the dictionary, closed when done
+     * @param filename name of the dictionary for messages
+     *
+     * @return the dictionary entries
+     */
+    private static HashMap<FileDicomKey, FileDicomTagInfo> parseDictionary(BufferedReader dictionaryReference,
+            final String filename) {
+        final HashMap<FileDicomKey, FileDicomTagInfo> hashtable = new HashMap<>();
         FileDicomKey key;
 
         try {
@@ -761,11 +973,44 @@ private static void parseFile(final int dictionary_type) {
             } catch (final IOException closee) {
                 // ignore a problem closing the dictionary
             }
+        }
 
-            if (dictionary_type == DicomDictionary.SUBSET_DICTIONARY) {
-                DicomDictionary.subsetHashtable = hashtable;
-            } else {
-                DicomDictionary.masterHashtable = hashtable;
+        return hashtable;
+    }
+
+    /**
+     * A loaded dictionary: the entries sorted by packed tag and the cache of
+     * the repeating group entries resolved from them.
+     */
+    private static final class Entries {
+
+        /**
+         * Packed tags (see {@link FileDicomKey#getTag()}) of the known DICOM
+         * tags in ascending order, searched with a binary search.
+         */
+        final int[] tags;
+
+        /**
+         * The known DICOM tags with empty value attributes, in the order of
+         * {@link #tags}.
+         */
+        final FileDicomTagInfo[] infos;
+
+        /**
+         * Entries of the 50xx and 60xx tags resolved to the groups found in
+         * files, keyed by packed tag.
+         */
+        final ConcurrentHashMap<Integer, FileDicomTagInfo> wildcardEntries = new ConcurrentHashMap<>();
+
+        /**
+         * @param infos the dictionary entries, sorted by their packed tag
+         */
+        Entries(final FileDicomTagInfo[] infos) {
+            this.infos = infos;
+            this.tags = new int[infos.length];
+
+            for (int i = 0; i < infos.length; i++) {
+                tags[i] = infos[i].share().getKey().getTag();
             }
         }
     }
@@ -0,0 +1,51 @@
+package RawDCMLibary.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Compiles the text dicom dictionary into the binary form that DicomDictionary
+ * loads at startup, so that the text does not have to be tokenized on every
+ * start. Run by the build after compilation:
+ *
+ * <pre>
+ * java RawDCMLibary.model.DicomDictionaryCompiler dicom_dictionary.txt dicom_dictionary.bin
+ * </pre>
+ *
+ * @see DicomDictionary#writeCompiledFile(File, HashMap)
+ */
+public final class DicomDictionaryCompiler {
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    private DicomDictionaryCompiler() {
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Compiles a text dictionary.
+     *
+     * @param args the text dictionary and the file to write
+     *
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DicomDictionaryCompiler <dicom_dictionary.txt> <dicom_dictionary.bin>");
+            System.exit(1);
+        }
+
+        final File source = new File(args[0]);
+        final File target = new File(args[1]);
+        final HashMap<FileDicomKey, FileDicomTagInfo> dictionary = DicomDictionary.readTextFile(source);
+
+        if (dictionary.isEmpty()) {
+            throw new IOException("No tags found in " + source);
+        }
+        if (target.getParentFile() != null) {
+            target.getParentFile().mkdirs();
+        }
+        DicomDictionary.writeCompiledFile(target, dictionary);
+        System.out.println("Compiled " + dictionary.size() + " DICOM tags to " + target);
+    }
+}
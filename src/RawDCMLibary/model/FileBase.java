@@ -16,10 +16,10 @@ public class FileBase {
     // -------------------------------------------------------------------------------------
 
     /** Byte order. Rightmost byte is most significant. */
-    public static boolean LITTLE_ENDIAN = false;
+    public static final boolean LITTLE_ENDIAN = false;
 
     /** Byte order. Leftmost byte is most significant. */
-    public static boolean BIG_ENDIAN = true;
+    public static final boolean BIG_ENDIAN = true;
 
     /** Read only access. */
     public static final int READ = 0;
@@ -1,13 +1,18 @@
 package RawDCMLibary.model;
 
 import java.io.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * FileDICOMBase is an class that supports the reading/writing of DICOM files.
  * It reads in a buffer of tags that can be parsed more quickly than continued
- * random accesses to the harddrive.
+ * random accesses to the harddrive. The buffer is normally a read-only memory
+ * mapping of the file, so only the pages the parser actually touches are read
+ * and the heap use does not grow with the file size.
  *
  * @version 1.0 June 30, 2005
  */
@@ -40,6 +45,27 @@ public class FileDicomBase {
      */
     public static final long BUFFER_SIZE = 400000;
 
+    /**
+     * Largest part of a file that is mapped at a time. Larger files are read
+     * through a window of this size that moves along with the parser.
+     */
+    public static final long WINDOW_SIZE = 64L << 20;
+
+    /**
+     * Alignment of the window start, a multiple of the page size.
+     */
+    private static final long WINDOW_ALIGNMENT = 1 << 16;
+
+    /**
+     * Number of bytes inflated or handed to the inflater at a time.
+     */
+    private static final int INFLATE_CHUNK = 1 << 16;
+
+    /**
+     * Element length reported for undefined length elements.
+     */
+    protected static final int UNDEFINED_LENGTH = -2;
+
     //~ Instance fields ------------------------------------------------------------------------------------------------
     /**
      * One byte array used to read/write in data so that one doesn't't need to
@@ -71,9 +97,37 @@ public class FileDicomBase {
     protected long fLength = 0;
 
     /**
-     * The buffer that holds the tags of the DICOM image.
+     * The buffer that holds the tags of the DICOM image, either a memory
+     * mapping of the file or a wrapped heap array.
      */
-    protected byte[] tagBuffer = null;
+    protected ByteBuffer tagBuffer = null;
+
+    /**
+     * The pixel data tag 7FE0,0010 as it appears in a little endian file.
+     */
+    private static final byte[] PIXEL_TAG_LE = {(byte) 0xE0, (byte) 0x7F, (byte) 0x10, (byte) 0x00};
+
+    /**
+     * The pixel data tag 7FE0,0010 as it appears in a big endian file.
+     */
+    private static final byte[] PIXEL_TAG_BE = {(byte) 0x7F, (byte) 0xE0, (byte) 0x00, (byte) 0x10};
+
+    /**
+     * How far the search window for the pixel data tag can move on, indexed by
+     * the last byte in the window: the shortest shift that lines that byte up
+     * with the same byte earlier in either pattern, four if it is in neither.
+     */
+    private static final int[] PIXEL_TAG_SKIP = new int[256];
+
+    static {
+        java.util.Arrays.fill(PIXEL_TAG_SKIP, 4);
+        for (byte[] pattern : new byte[][]{PIXEL_TAG_LE, PIXEL_TAG_BE}) {
+            for (int k = 0; k < 3; k++) {
+                final int b = pattern[k] & 0xFF;
+                PIXEL_TAG_SKIP[b] = Math.min(PIXEL_TAG_SKIP[b], 3 - k);
+            }
+        }
+    }
 
     /**
      * Integer variable used to read/write in data so that they don't need to be
@@ -84,7 +138,41 @@ public class FileDicomBase {
     /**
      * Buffer pointer (aka file pointer).
      */
-    private int bPtr = 0;
+    private long bPtr = 0;
+
+    /**
+     * File position of the first byte of {@link #tagBuffer}; not zero only
+     * when a window of a large file is mapped.
+     */
+    private long windowStart = 0;
+
+    /**
+     * Channel the windows of the file are mapped from, <code>null</code> when
+     * the tag buffer is not a file mapping.
+     */
+    private FileChannel windowChannel = null;
+
+    /**
+     * Inflater of a deflated data set, <code>null</code> when the tag buffer
+     * holds no deflated data set or all of it has been inflated.
+     */
+    private Inflater inflater = null;
+
+    /**
+     * The deflated bytes not yet handed to the {@link #inflater}.
+     */
+    private ByteBuffer deflatedInput = null;
+
+    /**
+     * Chunk the deflated bytes are copied into for the inflater.
+     */
+    private byte[] inflaterInput = null;
+
+    /**
+     * Whether the tag buffer holds an inflated data set rather than the file
+     * as it is stored.
+     */
+    private boolean inflated = false;
 
     /**
      * If file is a DICOMDIR this is false *
@@ -106,19 +194,328 @@ public class FileDicomBase {
 
     //~ Methods --------------------------------------------------------------------------------------------------------
     /**
-     * Prepares this class for cleanup.
+     * Reads a length of the data and deposits it into a byte array, which the
+     * tag stores without boxing.
+     *
+     * @return Object
+     *
+     * @throws IOException DOCUMENT ME!
+     *
+     * @param vm value multiplicity of the DICOM tag data. VM does not represent
+     * how many to find.
+     * @param length number of bytes to read out of data stream; the length is
+     * not used.
+     * @param endianess byte order indicator; here <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
      */
-    @Override
-    public void finalize() {
-        try {
-            tagBuffer = null;
-        } finally {
-            try {
-                super.finalize();
-            } catch (Throwable ex) {
-                Logger.getLogger(FileDicomBase.class.getName()).log(Level.SEVERE, null, ex);
+    protected final Object getByte(final int vm, final int length, final boolean endianess) throws IOException {
+        Object readObject = null; // the Object we read in
+
+        if (vm > 1) {
+            final byte[] array = new byte[length];
+            read(array);
+
+            readObject = array;
+        } else if ((vm < 1) && (length > 2)) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            final byte[] array = new byte[length];
+            read(array);
+
+            readObject = array;
+        } else if (length > 0) {
+            final byte[] array = new byte[length];
+            read(array);
+
+            readObject = array;
+        }
+
+        return readObject;
+    }
+
+    /**
+     * Reads a length of the data and deposits it into a single Short or an
+     * array of short as needed by the tag's VM.
+     *
+     * @return Object
+     *
+     * @throws IOException DOCUMENT ME!
+     *
+     * @param vm value multiplicity of the DICOM tag data. VM does not represent
+     * how many to find.
+     * @param length number of bytes to read out of data stream; the length is
+     * not used.
+     * @param endianess byte order indicator; here <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     */
+    protected final Object getShort(final int vm, final int length, final boolean endianess) throws IOException {
+        int len = (length == UNDEFINED_LENGTH) ? 0 : length;
+        int i = 0;
+        Object readObject = null; // the Object we read in
+
+        if (vm > 1) {
+            final short[] array = new short[length / 2];
+
+            while (len > 0) { // we should validate with VM here too
+                array[i] = (short) getUnsignedShort(endianess);
+                len -= 2;
+                i++;
+            }
+
+            readObject = array;
+        } else if (((vm < 1) && (length > 2))) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            final short[] array = new short[length / 2];
+
+            while (len > 0) { // we should validate with VM here too
+                array[i] = (short) getUnsignedShort(endianess);
+                len -= 2;
+                i++;
+            }
+
+            readObject = array;
+        } else if (((vm == 1) && (length > 2))) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            readObject = Short.valueOf((short) getUnsignedShort(endianess));
+            len -= 2;
+
+            while (len > 0) { // we should validate with VM here too
+                getUnsignedShort(endianess);
+                len -= 2;
+                i++;
             }
+        } else if (length == 2) {
+            readObject = Short.valueOf((short) getUnsignedShort(endianess));
         }
+
+        return readObject;
+    }
+
+    /**
+     * Gets private tags or other tags where the type is unknown; does not
+     * change the data, so it may be written out correctly.
+     *
+     * @param length number of bytes to read out of data stream
+     *
+     * @return A byte array holding the <code>length</code> bytes read.
+     *
+     * @throws IOException if the length runs past the end of the file
+     */
+    protected final Object readUnknownData(final int length) throws IOException {
+        byte[] bytesValue;
+
+        if (length < 0) {
+            return null;
+        }
+        if (length > remaining(length)) { // a corrupt or non dicom file, do not allocate the length
+            throw new IOException("Value length " + length + " exceeds the " + remaining(length)
+                    + " bytes left in the file");
+        }
+
+        bytesValue = new byte[length];
+        read(bytesValue);
+
+        return bytesValue;
+    }
+
+    /**
+     * Reads a length of the data and deposits it into a single Double or an
+     * array of double as needed by the tag's VM.
+     *
+     * @return Object
+     *
+     * @throws IOException DOCUMENT ME!
+     *
+     * @param vm value multiplicity of the DICOM tag data. VM does not represent
+     * how many to find.
+     * @param length number of bytes to read out of data stream; the length is
+     * not used.
+     * @param endianess byte order indicator; here <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     */
+    protected final Object getDouble(final int vm, final int length, final boolean endianess) throws IOException {
+        int len = (length == UNDEFINED_LENGTH) ? 0 : length;
+        int i = 0;
+        Object readObject = null;
+
+        if (vm > 1) {
+            final double[] array = new double[length / 8];
+
+            while (len > 0) { // we should validate with VM here too
+                array[i] = getDouble(endianess);
+                len -= 8;
+                i++;
+            }
+
+            readObject = array;
+        } else if ((vm < 1) && (length > 8)) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data
+            // we actually do it as above.
+            final double[] array = new double[length / 8];
+
+            while (len > 0) {
+                array[i] = getDouble(endianess);
+                len -= 8;
+                i++;
+            }
+
+            readObject = array;
+        } else if (((vm == 1) && (length > 8))) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            readObject = Double.valueOf(getDouble(endianess));
+            len -= 8;
+
+            while (len > 0) { // we should validate with VM here too
+                getDouble(endianess);
+                len -= 8;
+                i++;
+            }
+        } else if (length == 8) {
+            readObject = Double.valueOf(getDouble(endianess));
+        }
+
+        return readObject;
+    }
+
+    /**
+     * Reads a length of the data and deposits it into a single Float or an
+     * array of float as needed by the tag's VM.
+     *
+     * @return Object
+     *
+     * @throws IOException DOCUMENT ME!
+     *
+     * @param vm value multiplicity of the DICOM tag data. VM does not represent
+     * how many to find.
+     * @param length number of bytes to read out of data stream; the length is
+     * not used.
+     * @param endianess byte order indicator; here <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     */
+    protected final Object getFloat(final int vm, final int length, final boolean endianess) throws IOException {
+        int len = (length == UNDEFINED_LENGTH) ? 0 : length;
+        int i = 0;
+        Object readObject = null;
+
+        if (vm > 1) {
+            final float[] array = new float[length / 4];
+
+            while (len > 0) { // we should validate with VM here too
+                array[i] = getFloat(endianess);
+                len -= 4;
+                i++;
+            }
+
+            readObject = array;
+        } else if ((vm < 1) && (length > 4)) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data
+            // we actually do it as above.
+            final float[] array = new float[length / 4];
+
+            while (len > 0) {
+                array[i] = getFloat(endianess);
+                len -= 4;
+                i++;
+            }
+
+            readObject = array;
+        } else if (((vm == 1) && (length > 4))) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            readObject = Float.valueOf(getFloat(endianess));
+            len -= 4;
+
+            while (len > 0) { // we should validate with VM here too
+                getFloat(endianess);
+                len -= 4;
+                i++;
+            }
+        } else if (length == 4) {
+            readObject = Float.valueOf(getFloat(endianess));
+        }
+
+        return readObject;
+    }
+
+    /**
+     * Reads a length of the data and deposits it into a single Integer or an
+     * array of int as needed by the tag's VM.
+     *
+     * @return Object
+     *
+     * @throws IOException DOCUMENT ME!
+     *
+     * @param vm value multiplicity of the DICOM tag data. VM does not represent
+     * how many to find.
+     * @param length number of bytes to read out of data stream; the length is
+     * not used.
+     * @param endianess byte order indicator; here <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     */
+    protected final Object getInteger(final int vm, final int length, final boolean endianess) throws IOException {
+        int len = (length == UNDEFINED_LENGTH) ? 0 : length;
+        int i = 0;
+        Object readObject = null;
+
+        if (vm > 1) {
+            final int[] array = new int[length / 4];
+
+            while (len > 0) { // we should validate with VM here too
+                array[i] = getInt(endianess);
+                len -= 4;
+                i++;
+            }
+
+            readObject = array;
+        } else if ((vm < 1) && (length > 4)) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            final int[] array = new int[length / 4];
+
+            while (len > 0) {
+                array[i] = getInt(endianess);
+                len -= 4;
+                i++;
+            }
+
+            readObject = array;
+        } else if (((vm == 1) && (length > 4))) {
+
+            // not a valid VM, but we don't initialise the VM to 1,
+            // so we will use this fact to guess at valid data.
+            // we actually do it as above.
+            readObject = Integer.valueOf(getInt(endianess));
+            len -= 4;
+
+            while (len > 0) { // we should validate with VM here too
+                getInt(endianess);
+                len -= 4;
+                i++;
+            }
+        } else if (length == 4) {
+            readObject = Integer.valueOf(getInt(endianess));
+        }
+
+        return readObject;
     }
 
     /**
@@ -129,9 +526,10 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final int getByte() throws IOException {
+        final int i = index(1);
         b3 = 0;
 
-        b3 = (tagBuffer[bPtr] & 0xff);
+        b3 = (tagBuffer.get(i) & 0xff);
         bPtr += 1;
 
         return b3;
@@ -148,14 +546,15 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final double getDouble(boolean endianess) throws IOException {
-        b1 = (tagBuffer[bPtr] & 0xff);
-        b2 = (tagBuffer[bPtr + 1] & 0xff);
-        b3 = (tagBuffer[bPtr + 2] & 0xff);
-        b4 = (tagBuffer[bPtr + 3] & 0xff);
-        b5 = (tagBuffer[bPtr + 4] & 0xff);
-        b6 = (tagBuffer[bPtr + 5] & 0xff);
-        b7 = (tagBuffer[bPtr + 6] & 0xff);
-        b8 = (tagBuffer[bPtr + 7] & 0xff);
+        final int i = index(8);
+        b1 = (tagBuffer.get(i) & 0xff);
+        b2 = (tagBuffer.get(i + 1) & 0xff);
+        b3 = (tagBuffer.get(i + 2) & 0xff);
+        b4 = (tagBuffer.get(i + 3) & 0xff);
+        b5 = (tagBuffer.get(i + 4) & 0xff);
+        b6 = (tagBuffer.get(i + 5) & 0xff);
+        b7 = (tagBuffer.get(i + 6) & 0xff);
+        b8 = (tagBuffer.get(i + 7) & 0xff);
 
         long tmpLong;
 
@@ -184,14 +583,15 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final float getFloat(boolean endianess) throws IOException {
+        final int i = index(4);
         int tmpInt;
 
         if (endianess == BIG_ENDIAN) {
-            tmpInt = (((tagBuffer[bPtr] & 0xff) << 24) | ((tagBuffer[bPtr + 1] & 0xff) << 16)
-                    | ((tagBuffer[bPtr + 2] & 0xff) << 8) | (tagBuffer[bPtr + 3] & 0xff));
+            tmpInt = (((tagBuffer.get(i) & 0xff) << 24) | ((tagBuffer.get(i + 1) & 0xff) << 16)
+                    | ((tagBuffer.get(i + 2) & 0xff) << 8) | (tagBuffer.get(i + 3) & 0xff));
         } else {
-            tmpInt = (((tagBuffer[bPtr + 3] & 0xff) << 24) | ((tagBuffer[bPtr + 2] & 0xff) << 16)
-                    | ((tagBuffer[bPtr + 1] & 0xff) << 8) | (tagBuffer[bPtr] & 0xff));
+            tmpInt = (((tagBuffer.get(i + 3) & 0xff) << 24) | ((tagBuffer.get(i + 2) & 0xff) << 16)
+                    | ((tagBuffer.get(i + 1) & 0xff) << 8) | (tagBuffer.get(i) & 0xff));
         }
 
         bPtr += 4;
@@ -210,15 +610,15 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final int getInt(boolean endianess) throws IOException {
-
+        final int i = index(4);
         b3 = 0;
 
         if (endianess == BIG_ENDIAN) {
-            b3 = ((tagBuffer[bPtr] & 0xff) << 24) | ((tagBuffer[bPtr + 1] & 0xff) << 16)
-                    | ((tagBuffer[bPtr + 2] & 0xff) << 8) | (tagBuffer[bPtr + 3] & 0xff); // Big Endian
+            b3 = ((tagBuffer.get(i) & 0xff) << 24) | ((tagBuffer.get(i + 1) & 0xff) << 16)
+                    | ((tagBuffer.get(i + 2) & 0xff) << 8) | (tagBuffer.get(i + 3) & 0xff); // Big Endian
         } else {
-            b3 = ((tagBuffer[bPtr + 3] & 0xff) << 24) | ((tagBuffer[bPtr + 2] & 0xff) << 16)
-                    | ((tagBuffer[bPtr + 1] & 0xff) << 8) | (tagBuffer[bPtr] & 0xff);
+            b3 = ((tagBuffer.get(i + 3) & 0xff) << 24) | ((tagBuffer.get(i + 2) & 0xff) << 16)
+                    | ((tagBuffer.get(i + 1) & 0xff) << 8) | (tagBuffer.get(i) & 0xff);
         }
 
         bPtr += 4;
@@ -237,14 +637,15 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final long getLong(boolean endianess) throws IOException {
-        b1 = (tagBuffer[bPtr] & 0xff);
-        b2 = (tagBuffer[bPtr + 1] & 0xff);
-        b3 = (tagBuffer[bPtr + 2] & 0xff);
-        b4 = (tagBuffer[bPtr + 3] & 0xff);
-        b5 = (tagBuffer[bPtr + 4] & 0xff);
-        b6 = (tagBuffer[bPtr + 5] & 0xff);
-        b7 = (tagBuffer[bPtr + 6] & 0xff);
-        b8 = (tagBuffer[bPtr + 7] & 0xff);
+        final int i = index(8);
+        b1 = (tagBuffer.get(i) & 0xff);
+        b2 = (tagBuffer.get(i + 1) & 0xff);
+        b3 = (tagBuffer.get(i + 2) & 0xff);
+        b4 = (tagBuffer.get(i + 3) & 0xff);
+        b5 = (tagBuffer.get(i + 4) & 0xff);
+        b6 = (tagBuffer.get(i + 5) & 0xff);
+        b7 = (tagBuffer.get(i + 6) & 0xff);
+        b8 = (tagBuffer.get(i + 7) & 0xff);
 
         long tmpLong;
 
@@ -272,12 +673,13 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final int getSignedShort(boolean endianess) throws IOException {
+        final int i = index(2);
         b3 = 0;
 
         if (endianess == BIG_ENDIAN) {
-            b3 = ((tagBuffer[bPtr] & 0xff) << 8) | (tagBuffer[bPtr + 1] & 0xff);
+            b3 = ((tagBuffer.get(i) & 0xff) << 8) | (tagBuffer.get(i + 1) & 0xff);
         } else {
-            b3 = ((tagBuffer[bPtr + 1] & 0xff) << 8) | (tagBuffer[bPtr] & 0xff);
+            b3 = ((tagBuffer.get(i + 1) & 0xff) << 8) | (tagBuffer.get(i) & 0xff);
         }
 
         if ((b3 & 0x0080) != 0) {
@@ -306,9 +708,10 @@ public class FileDicomBase {
 
         byte[] b = new byte[length];
 
-        for (int i = 0; i < length; i++) {
-            b[i] = tagBuffer[bPtr++];
-        }
+        final int i = index(length); // may inflate into a new tag buffer
+        tagBuffer.position(i);
+        tagBuffer.get(b);
+        bPtr += length;
         String s = new String(b);
         b = null;
         return s;
@@ -325,15 +728,15 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final long getUInt(boolean endianess) throws IOException {
-
+        final int i = index(4);
         long val = 0;
 
         if (endianess == BIG_ENDIAN) {
-            val = ((tagBuffer[bPtr] & 0xffL) << 24) | ((tagBuffer[bPtr + 1] & 0xffL) << 16)
-                    | ((tagBuffer[bPtr + 2] & 0xffL) << 8) | (tagBuffer[bPtr + 3] & 0xffL); // Big Endian
+            val = ((tagBuffer.get(i) & 0xffL) << 24) | ((tagBuffer.get(i + 1) & 0xffL) << 16)
+                    | ((tagBuffer.get(i + 2) & 0xffL) << 8) | (tagBuffer.get(i + 3) & 0xffL); // Big Endian
         } else {
-            val = ((tagBuffer[bPtr + 3] & 0xffL) << 24) | ((tagBuffer[bPtr + 2] & 0xffL) << 16)
-                    | ((tagBuffer[bPtr + 1] & 0xffL) << 8) | (tagBuffer[bPtr] & 0xffL);
+            val = ((tagBuffer.get(i + 3) & 0xffL) << 24) | ((tagBuffer.get(i + 2) & 0xffL) << 16)
+                    | ((tagBuffer.get(i + 1) & 0xffL) << 8) | (tagBuffer.get(i) & 0xffL);
         }
 
         bPtr += 4;
@@ -353,12 +756,13 @@ public class FileDicomBase {
      * @exception IOException if there is an error reading the file
      */
     public final int getUnsignedShort(boolean endianess) throws IOException {
+        final int i = index(2);
         b3 = 0;
 
         if (endianess == BIG_ENDIAN) {
-            b3 = ((tagBuffer[bPtr] & 0xff) << 8) | (tagBuffer[bPtr + 1] & 0xff); // Big Endian
+            b3 = ((tagBuffer.get(i) & 0xff) << 8) | (tagBuffer.get(i + 1) & 0xff); // Big Endian
         } else {
-            b3 = ((tagBuffer[bPtr + 1] & 0xff) << 8) | (tagBuffer[bPtr] & 0xff); // Little Endian
+            b3 = ((tagBuffer.get(i + 1) & 0xff) << 8) | (tagBuffer.get(i) & 0xff); // Little Endian
         }
 
         bPtr += 2;
@@ -388,84 +792,54 @@ public class FileDicomBase {
     }
 
     /**
-     * Locates a DICOM image beginning at the given offset.When multiple images
- after the offset exist, imageNumber can be used to specify the exact
- image to retrieve.
-     * @param offset
-     * @param imageNumber
-     * @return 
+     * Locates a DICOM image beginning at the given offset. When multiple images
+     * after the offset exist, imageNumber can be used to specify the exact
+     * image to retrieve. The tag buffer is searched in place for the pixel data
+     * tag 7FE0,0010 in either byte order, skipping ahead Boyer-Moore-Horspool
+     * style on the last byte of each window. The file pointer is not moved.
+     *
+     * @param offset where to start searching
+     * @param imageNumber zero based number of the pixel data tag to find
+     *
+     * @return the position just after the tag's vr and length fields, or -1 if
+     * there is no pixel data tag after the offset. When fewer tags than
+     * imageNumber + 1 are found the last one is returned.
+     *
+     * @throws IOException if the file could not be mapped
      */
-    public int locateImageTag(int offset, int imageNumber) {
-        int tagSize = 0;
+    public long locateImageTag(long offset, int imageNumber) throws IOException {
+        inflate(Long.MAX_VALUE); // the search runs to the end of the data set
+        final long end = fLength - 4;
+        long found = -1;
         int numImagesLoc = 0;
-        boolean isImage = false;
-        bPtr = offset;
-        seek(bPtr);
-        long raFileLength = 0;
-        int bufferLength = (int) (tagBuffer.length < BUFFER_SIZE ? tagBuffer.length : BUFFER_SIZE);
-        byte[] raBuffer = new byte[bufferLength];
-        raBuffer = tagBuffer;
-        int b0 = Integer.parseInt("7F", 16);
-        int b2 = Integer.parseInt("00", 16);
-        int b3 = Integer.parseInt("10", 16);
-        int first, second, third, fourth;
-        int num = 0, numRepeats = 0;
-        int lastSuccessNum = 0, lastSuccessNumRepeats = 0;
-        long time = System.currentTimeMillis();
-        imageSearch:
-        while (raBuffer.length * numRepeats - numRepeats * 4 + num < raFileLength - 5 || !isImage) {
-            if (num == raBuffer.length - 5) {
-                numRepeats++; //every repeat of buffer reading has a 4 bit preceding overlap
-                if (raBuffer.length * numRepeats - numRepeats * 4 + num >= raFileLength - 5) {
-                    break imageSearch;
-                }
-                System.out.println("Rescanning raFile starting at location " + (raBuffer.length * numRepeats - numRepeats * 4) + "\n");
-                seek(raBuffer.length * numRepeats - numRepeats * 4);
-                if (raBuffer.length * (numRepeats + 1) - (numRepeats + 1) * 4 > raFileLength - 5) {
-                    raBuffer = new byte[(int) (raFileLength - getFilePointer())];
-                }
-                
-                num = 0;
+        long i = Math.max(offset, 0);
+
+        while (i <= end) {
+            final int last = byteAt(i + 3) & 0xFF;
+            final boolean match;
+
+            if (last == 0x00) {
+                match = byteAt(i) == PIXEL_TAG_LE[0] && byteAt(i + 1) == PIXEL_TAG_LE[1]
+                        && byteAt(i + 2) == PIXEL_TAG_LE[2];
+            } else if (last == 0x10) {
+                match = byteAt(i) == PIXEL_TAG_BE[0] && byteAt(i + 1) == PIXEL_TAG_BE[1]
+                        && byteAt(i + 2) == PIXEL_TAG_BE[2];
+            } else {
+                match = false;
             }
-            first = raBuffer[num];
-            second = raBuffer[num + 1];
-            third = raBuffer[num + 2];
-            fourth = raBuffer[num + 3];
-            if (first == b0) { //second bit is wildcard
-                if (third == b2) {
-                    if (fourth == b3) {
-                        isImage = true;
-                        numImagesLoc++;
-                        lastSuccessNum = num;
-                        lastSuccessNumRepeats = numRepeats;
-                        if (numImagesLoc == imageNumber + 1) {
-                            break imageSearch;
-                        }
-                    }
+            if (match) {
+                found = i;
+                if (numImagesLoc++ == imageNumber) {
+                    break;
                 }
             }
-            if (second == b0) { //first bit is wildcard
-                if (fourth == b2) {
-                    if (third == b3) {
-                        isImage = true;
-                        numImagesLoc++;
-                        lastSuccessNum = num;
-                        lastSuccessNumRepeats = numRepeats;
-                        if (numImagesLoc == imageNumber + 1) {
-                            break imageSearch;
-                        }
-                    }
-                }
-            }
-            num++;
+            i += PIXEL_TAG_SKIP[last];
         }
-        tagSize = raBuffer.length * (lastSuccessNumRepeats) + (lastSuccessNum + 12) - lastSuccessNumRepeats * 4; //include any possible length and vr fields
-        System.out.println("Image tag located near byte " + tagSize + " in " + (System.currentTimeMillis() - time) + "\n");
-        if (!isImage) {
-            System.out.println("No image tag was found for this DICOM image\n");
+
+        if (found == -1) {
             return -1;
         }
-        return tagSize;
+        return found + 12; //include any possible length and vr fields
     }
 
     /**
@@ -590,8 +964,294 @@ public class FileDicomBase {
      * @param buffer byte[]
      */
     public final void setTagBuffer(byte[] buffer) {
+        setTagBuffer(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Sets the buffer the tags are parsed from, for example a wrapped array or
+     * a buffer the DICOM object was read into.
+     *
+     * @param buffer buffer positioned at the start of the DICOM file
+     */
+    public final void setTagBuffer(ByteBuffer buffer) {
         tagBuffer = buffer;
-        fLength = buffer.length;
+        windowStart = 0;
+        windowChannel = null;
+        endInflate(false);
+        fLength = buffer.limit();
+    }
+
+    /**
+     * Sets a buffer holding part of the file as the tag buffer, so that file
+     * positions are the same as when the whole file was parsed.
+     *
+     * @param window buffer holding part of the file
+     * @param start file position of the first byte of the buffer
+     */
+    final void setTagWindow(ByteBuffer window, long start) {
+        tagBuffer = window;
+        windowStart = start;
+        windowChannel = null;
+        endInflate(false);
+        fLength = start + window.limit();
+    }
+
+    /**
+     * Returns the file position of the first byte of the tag buffer.
+     *
+     * @return zero unless a window of a large file is mapped
+     */
+    protected final long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Maps the file read-only and uses the mapping as the tag buffer. Files up
+     * to {@link #WINDOW_SIZE} are mapped in one piece; of larger files only a
+     * window is mapped, which moves along when the parser reads past it, so
+     * files of any size are parsed in constant memory. The channel must stay
+     * open while the header is read; windows already mapped stay valid after
+     * it has been closed.
+     *
+     * @param channel channel of the DICOM file
+     * @param length length of the file in bytes, at most the size of the file
+     *
+     * @return the first window, now used as the tag buffer
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    protected final MappedByteBuffer mapTagBuffer(FileChannel channel, long length) throws IOException {
+        windowChannel = channel;
+        fLength = length;
+        endInflate(false);
+        mapWindow(0, 0);
+        return (MappedByteBuffer) tagBuffer;
+    }
+
+    /**
+     * Maps the window of the file that starts at or just before the given
+     * position and holds at least <code>count</code> bytes from there.
+     *
+     * @param position file position the window must contain
+     * @param count number of bytes from the position the window must contain
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    private void mapWindow(long position, int count) throws IOException {
+        final long start = position & ~(WINDOW_ALIGNMENT - 1);
+        final long size = Math.min(Math.max(WINDOW_SIZE, position - start + count), fLength - start);
+
+        tagBuffer = windowChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(size, 0));
+        windowStart = start;
+    }
+
+    /**
+     * Replaces the deflated data set that starts at the given file position
+     * with its inflated bytes, as for the Deflated Explicit VR Little Endian
+     * transfer syntax. The bytes before it, the preamble and the meta group,
+     * are kept. The data set is inflated into the tag buffer while the parser
+     * reads it, so a parse that stops early only inflates what it has read,
+     * and the deflated bytes are read straight from the current buffer or
+     * mapping. The data set is a raw deflate stream; a zlib header, written
+     * by some applications, is accepted too.
+     *
+     * @param start file position of the first deflated byte
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    protected final void inflateTagBuffer(long start) throws IOException {
+        if (inflated || start > Integer.MAX_VALUE) {
+            return;
+        }
+        final long compressed = fLength - start;
+        final ByteBuffer input;
+
+        seek(0);
+        final byte[] head = new byte[(int) start];
+        read(head);
+        if (windowChannel != null) {
+            input = windowChannel.map(FileChannel.MapMode.READ_ONLY, start, compressed);
+        } else {
+            seek(start);
+            final int index = index(0);
+            final ByteBuffer rest = tagBuffer.duplicate();
+            rest.limit(index + (int) compressed);
+            rest.position(index);
+            input = rest.slice();
+        }
+
+        final boolean zlib = compressed >= 2 && (input.get(0) & 0x0F) == 8
+                && ((input.get(0) & 0xFF) << 8 | (input.get(1) & 0xFF)) % 31 == 0;
+        final long capacity = start + Math.min(Math.max(compressed * 4, INFLATE_CHUNK), WINDOW_SIZE);
+
+        tagBuffer = ByteBuffer.allocate((int) capacity);
+        tagBuffer.put(head);
+        tagBuffer.flip();
+        windowStart = 0;
+        windowChannel = null;
+        fLength = start;
+        inflater = new Inflater(!zlib);
+        deflatedInput = input;
+        inflaterInput = input.hasArray() ? null : new byte[INFLATE_CHUNK];
+        inflated = true;
+        seek(start);
+    }
+
+    /**
+     * Returns whether the tag buffer holds an inflated data set.
+     *
+     * @return <code>true</code> if the file is deflated and the tag buffer
+     * holds its inflated bytes
+     */
+    protected final boolean isInflated() {
+        return inflated;
+    }
+
+    /**
+     * Inflates the data set up to the given file position or to its end,
+     * whichever comes first. Nothing is done unless a deflated data set is
+     * being read.
+     *
+     * @param position file position the inflated bytes should reach
+     *
+     * @throws IOException if the deflated data is corrupt
+     */
+    protected final void inflate(long position) throws IOException {
+        try {
+            while (inflater != null && fLength < position) {
+                if (tagBuffer.limit() == tagBuffer.capacity()) {
+                    if (tagBuffer.capacity() >= Integer.MAX_VALUE - 8) {
+                        throw new IOException("Inflated data set is larger than 2GB");
+                    }
+                    final ByteBuffer larger = ByteBuffer.allocate((int) Math.min(
+                            (long) tagBuffer.capacity() * 2, Integer.MAX_VALUE - 8));
+                    tagBuffer.position(0);
+                    larger.put(tagBuffer);
+                    larger.flip();
+                    tagBuffer = larger;
+                }
+
+                final int limit = tagBuffer.limit();
+                final int wanted = (int) Math.min(tagBuffer.capacity() - limit,
+                        Math.max(position - fLength, INFLATE_CHUNK));
+                final int count = inflater.inflate(tagBuffer.array(), tagBuffer.arrayOffset() + limit, wanted);
+
+                tagBuffer.limit(limit + count);
+                fLength += count;
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    endInflate(true);
+                } else if (count == 0 && inflater.needsInput()) {
+                    if (!deflatedInput.hasRemaining()) {
+                        endInflate(true); // the file ends before the deflate stream does
+                    } else if (inflaterInput == null) {
+                        final int length = deflatedInput.remaining();
+                        inflater.setInput(deflatedInput.array(), deflatedInput.arrayOffset()
+                                + deflatedInput.position(), length);
+                        deflatedInput.position(deflatedInput.limit());
+                    } else {
+                        final int length = Math.min(inflaterInput.length, deflatedInput.remaining());
+                        deflatedInput.get(inflaterInput, 0, length);
+                        inflater.setInput(inflaterInput, 0, length);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            endInflate(true);
+            throw new IOException("Corrupt deflated data set at " + fLength + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Releases the inflater.
+     *
+     * @param keepInflated whether the tag buffer still holds an inflated data
+     * set
+     */
+    private void endInflate(boolean keepInflated) {
+        if (inflater != null) {
+            inflater.end();
+        }
+        inflater = null;
+        deflatedInput = null;
+        inflaterInput = null;
+        inflated = keepInflated && inflated;
+    }
+
+    /**
+     * Returns the number of bytes left from the file pointer, inflating up to
+     * <code>count</code> bytes of a deflated data set first.
+     *
+     * @param count number of bytes the caller is about to read
+     *
+     * @return the bytes left in the file, which may be more than
+     * <code>count</code>
+     *
+     * @throws IOException if the deflated data is corrupt
+     */
+    protected final long remaining(long count) throws IOException {
+        inflate(bPtr + count);
+        return fLength - bPtr;
+    }
+
+    /**
+     * Returns whether the file pointer is at or past the end of the file or
+     * of the inflated data set.
+     *
+     * @return <code>true</code> if there is nothing left to read
+     *
+     * @throws IOException if the deflated data is corrupt
+     */
+    protected final boolean isEndOfData() throws IOException {
+        return remaining(1) <= 0;
+    }
+
+    /**
+     * Returns the index in the tag buffer of the file pointer, mapping
+     * another window first if the next <code>count</code> bytes are not in
+     * the current one. A buffer that is not a file mapping is never replaced;
+     * reading past its end throws an IndexOutOfBoundsException as before.
+     *
+     * @param count number of bytes about to be read
+     *
+     * @return index of the file pointer in {@link #tagBuffer}
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    protected final int index(int count) throws IOException {
+        long i = bPtr - windowStart;
+
+        if ((i < 0 || i + count > tagBuffer.limit()) && windowChannel != null && bPtr >= 0 && bPtr < fLength) {
+            mapWindow(bPtr, (int) Math.min(count, fLength - bPtr));
+            i = bPtr - windowStart;
+        } else if (i + count > tagBuffer.limit() && inflater != null) {
+            inflate(bPtr + count);
+        }
+        if (i < 0 || i > Integer.MAX_VALUE) {
+            throw new IndexOutOfBoundsException("File position " + bPtr + " is outside the tag buffer");
+        }
+        return (int) i;
+    }
+
+    /**
+     * Returns the byte at a file position, mapping another window if needed.
+     * The file pointer is not moved.
+     *
+     * @param position file position of the byte
+     *
+     * @return the byte
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    protected final byte byteAt(long position) throws IOException {
+        long i = position - windowStart;
+
+        if ((i < 0 || i >= tagBuffer.limit()) && windowChannel != null && position < fLength) {
+            mapWindow(position, 1);
+            i = position - windowStart;
+        } else if (i >= tagBuffer.limit() && inflater != null) {
+            inflate(position + 1);
+        }
+        return tagBuffer.get((int) i);
     }
 
     /**
@@ -599,7 +1259,7 @@ public class FileDicomBase {
      *
      * @return the file/buffer pointer
      */
-    protected final int getFilePointer() {
+    protected final long getFilePointer() {
         return bPtr;
     }
 
@@ -607,10 +1267,14 @@ public class FileDicomBase {
      * Reads into the supplied buffer data from the DICOM tag buffer.
      *
      * @param byteBuffer byte[]
+     *
+     * @throws IOException if the file could not be mapped
      */
-    protected final void read(byte[] byteBuffer) {
+    protected final void read(byte[] byteBuffer) throws IOException {
 
-        System.arraycopy(tagBuffer, bPtr, byteBuffer, 0, byteBuffer.length);
+        final int i = index(byteBuffer.length); // may inflate into a new tag buffer
+        tagBuffer.position(i);
+        tagBuffer.get(byteBuffer);
         bPtr += byteBuffer.length;
     }
 
@@ -619,7 +1283,7 @@ public class FileDicomBase {
      *
      * @param value indicates the new buffer pointer value
      */
-    protected final void seek(int value) {
+    protected final void seek(long value) {
         bPtr = value;
     }
 
@@ -0,0 +1,110 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The location of a sequence whose items have not been parsed yet. When lazy
+ * sequences are enabled the parser steps over the sequence and hands a
+ * FileDicomSQ holding one of these to the tag table; the items are parsed
+ * from the retained header buffer the first time the sequence is accessed.
+ *
+ * @see FileDicomSQ
+ * @see DICOMFileInputStream#setLazySequences(boolean)
+ */
+final class FileDicomDeferredSequence {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The file the sequence belongs to, for its transfer syntax.
+     */
+    private final DICOMFile fileInfo;
+
+    /**
+     * The buffer the header was parsed from, holding the whole sequence. It
+     * is never repositioned, every parse works on a duplicate.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * File position of the first byte of the buffer.
+     */
+    private final long bufferStart;
+
+    /**
+     * File position of the first item of the sequence.
+     */
+    private final long offset;
+
+    /**
+     * Length of the sequence as given in the file, -1 if undefined.
+     */
+    private final int length;
+
+    /**
+     * Byte order of the data set, <code>true</code> for big endian.
+     */
+    private final boolean endianess;
+
+    /**
+     * Length of the meta group, which the parser needs to tell the file meta
+     * information from the data set.
+     */
+    private final int metaGroupLength;
+
+    /**
+     * Whether the values of the items are decoded on first access.
+     */
+    private final boolean lazyValues;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Records where the items of a sequence can be found.
+     *
+     * @param fileInfo the file the sequence belongs to
+     * @param buffer the buffer the header is parsed from
+     * @param bufferStart file position of the first byte of the buffer
+     * @param offset file position of the first item
+     * @param length length of the sequence, -1 if undefined
+     * @param endianess byte order indicator; <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     * @param metaGroupLength length of the meta group of the file
+     * @param lazyValues whether item values are decoded on first access
+     */
+    FileDicomDeferredSequence(DICOMFile fileInfo, ByteBuffer buffer, long bufferStart, long offset, int length,
+            boolean endianess, int metaGroupLength, boolean lazyValues) {
+        this.fileInfo = fileInfo;
+        this.buffer = buffer;
+        this.bufferStart = bufferStart;
+        this.offset = offset;
+        this.length = length;
+        this.endianess = endianess;
+        this.metaGroupLength = metaGroupLength;
+        this.lazyValues = lazyValues;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Parses the items exactly as the parser would have when reading the
+     * header. Sequences nested in the items are deferred again.
+     *
+     * @return the parsed sequence
+     *
+     * @throws IOException if the items lie outside of the buffer
+     */
+    FileDicomSQ decode() throws IOException {
+        final DICOMFileInputStream reader = new DICOMFileInputStream(fileInfo);
+        reader.setLazyValues(lazyValues);
+        reader.setLazySequences(true);
+        reader.setPrintProblems(false);
+        try {
+            return reader.readDeferredSequence(buffer.duplicate(), bufferStart, offset, length, endianess,
+                    metaGroupLength);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Items of the sequence at " + offset + " lie outside of the " + buffer.limit()
+                    + " bytes of the header", e);
+        }
+    }
+}
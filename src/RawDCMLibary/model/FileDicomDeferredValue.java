@@ -0,0 +1,155 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.model.FileDicomTagInfo.NumType;
+import RawDCMLibary.model.FileDicomTagInfo.StringType;
+import RawDCMLibary.model.FileDicomTagInfo.VR;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The location of a tag value that has not been decoded yet. When lazy values
+ * are enabled the parser hands one of these to the tag table instead of the
+ * decoded value; the FileDicomTag decodes it from the retained header buffer
+ * the first time the value is asked for.
+ *
+ * @see FileDicomTag
+ * @see DICOMFileInputStream#setLazyValues(boolean)
+ */
+public final class FileDicomDeferredValue {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The buffer the header was parsed from. It is never repositioned, every
+     * decode works on a duplicate.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Offset of the first value byte in the buffer.
+     */
+    private final int offset;
+
+    /**
+     * Length of the value in bytes, as given in the file.
+     */
+    private final int length;
+
+    /**
+     * Value representation the value was encoded with.
+     */
+    private final VR vr;
+
+    /**
+     * Value multiplicity used to decide between a single value and an array.
+     */
+    private final int vm;
+
+    /**
+     * Byte order of the value, <code>true</code> for big endian.
+     */
+    private final boolean endianess;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Records where a tag value can be found.
+     *
+     * @param buffer the buffer the header is parsed from
+     * @param offset offset of the first value byte in the buffer
+     * @param length length of the value in bytes
+     * @param vr value representation the value was encoded with
+     * @param vm value multiplicity of the tag
+     * @param endianess byte order indicator; <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     */
+    public FileDicomDeferredValue(ByteBuffer buffer, int offset, int length, VR vr, int vm, boolean endianess) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.vr = vr;
+        this.vm = vm;
+        this.endianess = endianess;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns whether a value with the given value representation can be
+     * decoded later on.
+     *
+     * @param vr value representation of the tag
+     *
+     * @return <code>true</code> for strings, dates, numbers and binary data
+     */
+    public static boolean isDeferrable(VR vr) {
+        if (vr == VR.OB || vr == VR.OW || vr == VR.UN) {
+            return true;
+        }
+        return vr.getType() == StringType.STRING || vr.getType() == StringType.DATE || vr.getType() instanceof NumType;
+    }
+
+    /**
+     * Returns the length of the value in bytes.
+     *
+     * @return the value length as given in the file
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Decodes the value exactly as the parser would have when reading the
+     * header.
+     *
+     * @return the decoded value
+     *
+     * @throws IOException if the value lies outside of the buffer
+     */
+    public Object decode() throws IOException {
+        try {
+            return decodeValue();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Value of " + length + " bytes at " + offset + " lies outside of the "
+                    + buffer.limit() + " bytes of the header", e);
+        }
+    }
+
+    /**
+     * Decodes the value, reading past the buffer throws as the buffer does.
+     *
+     * @return the decoded value
+     *
+     * @throws IOException if the reader fails
+     */
+    private Object decodeValue() throws IOException {
+        final FileDicomBase reader = new FileDicomBase();
+        reader.setTagBuffer(buffer.duplicate());
+        reader.seek(offset);
+
+        if (vr.getType() == StringType.STRING || vr.getType() == StringType.DATE) {
+            return reader.getString(length);
+        }
+
+        switch (vr) {
+            case OB:
+            case OW:
+                return reader.getByte(vm, length, endianess);
+            case UN:
+                return reader.readUnknownData(length);
+        }
+
+        if (vr.getType() instanceof NumType) {
+            switch ((NumType) vr.getType()) {
+                case SHORT:
+                    return reader.getShort(vm, length, endianess);
+                case LONG:
+                    return reader.getInteger(vm, length, endianess);
+                case FLOAT:
+                    return reader.getFloat(vm, length, endianess);
+                case DOUBLE:
+                    return reader.getDouble(vm, length, endianess);
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,180 @@
+package RawDCMLibary.model;
+
+/**
+ * Where the fragments of encapsulated pixel data lie in the file and which
+ * fragments make up each frame. The index is built when the header is read,
+ * from the item tags of the Pixel Data element; frames are assigned to
+ * fragments with the Extended Offset Table (7FE0,0001) when the file has one,
+ * else with the Basic Offset Table. With the index any frame can be read with
+ * one positioned read, without looking at the fragments before it.
+ *
+ * @see DICOMFileInputStream#getFragmentIndex()
+ */
+public final class FileDicomFragmentIndex {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * File position of the first value byte of each fragment.
+     */
+    private final long[] fragmentOffsets;
+
+    /**
+     * Value length of each fragment.
+     */
+    private final int[] fragmentLengths;
+
+    /**
+     * Number of fragments, not counting the Basic Offset Table.
+     */
+    private final int numberOfFragments;
+
+    /**
+     * Index of the first fragment of each frame, followed by the number of
+     * fragments; <code>null</code> if the fragments could not be assigned to
+     * frames.
+     */
+    private final int[] frameFragments;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates the index.
+     *
+     * @param fragmentOffsets file position of the first value byte of each
+     * fragment, the array may be longer than the number of fragments
+     * @param fragmentLengths value length of each fragment
+     * @param numberOfFragments number of fragments
+     * @param frameFragments index of the first fragment of each frame,
+     * followed by <code>numberOfFragments</code>, or <code>null</code> if
+     * frames are unknown
+     */
+    FileDicomFragmentIndex(long[] fragmentOffsets, int[] fragmentLengths, int numberOfFragments,
+            int[] frameFragments) {
+        this.fragmentOffsets = fragmentOffsets;
+        this.fragmentLengths = fragmentLengths;
+        this.numberOfFragments = numberOfFragments;
+        this.frameFragments = frameFragments;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the number of fragments.
+     *
+     * @return the number of fragments, not counting the Basic Offset Table
+     */
+    public int getNumberOfFragments() {
+        return numberOfFragments;
+    }
+
+    /**
+     * Returns where the value of a fragment starts.
+     *
+     * @param fragment zero based fragment number
+     *
+     * @return file position of the first byte of the fragment value
+     */
+    public long getFragmentOffset(int fragment) {
+        checkFragment(fragment);
+        return fragmentOffsets[fragment];
+    }
+
+    /**
+     * Returns the length of a fragment.
+     *
+     * @param fragment zero based fragment number
+     *
+     * @return value length of the fragment in bytes
+     */
+    public int getFragmentLength(int fragment) {
+        checkFragment(fragment);
+        return fragmentLengths[fragment];
+    }
+
+    /**
+     * Returns whether the fragments could be assigned to frames.
+     *
+     * @return <code>true</code> if frames can be read through this index
+     */
+    public boolean hasFrames() {
+        return frameFragments != null;
+    }
+
+    /**
+     * Returns the number of frames.
+     *
+     * @return the number of frames, 0 if the fragments could not be assigned
+     * to frames
+     */
+    public int getNumberOfFrames() {
+        return frameFragments == null ? 0 : frameFragments.length - 1;
+    }
+
+    /**
+     * Returns the first fragment of a frame.
+     *
+     * @param frame zero based frame number
+     *
+     * @return the fragment number
+     */
+    public int getFirstFragment(int frame) {
+        checkFrame(frame);
+        return frameFragments[frame];
+    }
+
+    /**
+     * Returns the number of fragments of a frame.
+     *
+     * @param frame zero based frame number
+     *
+     * @return the number of fragments, at least one
+     */
+    public int getFragmentCount(int frame) {
+        checkFrame(frame);
+        return frameFragments[frame + 1] - frameFragments[frame];
+    }
+
+    /**
+     * Returns the compressed length of a frame, the sum of the lengths of its
+     * fragments.
+     *
+     * @param frame zero based frame number
+     *
+     * @return the length in bytes
+     */
+    public long getFrameLength(int frame) {
+        checkFrame(frame);
+        long length = 0;
+        for (int i = frameFragments[frame]; i < frameFragments[frame + 1]; i++) {
+            length += fragmentLengths[i];
+        }
+        return length;
+    }
+
+    /**
+     * Throws an IndexOutOfBoundsException for a fragment number outside of
+     * the index.
+     *
+     * @param fragment zero based fragment number
+     */
+    private void checkFragment(int fragment) {
+        if (fragment < 0 || fragment >= numberOfFragments) {
+            throw new IndexOutOfBoundsException("Fragment " + fragment + " of " + numberOfFragments);
+        }
+    }
+
+    /**
+     * Throws an IndexOutOfBoundsException for a frame number outside of the
+     * index, or if the index has no frames.
+     *
+     * @param frame zero based frame number
+     */
+    private void checkFrame(int frame) {
+        if (frame < 0 || frame >= getNumberOfFrames()) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + getNumberOfFrames());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return numberOfFragments + " fragments, " + getNumberOfFrames() + " frames";
+    }
+}
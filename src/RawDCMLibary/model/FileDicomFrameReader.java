@@ -0,0 +1,263 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads single frames, or ranges of frames, of a multi-frame object. Where
+ * the frames lie is worked out once, when the reader is created; each read is
+ * then a positioned read of the file, which moves no file pointer, so several
+ * threads may read different frames of the same reader at the same time.
+ * Encapsulated frames are found with the {@link FileDicomFragmentIndex} and
+ * decoded with the decoder of the transfer syntax.
+ *
+ * @see DICOMFileInputStream#openFrameReader()
+ */
+public final class FileDicomFrameReader implements Closeable {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The object the frames belong to, handed to the decoder.
+     */
+    private final DICOMFile fileInfo;
+
+    /**
+     * The file, <code>null</code> when the object is in memory.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The whole object when it is in memory or its data set was deflated,
+     * indexed by file position; <code>null</code> when read from the file.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * Byte order of the pixel data.
+     */
+    private final ByteOrder order;
+
+    /**
+     * Data type of the pixels.
+     */
+    private final int dataType;
+
+    /**
+     * File position of the first pixel of native pixel data.
+     */
+    private final long imageOffset;
+
+    /**
+     * Number of pixels of a frame.
+     */
+    private final int frameLength;
+
+    /**
+     * Number of bytes of a frame of native pixel data.
+     */
+    private final long frameBytes;
+
+    /**
+     * Number of frames.
+     */
+    private final int numberOfFrames;
+
+    /**
+     * The fragments of encapsulated pixel data, <code>null</code> for native
+     * pixel data.
+     */
+    private final FileDicomFragmentIndex fragments;
+
+    /**
+     * Decoder of encapsulated frames.
+     */
+    private final PixelDecoder decoder;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates a reader.
+     *
+     * @param fileInfo the object the frames belong to
+     * @param channel the file, or <code>null</code>
+     * @param data the object in memory indexed by file position, or
+     * <code>null</code>
+     * @param imageOffset file position of the first pixel of native pixel data
+     * @param numberOfFrames number of frames
+     * @param fragments the fragment index for encapsulated pixel data, else
+     * <code>null</code>
+     * @param decoder the decoder for encapsulated pixel data, else
+     * <code>null</code>
+     */
+    FileDicomFrameReader(DICOMFile fileInfo, FileChannel channel, ByteBuffer data, long imageOffset,
+            int numberOfFrames, FileDicomFragmentIndex fragments, PixelDecoder decoder) {
+        this.fileInfo = fileInfo;
+        this.channel = channel;
+        this.data = data;
+        this.order = fileInfo.isEndianess() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.dataType = fileInfo.getDataType();
+        this.imageOffset = imageOffset;
+        this.frameLength = fileInfo.getExtents()[0] * fileInfo.getExtents()[1];
+        this.frameBytes = (long) frameLength * fileInfo.bytesPerPixel;
+        this.numberOfFrames = numberOfFrames;
+        this.fragments = fragments;
+        this.decoder = decoder;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the number of frames.
+     *
+     * @return the number of frames
+     */
+    public int getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Returns the number of pixels of a frame.
+     *
+     * @return columns times rows
+     */
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Reads one frame.
+     *
+     * @param frame zero based frame number
+     *
+     * @return the pixels of the frame, in the width they are stored with
+     *
+     * @throws IOException if the frame cannot be read
+     */
+    public PixelBuffer readFrame(int frame) throws IOException {
+        final PixelBuffer buffer = PixelBuffer.allocate(dataType, frameLength);
+        readFrames(frame, frame + 1, buffer);
+        return buffer;
+    }
+
+    /**
+     * Reads consecutive frames into a buffer.
+     *
+     * @param from zero based number of the first frame
+     * @param to number of the frame after the last one
+     * @param buffer buffer of the data type of the object, at least
+     * <code>(to - from)</code> frames long; the frames are stored from its
+     * start
+     *
+     * @throws IOException if the frames cannot be read
+     */
+    public void readFrames(int from, int to, PixelBuffer buffer) throws IOException {
+        if (from < 0 || to > numberOfFrames || from > to) {
+            throw new IOException("Frames " + from + " to " + to + " were asked for, the pixel data holds "
+                    + numberOfFrames + " frames");
+        } else if (buffer.getDataType() != dataType || buffer.getLength() < (long) (to - from) * frameLength) {
+            throw new IOException(buffer + " cannot hold " + (to - from) + " frames of data type " + dataType);
+        }
+
+        if (fragments != null) {
+            for (int frame = from; frame < to; frame++) {
+                decodeFrame(frame, buffer, (frame - from) * frameLength);
+            }
+            return;
+        }
+
+        final int chunk = (int) Math.max(1, FileDicomBase.WINDOW_SIZE / Math.max(frameBytes, 1));
+        for (int frame = from; frame < to; frame += chunk) {
+            final int count = Math.min(chunk, to - frame);
+            final ByteBuffer pixels = read(imageOffset + frame * frameBytes, (int) (count * frameBytes));
+            buffer.put(pixels, (frame - from) * frameLength, count * frameLength);
+        }
+    }
+
+    /**
+     * Decodes an encapsulated frame into the buffer.
+     *
+     * @param frame zero based frame number
+     * @param buffer the pixels
+     * @param offset index of the first pixel of the frame in the buffer
+     *
+     * @throws IOException if the frame cannot be read or decoded
+     */
+    private void decodeFrame(int frame, PixelBuffer buffer, int offset) throws IOException {
+        final int first = fragments.getFirstFragment(frame);
+        final int count = fragments.getFragmentCount(frame);
+        final ByteBuffer compressed;
+
+        if (count == 1) {
+            compressed = read(fragments.getFragmentOffset(first), fragments.getFragmentLength(first));
+        } else {
+            compressed = ByteBuffer.allocate((int) fragments.getFrameLength(frame));
+            for (int i = first; i < first + count; i++) {
+                compressed.put(read(fragments.getFragmentOffset(i), fragments.getFragmentLength(i)));
+            }
+            compressed.flip();
+        }
+
+        final boolean intPixels = buffer instanceof PixelBuffer.IntPixels;
+        final int[] pixels = intPixels ? ((PixelBuffer.IntPixels) buffer).getArray() : new int[frameLength];
+        final int start = intPixels ? offset : 0;
+        if (decoder.isFrameParallel()) {
+            decoder.decode(compressed.asReadOnlyBuffer(), fileInfo, pixels, start);
+        } else {
+            synchronized (decoder) {
+                decoder.decode(compressed.asReadOnlyBuffer(), fileInfo, pixels, start);
+            }
+        }
+        if (!intPixels) {
+            for (int i = 0; i < frameLength; i++) {
+                buffer.setInt(offset + i, pixels[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a range of the object with a positioned read, or slices it from
+     * the object in memory.
+     *
+     * @param position file position of the first byte
+     * @param length number of bytes
+     *
+     * @return the bytes, in the byte order of the pixel data
+     *
+     * @throws IOException if the range is not in the object
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (data != null) {
+            if (position < 0 || position + length > data.limit()) {
+                throw new EOFException("End bound exceeds EOF");
+            }
+            final ByteBuffer range = data.duplicate();
+            range.limit((int) position + length);
+            range.position((int) position);
+            return range.slice().order(order);
+        }
+
+        final ByteBuffer range = ByteBuffer.allocate(length);
+        while (range.hasRemaining()) {
+            if (channel.read(range, position + range.position()) < 0) {
+                throw new EOFException("End bound exceeds EOF");
+            }
+        }
+        range.flip();
+        return range.order(order);
+    }
+
+    /**
+     * Closes the file. Frames cannot be read afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
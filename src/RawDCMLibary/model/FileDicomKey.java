@@ -1,10 +1,5 @@
 package RawDCMLibary.model;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
 /**
  * FileDicomKey goes along with FileDicomTag - it is the key into the hashtable
  * that corresponds to a tag. For most of the tags it is simply a String that is
@@ -17,6 +12,13 @@ import java.io.ObjectOutputStream;
  * the tags as unique. This is accomplished through this class and some code in
  * FileInfoDicom.getEntry(String).
  *
+ * <p>
+ * Internally the key is held as a single packed int,
+ * <code>(group &lt;&lt; 16) | element</code>, so that hashing and comparing
+ * keys on the parse path never touches a String. The 'group,element' String is
+ * only built when a caller asks for it. Wildcard keys store the group with its
+ * low byte cleared and are flagged as such.</p>
+ *
  * @author Neva Cherniavsky
  * @see FileDicomTag
  * @see FileInfoDicom
@@ -29,11 +31,28 @@ public class FileDicomKey {
      */
     private static final long serialVersionUID = -8327760986088567748L;
 
+    /**
+     * Mask selecting the bits of a packed tag that a wildcard group
+     * ('50xx', '60xx') still has to match.
+     */
+    private static final int WILDCARD_MASK = 0xFF00FFFF;
+
     //~ Instance fields ------------------------------------------------------------------------------------------------
     /**
-     * The dicom tag identifier in the format 'group,element'. 'x' is allowed in
-     * the group number for wildcards in the dicom dictionary. E.g., '0002,0010'
-     * or '50xx,00E1'.
+     * The dicom tag identifier packed as <code>(group &lt;&lt; 16) |
+     * element</code>. For wildcard keys the low byte of the group is zero.
+     */
+    private int tag;
+
+    /**
+     * Whether the low byte of the group is a wildcard, e.g. '50xx,00E1'.
+     */
+    private boolean wildcard;
+
+    /**
+     * The dicom tag identifier in the format 'group,element', built on first
+     * request. 'x' is allowed in the group number for wildcards in the dicom
+     * dictionary. E.g., '0002,0010' or '50xx,00E1'.
      */
     private String key;
 
@@ -50,8 +69,7 @@ public class FileDicomKey {
     public FileDicomKey(String keyStr) {
 
         if (verify(keyStr)) {
-            key = keyStr;
-            //System.out.println("Created");
+            parse(keyStr);
         } else {
             throw new IllegalArgumentException(keyStr + " cannot represent a DICOM key");
         }
@@ -68,19 +86,30 @@ public class FileDicomKey {
      * and element numbers to hexidecimal strings.
      */
     public FileDicomKey(int group, int element) throws NumberFormatException {
-        String gr = Integer.toHexString(group).toUpperCase();
-        String el = Integer.toHexString(element).toUpperCase();
-
-        while (gr.length() < 4) {
-            gr = "0" + gr;
-        }
+        this.tag = ((group & 0xFFFF) << 16) | (element & 0xFFFF);
+    }
 
-        while (el.length() < 4) {
-            el = "0" + el;
-        }
+    /**
+     * Creates a Key directly from a packed tag, <code>(group &lt;&lt; 16) |
+     * element</code>, as read from the file.
+     *
+     * @param tag Packed dicom tag.
+     */
+    public FileDicomKey(int tag) {
+        this.tag = tag;
+    }
 
-        key = gr + "," + el;
-        //System.out.println("Created");
+    /**
+     * Creates a Key with the given group and element numbers, optionally
+     * marking the low byte of the group as a wildcard.
+     *
+     * @param group Dicom tag group number.
+     * @param element Dicom tag element number.
+     * @param wildcard Whether the low byte of the group is a wildcard.
+     */
+    private FileDicomKey(int group, int element, boolean wildcard) {
+        this(wildcard ? (group & 0xFF00) : group, element);
+        this.wildcard = wildcard;
     }
 
     //~ Methods --------------------------------------------------------------------------------------------------------
@@ -156,32 +185,19 @@ public class FileDicomKey {
         }
 
         if ((obj != null) && (obj instanceof FileDicomKey)) {
-            char x, y;
             FileDicomKey anotherKey = (FileDicomKey) obj;
 
-            if (anotherKey.getKey().equals(key)) {
-                return true;
-            } else if ((key.indexOf('x') != -1) || (anotherKey.getKey().indexOf('x') != -1)) {
-
-                for (int i = 0; i < key.length(); i++) {
-                    x = key.charAt(i);
-                    y = anotherKey.getKey().charAt(i);
-
-                    if ((x != 'x') && (y != 'x')) {
-
-                        if (x != y) {
-                            return false;
-                        }
-                    }
-                }
-
+            if ((anotherKey.tag == tag) && (anotherKey.wildcard == wildcard)) {
                 return true;
+            } else if (wildcard || anotherKey.wildcard) {
+                return (anotherKey.tag & WILDCARD_MASK) == (tag & WILDCARD_MASK);
             }
         }
 
         if ((obj != null) && (obj instanceof String)) {
             char x, y;
             String anotherKey = (String) obj;
+            String key = getKey();
 
             if (anotherKey.equalsIgnoreCase(key)) {
                 return true;
@@ -206,26 +222,13 @@ public class FileDicomKey {
         return false;
     }
 
-    /**
-     * Prepares this class for cleanup.
-     */
-    public void finalize() {
-        key = null;
-
-        try {
-            super.finalize();
-        } catch (Throwable er) {
-            // cleaning up.. ignore errors
-        }
-    }
-
     /**
      * returns only the element portion of the DICOM key.
      *
      * @return The Element portion of the DICOM key.
      */
     public final String getElement() {
-        return key.substring(key.indexOf(',') + 1);
+        return toHex(tag & 0xFFFF);
     }
 
     /**
@@ -241,7 +244,7 @@ public class FileDicomKey {
      * @see #getGroupNumber()
      */
     public final int getElementNumber() {
-        return Integer.parseInt(getElement(), 0x10);
+        return tag & 0xFFFF;
     }
 
     /**
@@ -250,7 +253,10 @@ public class FileDicomKey {
      * @return The group portion of the DICOM key.
      */
     public final String getGroup() {
-        return key.substring(0, key.indexOf(','));
+        if (wildcard) {
+            return toHex(tag >>> 16).substring(0, 2) + "xx";
+        }
+        return toHex(tag >>> 16);
     }
 
     /**
@@ -264,7 +270,43 @@ public class FileDicomKey {
      * (eg., "60xx").
      */
     public final int getGroupNumber() throws NumberFormatException {
-        return Integer.parseInt(getGroup(), 0x10);
+        if (wildcard) {
+            throw new NumberFormatException("For input string: \"" + getGroup() + "\"");
+        }
+        return tag >>> 16;
+    }
+
+    /**
+     * Returns the key packed as <code>(group &lt;&lt; 16) | element</code>.
+     * For wildcard keys the low byte of the group is zero.
+     *
+     * @return The packed dicom tag.
+     */
+    public final int getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns whether the low byte of the group is a wildcard ('50xx',
+     * '60xx').
+     *
+     * @return <code>true</code> for a wildcard dictionary key.
+     */
+    public final boolean isWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * Returns the wildcard form of this key, i.e. '60xx,0010' for '6002,0010'.
+     * The dicom dictionary stores repeating groups this way.
+     *
+     * @return A new wildcard key for the same element.
+     */
+    public final FileDicomKey toWildcard() {
+        if (wildcard) {
+            return this;
+        }
+        return new FileDicomKey(tag >>> 16, tag & 0xFFFF, true);
     }
 
     /**
@@ -273,6 +315,9 @@ public class FileDicomKey {
      * @return The unique identifier.
      */
     public final String getKey() {
+        if (key == null) {
+            key = getGroup() + "," + getElement();
+        }
         return key;
     }
 
@@ -282,7 +327,7 @@ public class FileDicomKey {
      * @return The hash code.
      */
     public final int hashCode() {
-        return key.hashCode();
+        return tag;
     }
 
     /**
@@ -296,7 +341,7 @@ public class FileDicomKey {
     public final void setKey(String key) {
 
         if (verify(key)) {
-            this.key = key;
+            parse(key);
         } else {
             throw new IllegalArgumentException(key + " cannot represent a DICOM key");
         }
@@ -308,37 +353,41 @@ public class FileDicomKey {
      * @return The unique identifier.
      */
     public String toString() {
-        return key;
+        return getKey();
     }
 
     public Object clone() {
+        final FileDicomKey clonedKey = new FileDicomKey(tag);
+        clonedKey.wildcard = wildcard;
+        clonedKey.key = key;
+        return clonedKey;
+    }
 
-        try {
-            ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-            ObjectOutputStream objOut = new ObjectOutputStream(byteOut);
-            objOut.writeObject(this);
-
-            ByteArrayInputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray());
-            ObjectInputStream objIn = new ObjectInputStream(byteIn);
-
-            Object clonedObj = objIn.readObject();
-
-            objIn.close();
-            objOut.close();
-            byteOut.close();
-            byteIn.close();
-
-            return clonedObj;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error cloning " + this.getClass().getName() + " :\n" + e);
+    /**
+     * Fills in the packed tag from a verified 'group,element' String.
+     *
+     * @param keyStr a String which is in the format 'group,element' with 'xx'
+     * possibly replacing the last 2 digits of the group id
+     */
+    private void parse(String keyStr) {
+        final int commaplace = keyStr.indexOf(',');
+        final String groupString = keyStr.substring(0, commaplace);
 
-            for (int i = 0; i < e.getStackTrace().length; i++) {
-                System.err.println("\t" + e.getStackTrace()[i] + "\n");
-            }
+        wildcard = groupString.indexOf('x') != -1;
+        tag = (Integer.parseInt(groupString.replace('x', '0'), 0x10) << 16)
+                | Integer.parseInt(keyStr.substring(commaplace + 1), 0x10);
+        key = null;
+    }
 
-            return null;
-        }
+    /**
+     * Formats a group or element number as four upper case hexadecimal digits.
+     *
+     * @param value the group or element number
+     *
+     * @return the zero padded hexadecimal String
+     */
+    private static String toHex(int value) {
+        final String hex = Integer.toHexString(value).toUpperCase();
+        return "0000".substring(hex.length()) + hex;
     }
 }
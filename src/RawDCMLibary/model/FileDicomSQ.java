@@ -2,6 +2,8 @@ package RawDCMLibary.model;
 
 
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
@@ -45,13 +47,26 @@ public class FileDicomSQ {
     /** Whether the sequence should be written using an unknown length */
     private boolean writeAsUnknownLength = false;
 
+    /** Where the items are when they have not been parsed yet, <code>null</code> once they are. */
+    private volatile FileDicomDeferredSequence deferredItems = null;
+
     //~ Constructors ---------------------------------------------------------------------------------------------------
 
     /**
      * Creates a new DicomSQ object with initial length.
      */
     public FileDicomSQ() {
-        sequence = new Vector<FileDicomSQItem>(5, 2);
+        sequence = new Vector<FileDicomSQItem>(5); // grows by doubling, a fixed increment is quadratic for large sequences
+    }
+
+    /**
+     * Creates a sequence whose items are parsed the first time it is accessed.
+     *
+     * @param  deferredItems  where the items are
+     */
+    FileDicomSQ(FileDicomDeferredSequence deferredItems) {
+        this();
+        this.deferredItems = deferredItems;
     }
 
     //~ Methods --------------------------------------------------------------------------------------------------------
@@ -62,6 +77,7 @@ public class FileDicomSQ {
      * @param  item  item to add
      */
     public final void addItem(FileDicomSQItem item) {
+        readDeferredItems();
         sequence.addElement(item);
     }
 
@@ -89,6 +105,7 @@ public class FileDicomSQ {
      * @return  the size of the data held in this sequence in number of bytes.
      */
     public int getDataLength() {
+        readDeferredItems();
         int datasize = 0;
         int elementsize = 0;
         
@@ -118,6 +135,7 @@ public class FileDicomSQ {
      * @return  The specified item from the sequence.
      */
     public final FileDicomSQItem getItem(int index) {
+        readDeferredItems();
         return sequence.elementAt(index);
     }
 
@@ -139,6 +157,7 @@ public class FileDicomSQ {
      * @return  A list that contains the human readable form of the sequence data
      */
     public Vector<String> getSequenceDisplay() {
+        readDeferredItems();
 
         Vector<String> display = new Vector<String>();
 
@@ -159,6 +178,7 @@ public class FileDicomSQ {
      * @return  the sequence length
      */
     public final int getSequenceLength() {
+        readDeferredItems();
         return sequence.size();
     }
 
@@ -178,6 +198,7 @@ public class FileDicomSQ {
     }
 
 	public Vector<FileDicomSQItem> getSequence() {
+        readDeferredItems();
 		return sequence;
 	}
 
@@ -195,6 +216,43 @@ public class FileDicomSQ {
     public void setWriteAsUnknownLength(boolean writeAsUnknownLength) {
         this.writeAsUnknownLength = writeAsUnknownLength;
     }
+
+    /**
+     * Returns whether the items have not been parsed yet.
+     *
+     * @return  <code>true</code> if the items are parsed on the next access
+     */
+    public final boolean hasDeferredItems() {
+        return deferredItems != null;
+    }
+
+    /**
+     * Parses the items if that was deferred when the header was read. If the items cannot be parsed they stay
+     * deferred, so the sequence is not handed out as if it were empty.
+     *
+     * @throws UncheckedIOException if the items cannot be parsed, e.g. because they lie outside of the header read
+     */
+    private void readDeferredItems() {
+        if (deferredItems == null) {
+            return;
+        }
+
+        synchronized (this) {
+            final FileDicomDeferredSequence deferred = deferredItems;
+            if (deferred == null) {
+                return;
+            }
+
+            final FileDicomSQ decoded;
+            try {
+                decoded = deferred.decode();
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Unable to read the items of a sequence", e);
+            }
+            sequence.addAll(decoded.getSequence());
+            deferredItems = null;
+        }
+    }
     
     
 }
@@ -1,5 +1,9 @@
 package RawDCMLibary.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.util.Objects;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import RawDCMLibary.model.FileDicomBase;
@@ -45,9 +49,19 @@ public class FileDicomTag {
     /** Pointer to more information about this tag, read in and contained within the dicom dictionary. */
     private final FileDicomTagInfo tagInfo;
 
-    /** Actual value of the tag (may be an array of elements). */
+    /**
+     * Actual value of the tag (may be an array of elements). Binary and multi-valued numeric tags are held as
+     * primitive arrays (<code>byte[]</code>, <code>short[]</code>, <code>int[]</code>, <code>float[]</code> or
+     * <code>double[]</code>); the boxed form is only built when requested through getValue().
+     */
     private Object value = null;
 
+    /**
+     * Where the value can be read from when it has not been decoded yet, <code>null</code> once the value has been
+     * decoded or set.
+     */
+    private volatile FileDicomDeferredValue deferredValue = null;
+
     /**
      * Value representation for this tag, if the tags in this dicom file have explicit VRs. If the dicom tags have
      * implicit VRs, then the DicomDictionary VR is used.
@@ -101,8 +115,8 @@ public class FileDicomTag {
             final FileDicomTag tag = (FileDicomTag) obj;
 
             if ( (this.group == tag.group) && (this.element == tag.element) && this.tagInfo.equals(tag.getInfo())) {
-                final Object thisVal = this.getValue(false);
-                final Object otherVal = tag.getValue(false);
+                final Object thisVal = this.getRawValue();
+                final Object otherVal = tag.getRawValue();
 
                 // allow for both values to be null
                 if ( (thisVal == null) && (otherVal == null)) {
@@ -115,14 +129,14 @@ public class FileDicomTag {
                 if (this.length == tag.length) {
                     
                     
-                    if (thisVal.equals(otherVal)) {
+                    if (thisVal.equals(otherVal) || Objects.deepEquals(thisVal, otherVal)) {
                         return true;
                     } else {
 
                         // might be an array of byte or short objects or something... we need to check
                         if (thisVal.getClass().isArray() && otherVal.getClass().isArray()) {
-                            final Object[] thisArray = (Object[]) thisVal;
-                            final Object[] otherArray = (Object[]) otherVal;
+                            final Object[] thisArray = (Object[]) toBoxedValue(thisVal);
+                            final Object[] otherArray = (Object[]) toBoxedValue(otherVal);
 
                             if (thisArray.length != otherArray.length) {
                                 return false;
@@ -146,22 +160,6 @@ public class FileDicomTag {
         return false;
     }
 
-    /**
-     * Prepares this class for cleanup.
-     */
-    public void finalize() {
-        value = null;
-        // if(tagInfo !0= null) {
-        // tagInfo.finalize();
-        // tagInfo = null;
-        // }
-        try {
-            super.finalize();
-        } catch (final Throwable er) {
-            // cleaning up.. ignore errors
-        }
-    }
-
     /**
      * Calculates the number of bytes that the data (the object value) will take to be stored. This method returns the
      * number of data items times the sizeof the data type.  This may be different from the previously stored length of
@@ -170,8 +168,13 @@ public class FileDicomTag {
      * @return size of the value in bytes
      */
     public final int getDataLength() {
+        decodeDeferredValue();
         int dataItems = 0;
 
+        if (isPrimitiveArray(value)) {
+            return Array.getLength(value) * sizeof();
+        }
+
         Object[] obj = getValueList();
         for(int i=0; i<obj.length; i++) {
             if(obj[i] != null) {
@@ -207,6 +210,16 @@ public class FileDicomTag {
         return group;
     }
 
+    /**
+     * Returns whether the value of this tag has been located but not decoded yet. Such a value is never a sequence.
+     * The accessors that decode it throw an UncheckedIOException if it cannot be decoded.
+     * 
+     * @return <code>true</code> if the value will be decoded on first access
+     */
+    public final boolean hasDeferredValue() {
+        return deferredValue != null;
+    }
+
     /**
      * Return a reference to information about this tag in the dicom dictionary.
      * 
@@ -260,6 +273,7 @@ public class FileDicomTag {
      * @return DOCUMENT ME!
      */
     public int getNumberOfValues() {
+        decodeDeferredValue();
         int quantity = 0;
 
         try {
@@ -269,6 +283,8 @@ public class FileDicomTag {
                 // split by '\' separator chars--trying not to use java 1.4 req meth
                 final StringTokenizer backslash = new StringTokenizer((String) value, "\\");
                 quantity = backslash.countTokens();
+            } else if (isPrimitiveArray(value)) {
+                quantity = Array.getLength(value);
             } else {
             	Object[] obj = getValueList();
             	for(int i=0; i<obj.length; i++) {
@@ -315,6 +331,7 @@ public class FileDicomTag {
      * @return the value
      */
     public Object getValue(final boolean parse) {
+        decodeDeferredValue();
 
         final VR vr = getValueRepresentation();
         final String keyword = tagInfo.getKeyword();
@@ -345,10 +362,11 @@ public class FileDicomTag {
                 returnValue = sq.toString();
                 break;
             default:
-                if (value instanceof Object[]) {
+                final Object boxedValue = toBoxedValue(value);
+                if (boxedValue instanceof Object[]) {
                     StringBuilder bu = new StringBuilder();
-                    for(int i=0; i<((Object[])value).length; i++) {
-                        bu.append(((Object[])value)[i].toString()).append("\\"); //dicom uses slash to separate elements
+                    for(int i=0; i<((Object[])boxedValue).length; i++) {
+                        bu.append(((Object[])boxedValue)[i].toString()).append("\\"); //dicom uses slash to separate elements
                     }
                     returnValue = bu.toString().trim();
                 } else if (keyword.equals("PatientSex")) {
@@ -363,9 +381,32 @@ public class FileDicomTag {
             return returnValue;
         } 
 
+        return toBoxedValue(value);
+    }
+
+    /**
+     * Returns the value as it is held, without building the boxed view getValue(false) returns for binary and
+     * multi-valued numeric tags: a <code>byte[]</code>, <code>short[]</code>, <code>int[]</code>,
+     * <code>float[]</code> or <code>double[]</code> is returned as is, not copied, and must not be modified.
+     * 
+     * @return the value, <code>null</code> if the tag has none
+     */
+    public Object getRawValue() {
+        decodeDeferredValue();
+
         return value;
     }
 
+    /**
+     * Returns whether the value of this tag is a sequence. A value that has not been decoded yet is never a
+     * sequence, so it is not decoded.
+     * 
+     * @return <code>true</code> if the value is a FileDicomSQ
+     */
+    public final boolean isSequence() {
+        return deferredValue == null && value instanceof FileDicomSQ;
+    }
+
 	/**
      * Returns the value(s) as an array so that each tag with a value multiplicity of more than 1 -- ie, TypeString
      * items separated by '\' -- is its own element in the array. This method will be so much simpler when (if) the tags
@@ -374,6 +415,7 @@ public class FileDicomTag {
      * @return DOCUMENT ME!
      */
     public Object[] getValueList() {
+        decodeDeferredValue();
         Object[] stuff = new Object[1];
 
         try {
@@ -381,6 +423,8 @@ public class FileDicomTag {
 
             if(value == null) {
             	stuff[0] = null;
+            } else if(isPrimitiveArray(value)) {
+                return (Object[]) toBoxedValue(value);
             } else if(value instanceof Object[]) {
                 return (Object[]) value;
             } else if(value instanceof FileDicomSQ) { 
@@ -435,6 +479,7 @@ public class FileDicomTag {
      * @return The hash code.
      */
     public final int hashCode() {
+        decodeDeferredValue();
 
         // TODO: this might not be a good hash code...
         int hash = tagInfo.hashCode() + group + element + length + value.hashCode();
@@ -488,6 +533,16 @@ public class FileDicomTag {
      * @param value the value to store
      */
     public void setValue(Object value) {
+        deferredValue = null;
+        storeValue(value);
+    }
+
+    /**
+     * Stores the value as described in setValue(Object), without dropping a value that has not been decoded yet.
+     * 
+     * @param value the value to store
+     */
+    private void storeValue(Object value) {
         final VR vr = getValueRepresentation();
         final String keyword = tagInfo.getKeyword();
         
@@ -496,6 +551,14 @@ public class FileDicomTag {
             return;
         }
 
+        if (value instanceof FileDicomDeferredValue) {
+            // decoded by decodeDeferredValue() the first time the value is asked for
+            this.value = null;
+            this.length = ((FileDicomDeferredValue) value).getLength();
+            this.deferredValue = (FileDicomDeferredValue) value;
+            return;
+        }
+
         final VR type = tagInfo.getType();
 
         String val;
@@ -519,7 +582,7 @@ public class FileDicomTag {
             case OW:
             case OB:
             case UN:
-                setValue(value, ((Object[])value).length);
+                setValue(value, Array.getLength(value));
                 return;
             default:
                 if (keyword.equals("PatientSex")) { // Patient Sex
@@ -536,6 +599,12 @@ public class FileDicomTag {
             }
             setValue(val, val.length());
         } else if (type.getType() instanceof NumType) {
+            if (isPrimitiveArray(value) && isNumTypeArray((NumType) type.getType(), value)) {
+                // already held in the tag's own type, keep the primitive array as-is
+                setValue(value, Array.getLength(value) * ((NumType) type.getType()).getNumBytes());
+                return;
+            }
+
             Object[] nAr = null;
             Number[] nArFinal = null;
             Number n = null;
@@ -671,6 +740,241 @@ public class FileDicomTag {
         this.value = value;
     }
 
+    /**
+     * Decodes a value that the parser only recorded the location of. The tag length read from the file is kept, as it
+     * would have been had the value been decoded during parsing. If the value cannot be decoded it stays deferred, so
+     * no accessor hands out a missing or stale value instead.
+     * 
+     * @throws UncheckedIOException if the value cannot be decoded, e.g. because it lies outside of the header read
+     */
+    private void decodeDeferredValue() {
+        if (deferredValue == null) {
+            return;
+        }
+
+        synchronized (this) {
+            final FileDicomDeferredValue deferred = deferredValue;
+            if (deferred == null) {
+                return;
+            }
+
+            final Object decoded;
+            try {
+                decoded = deferred.decode();
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Unable to decode the value of tag " + getKey(), e);
+            }
+            final int readLength = length;
+            storeValue(decoded);
+            length = readLength;
+            deferredValue = null;
+        }
+    }
+
+    /**
+     * Returns the value as a <code>byte[]</code>. The stored array is returned directly (not copied) when the tag
+     * already holds bytes, so callers must not modify it.
+     * 
+     * @return the bytes of this tag, or <code>null</code> if the value is not byte data
+     */
+    public byte[] getByteValues() {
+        decodeDeferredValue();
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        } else if (value instanceof Byte[]) {
+            final Byte[] boxed = (Byte[]) value;
+            final byte[] values = new byte[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                values[i] = boxed[i].byteValue();
+            }
+            return values;
+        } else if (value instanceof Byte) {
+            return new byte[] {((Byte) value).byteValue()};
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the value as a <code>short[]</code>. The stored array is returned directly (not copied) when the tag
+     * already holds shorts, so callers must not modify it.
+     * 
+     * @return the values of this tag, or <code>null</code> if the value is not short data
+     */
+    public short[] getShortValues() {
+        decodeDeferredValue();
+        if (value instanceof short[]) {
+            return (short[]) value;
+        } else if (value instanceof Short[]) {
+            final Short[] boxed = (Short[]) value;
+            final short[] values = new short[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                values[i] = boxed[i].shortValue();
+            }
+            return values;
+        } else if (value instanceof Short) {
+            return new short[] {((Short) value).shortValue()};
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the value as an <code>int[]</code>. The stored array is returned directly (not copied) when the tag
+     * already holds ints, so callers must not modify it.
+     * 
+     * @return the values of this tag, or <code>null</code> if the value is not integer data
+     */
+    public int[] getIntValues() {
+        decodeDeferredValue();
+        if (value instanceof int[]) {
+            return (int[]) value;
+        } else if (value instanceof Integer[]) {
+            final Integer[] boxed = (Integer[]) value;
+            final int[] values = new int[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                values[i] = boxed[i].intValue();
+            }
+            return values;
+        } else if (value instanceof Integer) {
+            return new int[] {((Integer) value).intValue()};
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the value as a <code>float[]</code>. The stored array is returned directly (not copied) when the tag
+     * already holds floats, so callers must not modify it.
+     * 
+     * @return the values of this tag, or <code>null</code> if the value is not float data
+     */
+    public float[] getFloatValues() {
+        decodeDeferredValue();
+        if (value instanceof float[]) {
+            return (float[]) value;
+        } else if (value instanceof Float[]) {
+            final Float[] boxed = (Float[]) value;
+            final float[] values = new float[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                values[i] = boxed[i].floatValue();
+            }
+            return values;
+        } else if (value instanceof Float) {
+            return new float[] {((Float) value).floatValue()};
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the value as a <code>double[]</code>. The stored array is returned directly (not copied) when the tag
+     * already holds doubles, so callers must not modify it.
+     * 
+     * @return the values of this tag, or <code>null</code> if the value is not double data
+     */
+    public double[] getDoubleValues() {
+        decodeDeferredValue();
+        if (value instanceof double[]) {
+            return (double[]) value;
+        } else if (value instanceof Double[]) {
+            final Double[] boxed = (Double[]) value;
+            final double[] values = new double[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                values[i] = boxed[i].doubleValue();
+            }
+            return values;
+        } else if (value instanceof Double) {
+            return new double[] {((Double) value).doubleValue()};
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether the value is held as an array of primitives.
+     * 
+     * @param value the stored value
+     * 
+     * @return <code>true</code> for <code>byte[]</code>, <code>short[]</code>, <code>int[]</code>,
+     *         <code>float[]</code> and <code>double[]</code> values
+     */
+    private static boolean isPrimitiveArray(final Object value) {
+        return (value != null) && value.getClass().isArray() && value.getClass().getComponentType().isPrimitive();
+    }
+
+    /**
+     * Returns whether a primitive array already has the element type that a numeric tag stores.
+     * 
+     * @param numType the numeric type of the tag
+     * @param value a primitive array
+     * 
+     * @return <code>true</code> if no conversion is needed
+     */
+    private static boolean isNumTypeArray(final NumType numType, final Object value) {
+        switch (numType) {
+            case SHORT:
+                return value instanceof short[];
+            case LONG:
+                return value instanceof int[];
+            case FLOAT:
+                return value instanceof float[];
+            case DOUBLE:
+                return value instanceof double[];
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Builds the boxed view (<code>Byte[]</code>, <code>Short[]</code>, ...) of a primitive array value, as legacy
+     * callers of getValue() and getValueList() expect. Any other value is returned unchanged.
+     * 
+     * @param value the stored value
+     * 
+     * @return the boxed array, or the value itself
+     */
+    private static Object toBoxedValue(final Object value) {
+        if (value instanceof byte[]) {
+            final byte[] values = (byte[]) value;
+            final Byte[] boxed = new Byte[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = Byte.valueOf(values[i]);
+            }
+            return boxed;
+        } else if (value instanceof short[]) {
+            final short[] values = (short[]) value;
+            final Short[] boxed = new Short[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = Short.valueOf(values[i]);
+            }
+            return boxed;
+        } else if (value instanceof int[]) {
+            final int[] values = (int[]) value;
+            final Integer[] boxed = new Integer[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = Integer.valueOf(values[i]);
+            }
+            return boxed;
+        } else if (value instanceof float[]) {
+            final float[] values = (float[]) value;
+            final Float[] boxed = new Float[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = Float.valueOf(values[i]);
+            }
+            return boxed;
+        } else if (value instanceof double[]) {
+            final double[] values = (double[]) value;
+            final Double[] boxed = new Double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = Double.valueOf(values[i]);
+            }
+            return boxed;
+        }
+
+        return value;
+    }
+
     /**
      * Sets the value representation (vr) of this tag. This method should only be used when a dicom's tag VRs are
      * explicit. Otherwise, the DicomDictionary VR should be used (implicit).
@@ -687,6 +991,7 @@ public class FileDicomTag {
      * @return DOCUMENT ME!
      */
     public int sizeof() {
+        decodeDeferredValue();
         final VR vr = tagInfo.getType();
         final DicomType type = vr.getType();
         
@@ -694,7 +999,7 @@ public class FileDicomTag {
             return ((NumType) type).getNumBytes();
         } else if(vr.equals(VR.AT)){
             return 4;
-        } else if(value instanceof Short[]){
+        } else if(value instanceof Short[] || value instanceof short[]){
             return 2;
         } else {
             return 1;
@@ -707,6 +1012,7 @@ public class FileDicomTag {
      * @return The tag in readable form
      */
     public String toString() {
+        decodeDeferredValue();
         String s = "";
         s = "Group: " + Integer.toString(this.group, 0x10) + " Element: " + Integer.toString(this.element, 0x10);
 
@@ -176,6 +176,12 @@ public class FileDicomTagInfo {
      */
     protected String version;
 
+    /**
+     * Whether this entry is held by the DicomDictionary and shared by all parsers, in which case it cannot be
+     * modified.
+     */
+    private volatile boolean shared;
+
     //~ Constructors ---------------------------------------------------------------------------------------------------
 
     /**
@@ -382,24 +388,60 @@ public class FileDicomTagInfo {
     }
 
     /**
-     * Sets the dicom tag's key.  This is only used to specify the values of wild card tags stored
-     * in the DicomDictionary
+     * Returns whether this entry is held by the DicomDictionary. Shared entries are read-only; copy one with the
+     * constructor to change it.
      *
-     * @param  vr  the value representation
+     * @return  <code>true</code> if the entry cannot be modified
+     */
+    public final boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Sets the dicom tag's key. DicomDictionary.resolve(FileDicomKey) returns entries of wild card tags with the key
+     * of the tag.
+     *
+     * @param  key  the key
+     *
+     * @throws  UnsupportedOperationException  if the entry is shared by the DicomDictionary
      */
     public final void setKey(FileDicomKey key) {
+        checkNotShared();
         this.key = key;
     }
     
     /**
-     * Sets the value representation; used only for explicit vr.
+     * Sets the value representation; used only for explicit vr. FileDicomTag keeps the explicit vr of a tag read
+     * from a file itself.
      *
      * @param  vr  the value representation
+     *
+     * @throws  UnsupportedOperationException  if the entry is shared by the DicomDictionary
      */
     public final void setValueRepresentation(VR vr) {
+        checkNotShared();
         this.valueRepresentation = vr;
     }
 
+    /**
+     * Makes this entry read-only, before the DicomDictionary hands it out.
+     *
+     * @return  this entry
+     */
+    final FileDicomTagInfo share() {
+        shared = true;
+        return this;
+    }
+
+    /**
+     * Throws if this entry is shared by the DicomDictionary.
+     */
+    private void checkNotShared() {
+        if (shared) {
+            throw new UnsupportedOperationException("Dictionary entry " + key + " is shared and cannot be modified");
+        }
+    }
+
     /**
      * Return information about the tag, in string form.
      *
@@ -431,6 +473,9 @@ public class FileDicomTagInfo {
     
     
     public void finalize() {
+    	if (shared) {
+    	    return; // still in use by the dictionary
+    	}
     	
     	key =null;
     	keyword = null;
@@ -4,6 +4,8 @@ package RawDCMLibary.model;
 
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import RawDCMLibary.DICOM.DICOMFile;
 import RawDCMLibary.model.FileDicomTagInfo.VR;
 import RawDCMLibary.model.enums.Enums.VRtype;
@@ -91,7 +93,7 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
 
         for (e = tagList.keys(); e.hasMoreElements();) {
 
-            if (tagList.get(e.nextElement()).getValue(false) != null) {
+            if (tagList.get(e.nextElement()).getRawValue() != null) {
                 count++;
             }
         }
@@ -109,7 +111,7 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
         for (e = tagList.keys(); e.hasMoreElements();) {
             FileDicomTag tag = tagList.get(e.nextElement());
 
-            if (tag.getValue(false) != null) {
+            if (tag.getRawValue() != null) {
                 dicomTags[i] = tag;
                 i++;
             }
@@ -248,7 +250,7 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
         	if(nextTag.getValueRepresentation() != VR.SQ) {
         	    nextLength = nextTag.getDataLength();
         	} else {
-        	    nextLength = ((FileDicomSQ)nextTag.getValue(false)).getDataLength();
+        	    nextLength = ((FileDicomSQ)nextTag.getRawValue()).getDataLength();
         	}
         	if(nextLength != -1 && nextLength%2 != 0) {
         		System.err.println("Appending length within sequence tag");
@@ -531,7 +533,7 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
      * @param  length  the length of the tag
      */
     public final void setValue(FileDicomKey key, Object value, int length) throws CloneNotSupportedException {
-        FileDicomTag tag = (FileDicomTag) tagTable.get(key.getKey());
+        FileDicomTag tag = tagTable.get(key);
         this.setValue(key, tag, value, length);
     }
     
@@ -552,18 +554,17 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
         if (tag != null) {   
             oldDataLength = tag.getDataLength();
             updateLengthField = (lengthTag = tagTable.get(new FileDicomKey(key.getGroupNumber(), 0))) != null && 
-                                    lengthTag.getValue(false) != null;
-            System.err.println("Tag "+key+": has already been set, overwriting");
+                                    lengthTag.getRawValue() != null;
+            Logger.getLogger(FileDicomTagTable.class.getName()).log(Level.FINE, "Tag {0}: has already been set, overwriting", key);
         }
 
-        FileDicomTagInfo info = new DicomDictionary().getInfo(key);
+        // the resolved entry carries this key, the shared dictionary entry is not touched
+        FileDicomTagInfo info = DicomDictionary.resolve(key);
         if (info == null && tag != null) {
             info = tag.getInfo();
         } 
             
-        if(info != null) {
-            info.setKey(key);
-        } else {
+        if(info == null) {
             if(tag != null) {
                 putPrivateTagValue(new FileDicomTagInfo(key, tag.getType(), 0, "PrivateTag",
                         "Private Tag")); // put private tags with explicit VRs in file info hashtable
@@ -583,9 +584,9 @@ public class FileDicomTagTable implements java.io.Serializable, Cloneable {
             
         
         if(tag.getGroup() != 0 && updateLengthField) {
-            Integer i =  (Integer) lengthTag.getValue(false);
+            Integer i =  (Integer) lengthTag.getRawValue();
             if(tag.getValueRepresentation() == VR.SQ) {
-                int tempDataLength = ((FileDicomSQ)tag.getValue(false)).getDataLength();
+                int tempDataLength = ((FileDicomSQ)tag.getRawValue()).getDataLength();
                 i = i-oldDataLength+tempDataLength;
             } else {
                 i = i-oldDataLength+tag.getDataLength();
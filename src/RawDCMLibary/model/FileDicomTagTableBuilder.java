@@ -0,0 +1,182 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.model.FileDicomTagInfo.NumType;
+import RawDCMLibary.model.FileDicomTagInfo.VR;
+import RawDCMLibary.model.enums.Enums.VRtype;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds a tag table from the events of
+ * {@link DICOMFileInputStream#readEvents(DICOMStreamHandler)}. Sequences are
+ * built as nested FileDicomSQ / FileDicomSQItem tables like the header parser
+ * does. Pixel data is not kept, only its tag and length are recorded.
+ *
+ * @see DICOMStreamHandler
+ */
+public class FileDicomTagTableBuilder implements DICOMStreamHandler {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The table the top level elements are put in.
+     */
+    private final FileDicomTagTable tagTable;
+
+    /**
+     * The tables of the open items, innermost first; the top level table is at
+     * the bottom.
+     */
+    private final Deque<FileDicomTagTable> tables = new ArrayDeque<FileDicomTagTable>();
+
+    /**
+     * The open sequences, innermost first.
+     */
+    private final Deque<FileDicomSQ> sequences = new ArrayDeque<FileDicomSQ>();
+
+    /**
+     * The tags the open sequences are stored under, innermost first.
+     */
+    private final Deque<FileDicomTag> sequenceTags = new ArrayDeque<FileDicomTag>();
+
+    /**
+     * The element whose value is expected next.
+     */
+    private FileDicomTag currentTag;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates a builder that fills a new tag table.
+     *
+     * @param vr_type whether the file uses explicit or implicit VRs
+     */
+    public FileDicomTagTableBuilder(VRtype vr_type) {
+        this(new FileDicomTagTable(vr_type));
+    }
+
+    /**
+     * Creates a builder that fills the given tag table.
+     *
+     * @param tagTable the table to put the elements in
+     */
+    public FileDicomTagTableBuilder(FileDicomTagTable tagTable) {
+        this.tagTable = tagTable;
+        tables.push(tagTable);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the tag table built so far.
+     *
+     * @return the top level tag table
+     */
+    public FileDicomTagTable getTagTable() {
+        return tagTable;
+    }
+
+    @Override
+    public void startElement(int tag, VR vr, int length) {
+        currentTag = createTag(tag, vr, length);
+        currentTag.setLength(length);
+        tables.peek().put(currentTag);
+    }
+
+    @Override
+    public void value(ByteBuffer value) {
+        if (currentTag == null) {
+            return;
+        }
+
+        final VR vr = currentTag.getValueRepresentation();
+        try {
+            if (vr == VR.AT) {
+                final int group = value.getShort(0) & 0xFFFF;
+                final int element = value.getShort(2) & 0xFFFF;
+                currentTag.setValue(new FileDicomKey(group, element));
+            } else {
+                currentTag.setValue(new FileDicomDeferredValue(value, 0, value.remaining(), vr,
+                        currentTag.getValueMultiplicity(), value.order() == ByteOrder.BIG_ENDIAN).decode());
+            }
+        } catch (IOException | IndexOutOfBoundsException ex) {
+            Logger.getLogger(FileDicomTagTableBuilder.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        currentTag = null;
+    }
+
+    @Override
+    public void startSequence(int tag, VR vr, int length) {
+        final FileDicomTag sequenceTag = createTag(tag, vr, length);
+        final FileDicomSQ sq = new FileDicomSQ();
+
+        sq.setWriteAsUnknownLength(length == -1);
+        sequenceTag.setLength(length);
+        tables.peek().put(sequenceTag);
+        sequences.push(sq);
+        sequenceTags.push(sequenceTag);
+        currentTag = null;
+    }
+
+    @Override
+    public void startItem(int length) {
+        final FileDicomSQItem item = new FileDicomSQItem(null, tagTable.getVr_type());
+
+        item.setWriteAsUnknownLength(length == -1);
+        if (!sequences.isEmpty()) {
+            sequences.peek().addItem(item);
+        }
+        tables.push(item);
+    }
+
+    @Override
+    public void endItem() {
+        if (tables.size() > 1) {
+            tables.pop();
+        }
+    }
+
+    @Override
+    public void endSequence() {
+        if (!sequences.isEmpty()) {
+            sequenceTags.pop().setValue(sequences.pop());
+        }
+    }
+
+    @Override
+    public void pixelDataFragment(int index, ByteBuffer fragment) {
+        currentTag = null; // pixel data is read separately
+    }
+
+    /**
+     * Creates a tag for an element, with the dictionary information when the
+     * element is in the dicom dictionary and as a private tag otherwise. The
+     * shared dictionary entry is copied, not modified, when the file gives
+     * another value representation.
+     *
+     * @param tag packed group and element of the element
+     * @param vr value representation given in the file
+     * @param length value length given in the file
+     *
+     * @return the new tag, without a value
+     */
+    private static FileDicomTag createTag(int tag, VR vr, int length) {
+        final FileDicomKey key = new FileDicomKey(tag);
+        FileDicomTagInfo info = DicomDictionary.resolve(key);
+
+        if (info == null) {
+            int tagVM = 1;
+            if (length > 0 && vr.getType() instanceof NumType) {
+                tagVM = length / ((NumType) vr.getType()).getNumBytes();
+            }
+            info = new FileDicomTagInfo(key, vr, tagVM, "PrivateTag", "Private Tag");
+        } else if (info.getValueRepresentation() != vr) {
+            info = new FileDicomTagInfo(key, info.getVersion(), vr, info.getValueMultiplicity(),
+                    info.getKeyword(), info.getName());
+        }
+
+        return new FileDicomTag(info);
+    }
+}
@@ -448,8 +448,8 @@ public class FileInfoDicom extends FileInfoBase {
             if(!insideSequenceTag && tag.getElement() != 0) {
                 appendLengthTag(tag, lengthComp);
             }
-            if(tag.getValue(false) instanceof FileDicomSQ) {
-                FileDicomSQ sq = (FileDicomSQ) tag.getValue(false);
+            if(tag.isSequence()) {
+                FileDicomSQ sq = (FileDicomSQ) tag.getRawValue();
                 for(int i=0; i<sq.getSequence().size(); i++) {
                     setInfoFromTags(sq.getSequence().get(i), true);
                 }
@@ -486,7 +486,7 @@ public class FileInfoDicom extends FileInfoBase {
         while(itr.hasNext()) {
             int group = itr.next();
             try {
-                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getValue(false);
+                Integer length = (Integer) tagTable.get(new FileDicomKey(group, 0)).getRawValue();
                 tagTable.get(new FileDicomKey(group, 0)).setValue(new Integer(lengthComp.get(group).get()));
                 
             } catch(NullPointerException e) {
@@ -504,7 +504,7 @@ public class FileInfoDicom extends FileInfoBase {
         if(tag.getValueRepresentation() != VR.SQ) {
             length.add(tag.getDataLength());
         } else {
-            length.add(((FileDicomSQ)tag.getValue(false)).getDataLength());
+            length.add(((FileDicomSQ)tag.getRawValue()).getDataLength());
         }
         if(vr_type == VRtype.EXPLICIT) {
             if(tag.getType().reservedBytes()) {
@@ -904,9 +904,9 @@ public class FileInfoDicom extends FileInfoBase {
             } else if(tagKey.equals("0028,1201") || tagKey.equals("0028,1202") || tagKey.equals("0028,1203")) {
             //for keyNum, from dicom standard, 1 is red, 2 is green, 3 is blue
                 int keyNum = Integer.valueOf(tagKey.getElement().substring(tagKey.getElement().length()-1));
-                Object data = tag.getValue(false);
-                if (data instanceof Number[]) {
-                    final int lutVals = ((Number[])data).length;
+                Object data = tag.getRawValue();
+                if (data instanceof short[]) {
+                    final int lutVals = ((short[])data).length;
                     
                 }
                 
@@ -1,6 +1,7 @@
 package RawDCMLibary.model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import RawDCMLibary.DICOM.DICOMFile;
 import static RawDCMLibary.DICOM.DICOMFile.ARGB;
@@ -864,9 +865,7 @@ public class FileRaw extends FileBase {
 
                 byte[] tmpBuffer = fileRW.getByteBuffer();
 
-                for (i = 0; i < bufferSize; i++) {
-                    buffer[i] = tmpBuffer[i];
-                }
+                PixelKernels.get().widen(tmpBuffer, 0, buffer, 0, bufferSize, true);
             } catch (IOException error) {
                 throw error;
             }
@@ -879,11 +878,7 @@ public class FileRaw extends FileBase {
 
                 byte[] tmpBuffer = fileRW.getByteBuffer();
 
-                for (i = 0; i < bufferSize; i++) {
-
-                    // buffer[i] = tmpBuffer[i];
-                    buffer[i] = (short) (tmpBuffer[i] & 0xff);
-                }
+                PixelKernels.get().widen(tmpBuffer, 0, buffer, 0, bufferSize, false);
             } catch (IOException error) {
                 throw error;
             }
@@ -896,9 +891,7 @@ public class FileRaw extends FileBase {
 
                 short[] tmpBuffer = fileRW.getShortBuffer();
 
-                for (i = 0; i < bufferSize; i++) {
-                    buffer[i] = tmpBuffer[i];
-                }
+                PixelKernels.get().widen(tmpBuffer, 0, buffer, 0, bufferSize, true);
                 // buffer = tmpBuffer;
                 //System.arraycopy(tmpBuffer, 0, buffer, 0, tmpBuffer.length);
             } catch (IOException error) {
@@ -913,11 +906,8 @@ public class FileRaw extends FileBase {
 
                 short[] tmpBuffer = fileRW.getShortBuffer();
 
-                for (i = 0; i < bufferSize; i++) {
-
-                    // buffer[i] = tmpBuffer[i];
-                    buffer[i] = (short) (tmpBuffer[i] & 0xffff);
-                }
+                // the cast to short of the former loop kept the sign, so USHORT is widened signed as before
+                PixelKernels.get().widen(tmpBuffer, 0, buffer, 0, bufferSize, true);
             } catch (IOException error) {
                 throw error;
             }
@@ -1214,12 +1204,42 @@ public class FileRaw extends FileBase {
             }
 
             this.fileName = fileName;
-            this.fileRW = new FileRawChunk(raFile, fInfo);
+            if (fileRW == null) {
+                this.fileRW = new FileRawChunk(raFile, fInfo);
+            } else { // keeps the chunk buffers of the last image
+                fileRW.setImageFile(raFile, fInfo);
+            }
         } catch (OutOfMemoryError error) {
             throw error;
         }
     }
 
+    /**
+     * Reads the image from a buffer holding the whole file instead of opening
+     * a file, for data that was received from a stream.
+     *
+     * @param source buffer holding the whole file, starting at position 0
+     * @param fInfo Information that describes the image.
+     */
+    public void setImageSource(ByteBuffer source, DICOMFile fInfo) {
+        fileInfo = fInfo;
+
+        if (raFile != null) {
+
+            try {
+                raFile.close();
+            } catch (IOException ioex) {
+            }
+            raFile = null;
+        }
+
+        if (fileRW == null) {
+            this.fileRW = new FileRawChunk(source, fInfo);
+        } else { // keeps the chunk buffers of the last image
+            fileRW.setImageSource(source, fInfo);
+        }
+    }
+
     /**
      * Sets the planar configuration for RGB images.
      *
@@ -1,6 +1,7 @@
 package RawDCMLibary.model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.util.*;
 import java.util.zip.*;
@@ -78,6 +79,9 @@ public class FileRawChunk extends FileBase {
     /** DOCUMENT ME! */
     private InflaterInputStream inflaterStream;
 
+    /** In-memory image source read instead of raFile when not null. */
+    private ByteBuffer imageSource = null;
+
     @SuppressWarnings("unused")
     private int numColors = 3;
 
@@ -110,6 +114,16 @@ public class FileRawChunk extends FileBase {
         setImageFile(file, fInfo);
     }
 
+    /**
+     * Raw reader constructor for an image held in memory.
+     *
+     * @param  source  buffer holding the whole file, starting at position 0
+     * @param  fInfo   information that describes the image
+     */
+    public FileRawChunk(ByteBuffer source, DICOMFile fInfo) {
+        setImageSource(source, fInfo);
+    }
+
     /**
      * Compressed raw reader/writer constructor.
      *
@@ -294,22 +308,22 @@ public class FileRawChunk extends FileBase {
         int b1 = 0, b2 = 0, b3 = 0, b4 = 0, b5 = 0, b6 = 0, b7 = 0, b8 = 0;
         long b1L = 0, b2L = 0, b3L = 0, b4L = 0, b5L = 0, b6L = 0, b7L = 0, b8L = 0;
         boolean endianess = fileInfo.isEndianess();
-        long temp = raFile.length();
+        long temp = sourceLength();
         if (type == BOOLEAN) {
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 if ((minimumBitsMinus1 == 7) && (shiftToDivide == 3)) {
-                		if ((start + ((length + minimumBitsMinus1) >> shiftToDivide)) > raFile.length()) {
+                		if ((start + ((length + minimumBitsMinus1) >> shiftToDivide)) > sourceLength()) {
                 	
                 	        throw new IOException("End bound exceeds EOF");
                 		}
                 }
-                else if   ((start + (8 * ((length + minimumBitsMinus1) >> shiftToDivide))) > raFile.length()) {
+                else if   ((start + (8 * ((length + minimumBitsMinus1) >> shiftToDivide))) > sourceLength()) {
                     throw new IOException("End bound exceeds EOF");
                 }
             }
         } else {
 
-            if ((compressionType == FileInfoBase.COMPRESSION_NONE) && ((start + length) > raFile.length())) {
+            if ((compressionType == FileInfoBase.COMPRESSION_NONE) && ((start + length) > sourceLength())) {
                 throw new IOException("End bound exceeds EOF");
             }
         }
@@ -411,7 +425,7 @@ public class FileRawChunk extends FileBase {
         }
 
         if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-            raFile.seek(start);
+            seekSource(start);
         }
 
         switch (type) {
@@ -420,7 +434,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -462,7 +476,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -495,7 +509,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -532,7 +546,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -556,31 +570,7 @@ public class FileRawChunk extends FileBase {
                         }
                     }
 
-                    if (endianess == BIG_ENDIAN) {
-
-                        for (i = 0, index = 0; i < bufferSize; i++, index += 2) {
-
-                            // index = i*2;
-                            // b1 = getUnsignedByte(bufferByte, index);
-                            // b2 = getUnsignedByte(bufferByte, index+1);
-                            // bufferShort[i] = (short)((getUnsignedByte(bufferByte, index) << 8) +
-                            // getUnsignedByte(bufferByte, index+1));
-                            // OR
-                            // bufferShort[i] = getBufferShort(bufferByte, index, endianess);
-                            // OR
-                            // Fastest
-                            bufferShort[i] = (short) (((bufferByte[index] & 0x00ff) << 8) |
-                                                          (bufferByte[index + 1] & 0x00ff));
-                            // System.out.println ("here rawchunck.readimagebig = " + bufferShort[i]);
-                        }
-                    } else {
-
-                        for (i = 0, index = 0; i < bufferSize; i++, index += 2) {
-                            bufferShort[i] = (short) (((bufferByte[index + 1] & 0x00ff) << 8) |
-                                                          (bufferByte[index] & 0x00ff));
-                            // System.out.println ("here rawchunck.readimagelittle = " + bufferShort[i]);
-                        }
-                    }
+                    PixelKernels.get().decodeShorts(bufferByte, 0, bufferShort, 0, bufferSize, endianess == BIG_ENDIAN);
                 } catch (IOException error) {
                     throw error;
                 }
@@ -591,7 +581,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -615,21 +605,7 @@ public class FileRawChunk extends FileBase {
                         }
                     }
 
-                    if (endianess == BIG_ENDIAN) {
-
-                        for (i = 0, index = 0; i < bufferSize; i++) {
-                            b1 = bufferByte[index++] & 0xff;
-                            b2 = bufferByte[index++] & 0xff;
-                            bufferShort[i] = (short) ((b1 << 8) | b2);
-                        }
-                    } else {
-
-                        for (i = 0, index = 0; i < bufferSize; i++) {
-                            b1 = bufferByte[index++] & 0xff;
-                            b2 = bufferByte[index++] & 0xff;
-                            bufferShort[i] = (short) ((b2 << 8) | b1);
-                        }
-                    }
+                    PixelKernels.get().decodeShorts(bufferByte, 0, bufferShort, 0, bufferSize, endianess == BIG_ENDIAN);
                 } catch (IOException error) {
                     throw error;
                 }
@@ -641,7 +617,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -694,7 +670,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -757,7 +733,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -819,7 +795,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -889,7 +865,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -922,7 +898,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -971,7 +947,7 @@ public class FileRawChunk extends FileBase {
                 try {
 
                     if (compressionType == FileInfoBase.COMPRESSION_NONE) {
-                        raFile.read(bufferByte);
+                        readSource(bufferByte);
                     } else {
 
                         try {
@@ -1047,6 +1023,65 @@ public class FileRawChunk extends FileBase {
         }
 
         raFile = file;
+        imageSource = null;
+    }
+
+    /**
+     * Reads the image from a buffer instead of a file.
+     *
+     * @param  source  buffer holding the whole file, starting at position 0
+     * @param  fInfo   information that describes the image
+     */
+    public void setImageSource(ByteBuffer source, DICOMFile fInfo) {
+        setImageFile(null, fInfo);
+        imageSource = source.duplicate();
+    }
+
+    /**
+     * Returns the length of the file or buffer the image is read from.
+     *
+     * @return  length in bytes
+     *
+     * @throws  IOException  if the file length cannot be read
+     */
+    private long sourceLength() throws IOException {
+        return imageSource != null ? imageSource.limit() : raFile.length();
+    }
+
+    /**
+     * Moves to the given position of the file or buffer the image is read from.
+     *
+     * @param  position  offset from the start of the file
+     *
+     * @throws  IOException  if the file cannot be positioned
+     */
+    private void seekSource(long position) throws IOException {
+        if (imageSource != null) {
+            imageSource.position((int) position);
+        } else {
+            raFile.seek(position);
+        }
+    }
+
+    /**
+     * Reads as many bytes as fit in the array from the file or buffer the image is read from.
+     *
+     * @param   bytes  array to fill
+     *
+     * @return  the number of bytes read, -1 at the end of the data
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    private int readSource(byte[] bytes) throws IOException {
+        if (imageSource == null) {
+            return raFile.read(bytes);
+        }
+        if (!imageSource.hasRemaining()) {
+            return -1;
+        }
+        final int count = Math.min(bytes.length, imageSource.remaining());
+        imageSource.get(bytes, 0, count);
+        return count;
     }
 
     /**
@@ -0,0 +1,118 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import RawDCMLibary.DICOM.DICOM_Constants;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes JPEG pixel data with the image readers of javax.imageio. The JDK
+ * reads JPEG Baseline; JPEG 2000 is supported when an image reader plugin for
+ * it is on the class path. Every frame is read with its own reader, so frames
+ * can be decoded in parallel.
+ */
+public class ImageIOPixelDecoder implements PixelDecoder {
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the image io format name of a transfer syntax.
+     *
+     * @param transferSyntaxUID the transfer syntax UID
+     *
+     * @return the format name, or <code>null</code> if it is not a format
+     * this decoder reads
+     */
+    private static String getFormatName(String transferSyntaxUID) {
+        if (DICOM_Constants.UID_TransferJPEGBASELINEPROCESS1.equals(transferSyntaxUID)) {
+            return "jpeg";
+        } else if (DICOM_Constants.UID_TransferJPEG2000LOSSLESS.equals(transferSyntaxUID)
+                || "1.2.840.10008.1.2.4.91".equals(transferSyntaxUID)) {
+            return "jpeg2000";
+        }
+        return null;
+    }
+
+    @Override
+    public boolean supports(String transferSyntaxUID) {
+        final String format = getFormatName(transferSyntaxUID);
+        return format != null && ImageIO.getImageReadersByFormatName(format).hasNext();
+    }
+
+    @Override
+    public int getCost(String transferSyntaxUID) {
+        return 100;
+    }
+
+    @Override
+    public boolean supportsDataType(int dataType) {
+        return dataType == DICOMFile.BYTE || dataType == DICOMFile.UBYTE || dataType == DICOMFile.SHORT
+                || dataType == DICOMFile.USHORT || dataType == DICOMFile.ARGB;
+    }
+
+    @Override
+    public boolean isFrameParallel() {
+        return true;
+    }
+
+    @Override
+    public void decode(ByteBuffer frame, DICOMFile fileInfo, int[] buffer, int offset) throws IOException {
+        final int[] extents = fileInfo.getExtents();
+        final byte[] bytes;
+        final int start;
+
+        if (frame.hasArray()) {
+            bytes = frame.array();
+            start = frame.arrayOffset() + frame.position();
+        } else {
+            bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            start = 0;
+        }
+
+        final BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(
+                new ByteArrayInputStream(bytes, start, frame.remaining()))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for the frame");
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                image = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        final int width = Math.min(image.getWidth(), extents[0]);
+        final int height = Math.min(image.getHeight(), extents[1]);
+        if (fileInfo.getDataType() == DICOMFile.ARGB) {
+            image.getRGB(0, 0, width, height, buffer, offset, extents[0]);
+            return;
+        }
+
+        final Raster raster = image.getRaster();
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            if (fileInfo.getDataType() == DICOMFile.BYTE) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) row[x];
+                }
+            } else if (fileInfo.getDataType() == DICOMFile.SHORT) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (short) row[x];
+                }
+            }
+            System.arraycopy(row, 0, buffer, offset + y * extents[0], width);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Pixels kept in the width and signedness they are stored with: 8 bit pixels
+ * in a byte array, 16 bit pixels in a short array, and so on. A 16 bit image
+ * needs half the memory of the int array {@link DICOMFileInputStream#getPixelData()}
+ * returns, and is filled without a conversion per pixel. Pixels are widened
+ * only when asked for, one at a time with {@link #getInt(int)} or all at once
+ * with {@link #toIntArray()}.
+ *
+ * @see DICOMFileInputStream#getPixels()
+ */
+public abstract class PixelBuffer {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * Data type of the pixels, e.g. {@link DICOMFile#USHORT}.
+     */
+    private final int dataType;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates a buffer of a data type.
+     *
+     * @param dataType the data type of the pixels
+     */
+    PixelBuffer(int dataType) {
+        this.dataType = dataType;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Allocates a buffer of the width the data type is stored with. Data types
+     * without a narrower variant, such as {@link DICOMFile#ARGB}, are kept as
+     * ints.
+     *
+     * @param dataType the data type of the pixels
+     * @param length number of pixels
+     *
+     * @return the buffer, all pixels 0
+     */
+    public static PixelBuffer allocate(int dataType, int length) {
+        switch (dataType) {
+            case DICOMFile.BYTE:
+            case DICOMFile.UBYTE:
+                return new BytePixels(new byte[length], dataType);
+            case DICOMFile.SHORT:
+            case DICOMFile.USHORT:
+                return new ShortPixels(new short[length], dataType);
+            case DICOMFile.FLOAT:
+                return new FloatPixels(new float[length]);
+            default:
+                return new IntPixels(new int[length], dataType);
+        }
+    }
+
+    /**
+     * Returns the data type of the pixels.
+     *
+     * @return the data type, e.g. {@link DICOMFile#USHORT}
+     */
+    public final int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Returns whether the pixels are signed.
+     *
+     * @return <code>false</code> for the unsigned data types
+     */
+    public final boolean isSigned() {
+        return dataType != DICOMFile.UBYTE && dataType != DICOMFile.USHORT && dataType != DICOMFile.UINTEGER;
+    }
+
+    /**
+     * Returns the number of bytes a pixel takes in this buffer.
+     *
+     * @return 1, 2 or 4
+     */
+    public abstract int getBytesPerPixel();
+
+    /**
+     * Returns the number of pixels.
+     *
+     * @return the number of pixels
+     */
+    public abstract int getLength();
+
+    /**
+     * Returns a pixel widened to an int, taking the signedness of the data
+     * type into account. Float pixels are truncated.
+     *
+     * @param index index of the pixel
+     *
+     * @return the value of the pixel
+     */
+    public abstract int getInt(int index);
+
+    /**
+     * Returns a pixel as a float.
+     *
+     * @param index index of the pixel
+     *
+     * @return the value of the pixel
+     */
+    public float getFloat(int index) {
+        return getInt(index);
+    }
+
+    /**
+     * Stores a value, narrowed to the width of the buffer.
+     *
+     * @param index index of the pixel
+     * @param value the value
+     */
+    public abstract void setInt(int index, int value);
+
+    /**
+     * Copies pixels from a buffer of the byte order of the file, starting at
+     * its position; the position is not changed.
+     *
+     * @param source the stored pixels
+     * @param offset index of the first pixel to fill
+     * @param length number of pixels
+     */
+    abstract void put(ByteBuffer source, int offset, int length);
+
+    /**
+     * Returns all pixels widened to ints.
+     *
+     * @return a new array
+     */
+    public int[] toIntArray() {
+        final int[] values = new int[getLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getInt(i);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + getLength() + (isSigned() ? ", signed]" : ", unsigned]");
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+    /**
+     * Pixels of 8 bits, {@link DICOMFile#BYTE} or {@link DICOMFile#UBYTE}.
+     */
+    public static final class BytePixels extends PixelBuffer {
+
+        private final byte[] data;
+
+        /**
+         * Wraps an array.
+         *
+         * @param data the pixels
+         * @param dataType {@link DICOMFile#BYTE} or {@link DICOMFile#UBYTE}
+         */
+        public BytePixels(byte[] data, int dataType) {
+            super(dataType);
+            this.data = data;
+        }
+
+        /**
+         * Returns the array the pixels are kept in, not a copy.
+         *
+         * @return the pixels
+         */
+        public byte[] getArray() {
+            return data;
+        }
+
+        @Override
+        public int getBytesPerPixel() {
+            return 1;
+        }
+
+        @Override
+        public int getLength() {
+            return data.length;
+        }
+
+        @Override
+        public int getInt(int index) {
+            return isSigned() ? data[index] : data[index] & 0xFF;
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            data[index] = (byte) value;
+        }
+
+        @Override
+        void put(ByteBuffer source, int offset, int length) {
+            source.duplicate().get(data, offset, length);
+        }
+
+        @Override
+        public int[] toIntArray() {
+            final int[] values = new int[data.length];
+            PixelKernels.get().widen(data, 0, values, 0, data.length, isSigned());
+            return values;
+        }
+    }
+
+    /**
+     * Pixels of 16 bits, {@link DICOMFile#SHORT} or {@link DICOMFile#USHORT}.
+     */
+    public static final class ShortPixels extends PixelBuffer {
+
+        private final short[] data;
+
+        /**
+         * Wraps an array.
+         *
+         * @param data the pixels
+         * @param dataType {@link DICOMFile#SHORT} or {@link DICOMFile#USHORT}
+         */
+        public ShortPixels(short[] data, int dataType) {
+            super(dataType);
+            this.data = data;
+        }
+
+        /**
+         * Returns the array the pixels are kept in, not a copy.
+         *
+         * @return the pixels
+         */
+        public short[] getArray() {
+            return data;
+        }
+
+        @Override
+        public int getBytesPerPixel() {
+            return 2;
+        }
+
+        @Override
+        public int getLength() {
+            return data.length;
+        }
+
+        @Override
+        public int getInt(int index) {
+            return isSigned() ? data[index] : data[index] & 0xFFFF;
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            data[index] = (short) value;
+        }
+
+        @Override
+        void put(ByteBuffer source, int offset, int length) {
+            source.asShortBuffer().get(data, offset, length);
+        }
+
+        @Override
+        public int[] toIntArray() {
+            final int[] values = new int[data.length];
+            PixelKernels.get().widen(data, 0, values, 0, data.length, isSigned());
+            return values;
+        }
+    }
+
+    /**
+     * Pixels of 32 bits, and color pixels packed as ARGB.
+     */
+    public static final class IntPixels extends PixelBuffer {
+
+        private final int[] data;
+
+        /**
+         * Wraps an array.
+         *
+         * @param data the pixels
+         * @param dataType the data type of the pixels
+         */
+        public IntPixels(int[] data, int dataType) {
+            super(dataType);
+            this.data = data;
+        }
+
+        /**
+         * Returns the array the pixels are kept in, not a copy.
+         *
+         * @return the pixels
+         */
+        public int[] getArray() {
+            return data;
+        }
+
+        @Override
+        public int getBytesPerPixel() {
+            return 4;
+        }
+
+        @Override
+        public int getLength() {
+            return data.length;
+        }
+
+        @Override
+        public int getInt(int index) {
+            return data[index];
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return isSigned() ? data[index] : data[index] & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            data[index] = value;
+        }
+
+        @Override
+        void put(ByteBuffer source, int offset, int length) {
+            source.asIntBuffer().get(data, offset, length);
+        }
+
+        @Override
+        public int[] toIntArray() {
+            return data.clone();
+        }
+    }
+
+    /**
+     * Pixels of 32 bit floating point, {@link DICOMFile#FLOAT}.
+     */
+    public static final class FloatPixels extends PixelBuffer {
+
+        private final float[] data;
+
+        /**
+         * Wraps an array.
+         *
+         * @param data the pixels
+         */
+        public FloatPixels(float[] data) {
+            super(DICOMFile.FLOAT);
+            this.data = data;
+        }
+
+        /**
+         * Returns the array the pixels are kept in, not a copy.
+         *
+         * @return the pixels
+         */
+        public float[] getArray() {
+            return data;
+        }
+
+        @Override
+        public int getBytesPerPixel() {
+            return 4;
+        }
+
+        @Override
+        public int getLength() {
+            return data.length;
+        }
+
+        @Override
+        public int getInt(int index) {
+            return (int) data[index];
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return data[index];
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            data[index] = value;
+        }
+
+        @Override
+        void put(ByteBuffer source, int offset, int length) {
+            source.asFloatBuffer().get(data, offset, length);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes encapsulated pixel data, one frame at a time. Decoders are found by
+ * {@link TransferSyntaxRegistry}: the built-in ones are always registered,
+ * others are loaded with {@link java.util.ServiceLoader}, by listing the
+ * implementing class in
+ * <code>META-INF/services/RawDCMLibary.model.PixelDecoder</code>, or are
+ * registered by the application.
+ *
+ * <p>
+ * A decoder declares what it can do: the transfer syntaxes it decodes and at
+ * what cost, the data types it can deliver, and whether several frames may be
+ * decoded on different threads at the same time. Of the decoders that can
+ * handle a file, the one with the lowest cost is used.</p>
+ *
+ * @see TransferSyntaxRegistry#getDecoder(String, int)
+ */
+public interface PixelDecoder {
+
+    /**
+     * Returns whether this decoder can decode pixel data of a transfer syntax.
+     *
+     * @param transferSyntaxUID the transfer syntax UID
+     *
+     * @return <code>true</code> if the transfer syntax is supported
+     */
+    boolean supports(String transferSyntaxUID);
+
+    /**
+     * Returns the relative cost of decoding a transfer syntax with this
+     * decoder; the decoder with the lowest cost is chosen. Pure Java decoders
+     * of simple codecs cost about 10, general purpose decoders about 100.
+     *
+     * @param transferSyntaxUID a supported transfer syntax UID
+     *
+     * @return the relative cost
+     */
+    default int getCost(String transferSyntaxUID) {
+        return 100;
+    }
+
+    /**
+     * Returns whether the decoder can deliver pixels of a data type.
+     *
+     * @param dataType the data type of the image, e.g.
+     * {@link DICOMFile#USHORT}
+     *
+     * @return <code>true</code> if the data type is supported
+     */
+    boolean supportsDataType(int dataType);
+
+    /**
+     * Returns whether frames may be decoded concurrently, with one call of
+     * {@link #decode} per thread.
+     *
+     * @return <code>true</code> if decode is thread safe
+     */
+    default boolean isFrameParallel() {
+        return false;
+    }
+
+    /**
+     * Decodes one frame into the buffer. Pixels are stored one int per pixel,
+     * as read from native pixel data, starting at <code>offset</code>.
+     *
+     * @param frame the compressed bytes of the frame, a read-only buffer that
+     * must not be kept after the call
+     * @param fileInfo the file the frame belongs to, for its extents, bits
+     * allocated and photometric interpretation
+     * @param buffer the buffer the pixels are stored in
+     * @param offset index in the buffer of the first pixel of the frame
+     *
+     * @throws IOException if the frame cannot be decoded
+     */
+    void decode(ByteBuffer frame, DICOMFile fileInfo, int[] buffer, int offset) throws IOException;
+}
@@ -0,0 +1,106 @@
+package RawDCMLibary.model;
+
+/**
+ * The inner loops of pixel conversion: byte order, widening to ints, cutting
+ * to Bits Stored and the modality rescale. {@link PixelKernels#get()} chooses
+ * the implementation at run time; the scalar one is always available, others,
+ * such as one using the Vector API of newer JDKs, are loaded with
+ * {@link java.util.ServiceLoader} by listing the implementing class in
+ * <code>META-INF/services/RawDCMLibary.model.PixelKernel</code>.
+ *
+ * <p>
+ * Every implementation must give exactly the results of the scalar one, for
+ * every input.</p>
+ *
+ * @see ScalarPixelKernel
+ */
+public interface PixelKernel {
+
+    /**
+     * Returns whether the kernel can run on this machine, e.g. whether the
+     * vector registers it needs are there.
+     *
+     * @return <code>true</code> if the kernel may be used
+     */
+    boolean isSupported();
+
+    /**
+     * Assembles 16 bit pixels from pairs of bytes.
+     *
+     * @param src the stored bytes
+     * @param srcPos index of the first byte
+     * @param dst the pixels
+     * @param dstPos index of the first pixel
+     * @param length number of pixels
+     * @param bigEndian <code>true</code> if the most significant byte comes
+     * first
+     */
+    void decodeShorts(byte[] src, int srcPos, short[] dst, int dstPos, int length, boolean bigEndian);
+
+    /**
+     * Widens 16 bit pixels to ints.
+     *
+     * @param src the pixels
+     * @param srcPos index of the first pixel
+     * @param dst the widened pixels
+     * @param dstPos index of the first widened pixel
+     * @param length number of pixels
+     * @param signed <code>true</code> to extend the sign, <code>false</code>
+     * to extend with zeros
+     */
+    void widen(short[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed);
+
+    /**
+     * Widens 8 bit pixels to ints.
+     *
+     * @param src the pixels
+     * @param srcPos index of the first pixel
+     * @param dst the widened pixels
+     * @param dstPos index of the first widened pixel
+     * @param length number of pixels
+     * @param signed <code>true</code> to extend the sign, <code>false</code>
+     * to extend with zeros
+     */
+    void widen(byte[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed);
+
+    /**
+     * Cuts pixels in place to their low bits, e.g. to Bits Stored when the
+     * bits above hold overlays, and extends them again. Padding pixels are
+     * left as they are, so a padding value outside of those bits still marks
+     * them.
+     *
+     * @param buffer the pixels
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @param bits number of low bits kept, 1 to 31
+     * @param signed <code>true</code> to extend the sign of the highest bit
+     * kept, <code>false</code> to extend with zeros
+     * @param padded whether <code>pad</code> marks padding pixels
+     * @param pad the padding value
+     */
+    void mask(int[] buffer, int from, int to, int bits, boolean signed, boolean padded, int pad);
+
+    /**
+     * Rescales pixels in place, <code>value * slope + intercept</code> in int
+     * arithmetic, and finds the minimum and maximum of the stored values.
+     * Padding pixels are neither rescaled nor counted, their positions are
+     * marked instead. The caller makes sure the results cannot overflow.
+     *
+     * @param buffer the pixels
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @param slope the rescale slope
+     * @param intercept the rescale intercept
+     * @param padded whether <code>pad</code> marks padding pixels
+     * @param pad the padding value
+     * @param minMax receives the minimum and the maximum; they are
+     * {@link Integer#MAX_VALUE} and {@link Integer#MIN_VALUE} if every pixel
+     * is padding
+     * @param pads receives a set bit for every padding pixel, bit
+     * <code>i % 64</code> of <code>pads[i / 64]</code> for the pixel at index
+     * <code>i</code>; other bits are not changed. <code>null</code> if the
+     * positions are not needed.
+     */
+    void rescale(int[] buffer, int from, int to, int slope, int intercept, boolean padded, int pad, int[] minMax,
+            long[] pads);
+}
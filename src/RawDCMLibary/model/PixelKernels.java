@@ -0,0 +1,92 @@
+package RawDCMLibary.model;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Chooses the {@link PixelKernel} once, on first use: the first kernel found
+ * with {@link ServiceLoader} that is supported on this machine, else the
+ * scalar one. A kernel that needs a module the JVM was not started with, e.g.
+ * <code>--add-modules jdk.incubator.vector</code>, cannot be loaded and is
+ * passed over. The system property <code>RawDCMLibary.pixelKernel=scalar</code>
+ * turns the others off.
+ */
+public final class PixelKernels {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * System property selecting the scalar kernel.
+     */
+    public static final String PROPERTY = "RawDCMLibary.pixelKernel";
+
+    /**
+     * The kernel that is always available.
+     */
+    private static final PixelKernel SCALAR = new ScalarPixelKernel();
+
+    /**
+     * The kernel in use, chosen on first use.
+     */
+    private static volatile PixelKernel kernel;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    private PixelKernels() {
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the kernel in use.
+     *
+     * @return the fastest supported kernel
+     */
+    public static PixelKernel get() {
+        PixelKernel result = kernel;
+        if (result == null) {
+            synchronized (PixelKernels.class) {
+                result = kernel;
+                if (result == null) {
+                    result = "scalar".equalsIgnoreCase(System.getProperty(PROPERTY)) ? SCALAR : load();
+                    kernel = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the scalar kernel, the reference for the others.
+     *
+     * @return the scalar kernel
+     */
+    public static PixelKernel getScalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Finds the first supported kernel on the class path.
+     *
+     * @return the kernel, the scalar one if there is none
+     */
+    private static PixelKernel load() {
+        final Iterator<PixelKernel> it = ServiceLoader.load(PixelKernel.class, PixelKernel.class.getClassLoader())
+                .iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                final PixelKernel candidate = it.next();
+                if (candidate.isSupported()) {
+                    return candidate;
+                }
+            } catch (ServiceConfigurationError | LinkageError e) {
+                // expected when the kernel needs a module the JVM was started without
+                Logger.getLogger(PixelKernels.class.getName()).log(Level.FINE, null, e);
+            }
+        }
+        return SCALAR;
+    }
+}
@@ -0,0 +1,680 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.util.Arrays;
+
+/**
+ * Applies the modality rescale and pixel padding to stored pixels, finding
+ * their minimum and maximum on the way, in one pass over the pixels. Padding
+ * pixels are left out of the minimum and maximum. If the padding value lies
+ * outside of the range of the other pixels, padding is replaced by the
+ * rescaled minimum, otherwise it is rescaled like any other pixel. As the
+ * replacement is only known at the end of the pass, the positions of padding
+ * pixels are remembered and only they are visited a second time.
+ *
+ * <p>
+ * Integer pixels are cut to Bits Stored before they are rescaled. A pixel is
+ * padding if its whole stored value or its value cut to Bits Stored equals
+ * the padding value, so a padding value outside of Bits Stored, such as the
+ * -32768 readImage takes when the file gives none, still marks padding. The
+ * pixels are cut and rescaled a chunk at a time by the {@link PixelKernel},
+ * so every pixel is read from memory once. Slopes and intercepts that need
+ * double arithmetic are looked up in a table of the rescaled values when the
+ * pixels have at most 16 bits and the image more pixels than the table.</p>
+ *
+ * @see DICOMFileInputStream#readImage(int[], int, int)
+ */
+public final class PixelTransform {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * Number of pixels cut and rescaled together, small enough to stay in the
+     * cache between the steps. A multiple of 64, so the padding positions of
+     * a chunk start at a word.
+     */
+    private static final int CHUNK = 4096;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * Rescale slope, 1 if the file gives none or 0.
+     */
+    private final double slope;
+
+    /**
+     * Rescale intercept.
+     */
+    private final double intercept;
+
+    /**
+     * Pixel padding value, <code>null</code> if the file has none.
+     */
+    private final Short pixelPad;
+
+    /**
+     * Bits Stored (0028,0101), 0 if every bit of the data type is used.
+     */
+    private final int bitsStored;
+
+    /**
+     * Minimum of the stored pixels that are not padding, found by the last
+     * call of apply.
+     */
+    private double min;
+
+    /**
+     * Maximum of the stored pixels that are not padding, found by the last
+     * call of apply.
+     */
+    private double max;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Creates a transform.
+     *
+     * @param slope Rescale Slope (0028,1053); 0 is taken as 1
+     * @param intercept Rescale Intercept (0028,1052)
+     * @param pixelPad Pixel Padding Value (0028,0120), <code>null</code> if
+     * the image has no padding
+     */
+    public PixelTransform(double slope, double intercept, Short pixelPad) {
+        this(slope, intercept, pixelPad, 0);
+    }
+
+    /**
+     * Creates a transform for pixels that use fewer bits than their data
+     * type, e.g. 12 bit CT stored in 16 bits. The bits above Bits Stored,
+     * e.g. overlay bits, are cut off before the rescale, so the rescaled
+     * pixels may fit a narrower type.
+     *
+     * @param slope Rescale Slope (0028,1053); 0 is taken as 1
+     * @param intercept Rescale Intercept (0028,1052)
+     * @param pixelPad Pixel Padding Value (0028,0120), <code>null</code> if
+     * the image has no padding
+     * @param bitsStored Bits Stored (0028,0101), 0 if unknown
+     */
+    public PixelTransform(double slope, double intercept, Short pixelPad, int bitsStored) {
+        this.slope = slope == 0 ? 1 : slope;
+        this.intercept = intercept;
+        this.pixelPad = pixelPad;
+        this.bitsStored = bitsStored;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the minimum of the stored pixels that are not padding.
+     *
+     * @return the minimum found by the last call of apply
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the maximum of the stored pixels that are not padding.
+     *
+     * @return the maximum found by the last call of apply
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns whether the rescale maps every pixel to itself.
+     *
+     * @return <code>true</code> for slope 1 and intercept 0
+     */
+    public boolean isIdentity() {
+        return slope == 1 && intercept == 0;
+    }
+
+    /**
+     * Transforms the pixels in place. Rescaled values are truncated to ints;
+     * use {@link #apply(PixelBuffer)} to keep fractions.
+     *
+     * @param buffer the stored pixels, replaced by the rescaled pixels
+     */
+    public void apply(final int[] buffer) {
+        apply(buffer, -1);
+    }
+
+    /**
+     * Transforms the pixels in place, like {@link #apply(int[])}. Knowing the
+     * data type the pixels were stored with, they are cut to Bits Stored, and
+     * the rescale is left to the {@link PixelKernel} when int arithmetic gives
+     * the same results: for the identity, and for whole slopes and intercepts
+     * of 8 and 16 bit pixels. Otherwise pixels cut to at most 16 bits are
+     * rescaled with a table.
+     *
+     * @param buffer the stored pixels, replaced by the rescaled pixels
+     * @param dataType data type the pixels were stored with, -1 if unknown
+     */
+    public void apply(final int[] buffer, final int dataType) {
+        final PixelKernel kernel = PixelKernels.get();
+        final int bits = getCutBits(dataType);
+        final boolean signed = isSigned(dataType);
+        final boolean exact = isIdentity() || isExactInInts(dataType);
+        final boolean padded = pixelPad != null;
+        final int pad = padded ? pixelPad : 0;
+        final long[] pads = padded ? new long[(buffer.length + 63) >>> 6] : null;
+        final int tableBits = exact ? 0 : getTableBits(bits, 0, buffer.length);
+        final int base = signed && tableBits > 0 ? -(1 << (tableBits - 1)) : 0;
+        final int[] table = tableBits > 0 ? getIntTable(base, 1 << tableBits) : null;
+        final int[] range = new int[2];
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+
+        for (int from = 0; from < buffer.length; from += CHUNK) {
+            final int to = Math.min(from + CHUNK, buffer.length);
+            if (bits > 0) {
+                kernel.mask(buffer, from, to, bits, signed, padded, pad);
+            }
+            if (exact) {
+                kernel.rescale(buffer, from, to, (int) slope, (int) intercept, padded, pad, range, pads);
+            } else {
+                rescale(buffer, from, to, table, base, padded, pad, range, pads);
+            }
+            low = Math.min(low, range[0]);
+            high = Math.max(high, range[1]);
+        }
+
+        setRange(low, high, pad);
+        if (padded) {
+            final int replacement = (int) (getPadReplacement(pad) * slope + intercept);
+            for (int word = 0; word < pads.length; word++) {
+                for (long bitsSet = pads[word]; bitsSet != 0; bitsSet &= bitsSet - 1) {
+                    buffer[(word << 6) + Long.numberOfTrailingZeros(bitsSet)] = replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforms the pixels into a new buffer of the narrowest type that holds
+     * every rescaled value: SHORT or USHORT, else INTEGER for whole slopes and
+     * intercepts, FLOAT otherwise. Integer pixels are cut to Bits Stored
+     * first, sign extended for signed data types. The pixels are widened a
+     * chunk at a time, then cut and rescaled by the {@link PixelKernel} where
+     * int arithmetic gives the same results, as {@link #apply(int[], int)}
+     * does, else by a loop for the type of the result.
+     *
+     * @param pixels the stored pixels, not changed
+     *
+     * @return the rescaled pixels
+     *
+     * @see #getOutputType(int)
+     */
+    public PixelBuffer apply(final PixelBuffer pixels) {
+        final int length = pixels.getLength();
+        final int dataType = pixels.getDataType();
+        final PixelBuffer result = PixelBuffer.allocate(getOutputType(dataType), length);
+        if (pixels instanceof PixelBuffer.FloatPixels || dataType == DICOMFile.UINTEGER) {
+            applyEach(pixels, result); // values that do not fit an int
+            return result;
+        }
+
+        final PixelKernel kernel = PixelKernels.get();
+        final int bits = getCutBits(dataType);
+        final boolean signed = pixels.isSigned();
+        final boolean exact = (isIdentity() || isExactInInts(dataType))
+                && !(result instanceof PixelBuffer.FloatPixels);
+        final boolean padded = pixelPad != null;
+        final int pad = !padded ? 0 : signed ? pixelPad : pixelPad & (pixels.getBytesPerPixel() == 1 ? 0xFF : 0xFFFF);
+        final long[] pads = padded ? new long[(length + 63) >>> 6] : null;
+        final long[] chunkPads = padded ? new long[CHUNK >>> 6] : null;
+        final int tableBits = exact ? 0 : getTableBits(bits, 8 * pixels.getBytesPerPixel(), length);
+        final int base = signed && tableBits > 0 ? -(1 << (tableBits - 1)) : 0;
+        final boolean floats = result instanceof PixelBuffer.FloatPixels;
+        final int[] intTable = tableBits > 0 && !floats ? getIntTable(base, 1 << tableBits) : null;
+        final float[] floatTable = tableBits > 0 && floats ? getFloatTable(base, 1 << tableBits) : null;
+        final int[] chunk = new int[Math.min(CHUNK, length)];
+        final int[] range = new int[2];
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+
+        for (int from = 0; from < length; from += CHUNK) {
+            final int count = Math.min(CHUNK, length - from);
+            if (pixels instanceof PixelBuffer.ShortPixels) {
+                kernel.widen(((PixelBuffer.ShortPixels) pixels).getArray(), from, chunk, 0, count, signed);
+            } else if (pixels instanceof PixelBuffer.BytePixels) {
+                kernel.widen(((PixelBuffer.BytePixels) pixels).getArray(), from, chunk, 0, count, signed);
+            } else {
+                System.arraycopy(((PixelBuffer.IntPixels) pixels).getArray(), from, chunk, 0, count);
+            }
+            if (bits > 0) {
+                kernel.mask(chunk, 0, count, bits, signed, padded, pad);
+            }
+            if (exact) {
+                kernel.rescale(chunk, 0, count, (int) slope, (int) intercept, padded, pad, range, chunkPads);
+                store(chunk, count, result, from);
+            } else if (floats) {
+                rescale(chunk, count, ((PixelBuffer.FloatPixels) result).getArray(), from, floatTable, base, padded,
+                        pad, range, chunkPads);
+            } else {
+                rescale(chunk, 0, count, intTable, base, padded, pad, range, chunkPads);
+                store(chunk, count, result, from);
+            }
+            low = Math.min(low, range[0]);
+            high = Math.max(high, range[1]);
+            if (padded) {
+                System.arraycopy(chunkPads, 0, pads, from >>> 6, (count + 63) >>> 6);
+                Arrays.fill(chunkPads, 0L);
+            }
+        }
+
+        setRange(low, high, pad);
+        if (padded) {
+            replacePadding(result, pads, getPadReplacement(pad) * slope + intercept);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms pixels that do not fit an int, floats and UINTEGER, one at a
+     * time into the result, as {@link #apply(PixelBuffer)} does.
+     *
+     * @param pixels the stored pixels, not changed
+     * @param result receives the rescaled pixels
+     */
+    private void applyEach(final PixelBuffer pixels, final PixelBuffer result) {
+        final int length = pixels.getLength();
+        final int bits = getCutBits(pixels.getDataType());
+        final int unusedBits = bits > 0 ? 32 - bits : 0;
+        final boolean padded = pixelPad != null;
+        final double pad = !padded ? 0 : toStored(pixels.isSigned() ? pixelPad
+                : pixelPad & (pixels.getBytesPerPixel() == 1 ? 0xFF : 0xFFFF), pixels, 0);
+        final long[] pads = padded ? new long[(length + 63) >>> 6] : null;
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < length; i++) {
+            final double stored = getStored(pixels, i, 0);
+            final double value = unusedBits > 0 ? getStored(pixels, i, unusedBits) : stored;
+            if (padded && (stored == pad || value == pad)) {
+                pads[i >>> 6] |= 1L << i;
+                continue;
+            }
+            if (value < low) {
+                low = value;
+            }
+            if (value > high) {
+                high = value;
+            }
+            final double rescaled = value * slope + intercept;
+            if (result instanceof PixelBuffer.FloatPixels) {
+                ((PixelBuffer.FloatPixels) result).getArray()[i] = (float) rescaled;
+            } else {
+                result.setInt(i, (int) (long) rescaled);
+            }
+        }
+
+        setRange(low, high, pad);
+        if (padded) {
+            replacePadding(result, pads, getPadReplacement(pad) * slope + intercept);
+        }
+    }
+
+    /**
+     * Rescales pixels in place in double arithmetic, or from a table of the
+     * results, truncating them to ints, and finds the minimum and maximum of
+     * the stored values, as {@link PixelKernel#rescale} does in int
+     * arithmetic.
+     *
+     * @param buffer the pixels
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @param table the rescaled values, <code>null</code> to compute them
+     * @param base the stored value of the first entry of the table
+     * @param padded whether <code>pad</code> marks padding pixels
+     * @param pad the padding value
+     * @param minMax receives the minimum and the maximum
+     * @param pads receives the positions of padding pixels
+     */
+    private void rescale(final int[] buffer, final int from, final int to, final int[] table, final int base,
+            final boolean padded, final int pad, final int[] minMax, final long[] pads) {
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+
+        for (int i = from; i < to; i++) {
+            final int value = buffer[i];
+            if (padded && value == pad) {
+                pads[i >>> 6] |= 1L << i;
+                continue;
+            }
+            if (value < low) {
+                low = value;
+            }
+            if (value > high) {
+                high = value;
+            }
+            buffer[i] = table != null ? table[value - base] : (int) (value * slope + intercept);
+        }
+        minMax[0] = low;
+        minMax[1] = high;
+    }
+
+    /**
+     * Rescales a chunk of pixels into floats, keeping fractions, in double
+     * arithmetic or from a table of the results, and finds the minimum and
+     * maximum of the stored values.
+     *
+     * @param chunk the stored pixels
+     * @param count number of pixels
+     * @param floats receives the rescaled pixels
+     * @param offset index in <code>floats</code> of the first pixel
+     * @param table the rescaled values, <code>null</code> to compute them
+     * @param base the stored value of the first entry of the table
+     * @param padded whether <code>pad</code> marks padding pixels
+     * @param pad the padding value
+     * @param minMax receives the minimum and the maximum
+     * @param pads receives the positions of padding pixels in the chunk
+     */
+    private void rescale(final int[] chunk, final int count, final float[] floats, final int offset,
+            final float[] table, final int base, final boolean padded, final int pad, final int[] minMax,
+            final long[] pads) {
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            final int value = chunk[i];
+            if (padded && value == pad) {
+                pads[i >>> 6] |= 1L << i;
+                continue;
+            }
+            if (value < low) {
+                low = value;
+            }
+            if (value > high) {
+                high = value;
+            }
+            floats[offset + i] = table != null ? table[value - base] : (float) (value * slope + intercept);
+        }
+        minMax[0] = low;
+        minMax[1] = high;
+    }
+
+    /**
+     * Returns the number of bits of the table the pixels are rescaled with.
+     * Cut or widened pixels of at most 16 bits have few enough values for a
+     * table, which pays if there are more pixels than values.
+     *
+     * @param bits Bits Stored the pixels are cut to, 0 if they are not
+     * @param widenedBits bits of the pixels as widened, 0 if they may have
+     * any int value
+     * @param length number of pixels
+     *
+     * @return the number of bits, 0 if no table is used
+     */
+    private static int getTableBits(final int bits, final int widenedBits, final int length) {
+        final int tableBits = bits > 0 ? bits : widenedBits;
+        return tableBits > 0 && tableBits <= 16 && length > 1 << tableBits ? tableBits : 0;
+    }
+
+    /**
+     * Returns the rescaled values of consecutive stored values, truncated to
+     * ints.
+     *
+     * @param base the first stored value
+     * @param size number of values
+     *
+     * @return the table
+     */
+    private int[] getIntTable(final int base, final int size) {
+        final int[] table = new int[size];
+        for (int k = 0; k < size; k++) {
+            table[k] = (int) ((base + k) * slope + intercept);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the rescaled values of consecutive stored values as floats.
+     *
+     * @param base the first stored value
+     * @param size number of values
+     *
+     * @return the table
+     */
+    private float[] getFloatTable(final int base, final int size) {
+        final float[] table = new float[size];
+        for (int k = 0; k < size; k++) {
+            table[k] = (float) ((base + k) * slope + intercept);
+        }
+        return table;
+    }
+
+    /**
+     * Copies rescaled pixels into a result of 16 or 32 bits.
+     *
+     * @param chunk the rescaled pixels
+     * @param count number of pixels
+     * @param result receives the pixels
+     * @param offset index in the result of the first pixel
+     */
+    private static void store(final int[] chunk, final int count, final PixelBuffer result, final int offset) {
+        if (result instanceof PixelBuffer.ShortPixels) {
+            final short[] shorts = ((PixelBuffer.ShortPixels) result).getArray();
+            for (int i = 0; i < count; i++) {
+                shorts[offset + i] = (short) chunk[i];
+            }
+        } else {
+            System.arraycopy(chunk, 0, ((PixelBuffer.IntPixels) result).getArray(), offset, count);
+        }
+    }
+
+    /**
+     * Sets the padding pixels of a result to the rescaled replacement.
+     *
+     * @param result the rescaled pixels
+     * @param pads the positions of the padding pixels
+     * @param replacement the rescaled replacement
+     */
+    private static void replacePadding(final PixelBuffer result, final long[] pads, final double replacement) {
+        for (int word = 0; word < pads.length; word++) {
+            for (long bitsSet = pads[word]; bitsSet != 0; bitsSet &= bitsSet - 1) {
+                final int i = (word << 6) + Long.numberOfTrailingZeros(bitsSet);
+                if (result instanceof PixelBuffer.FloatPixels) {
+                    ((PixelBuffer.FloatPixels) result).getArray()[i] = (float) replacement;
+                } else {
+                    result.setInt(i, (int) (long) replacement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the data type {@link #apply(PixelBuffer)} delivers for stored
+     * pixels of a data type, from the range of the data type, narrowed to the
+     * bits stored, and the rescale. The padding value stays in the range, as
+     * it is rescaled itself when every pixel is padding.
+     *
+     * @param dataType data type of the stored pixels
+     *
+     * @return {@link DICOMFile#SHORT}, {@link DICOMFile#USHORT},
+     * {@link DICOMFile#INTEGER} or {@link DICOMFile#FLOAT}
+     */
+    public int getOutputType(final int dataType) {
+        double low;
+        double high;
+        switch (dataType) {
+            case DICOMFile.BYTE:
+                low = Byte.MIN_VALUE;
+                high = Byte.MAX_VALUE;
+                break;
+            case DICOMFile.UBYTE:
+                low = 0;
+                high = 0xFF;
+                break;
+            case DICOMFile.SHORT:
+                low = Short.MIN_VALUE;
+                high = Short.MAX_VALUE;
+                break;
+            case DICOMFile.USHORT:
+                low = 0;
+                high = 0xFFFF;
+                break;
+            case DICOMFile.INTEGER:
+                low = Integer.MIN_VALUE;
+                high = Integer.MAX_VALUE;
+                break;
+            case DICOMFile.UINTEGER:
+                low = 0;
+                high = 0xFFFFFFFFL;
+                break;
+            default:
+                return DICOMFile.FLOAT;
+        }
+        if (slope != Math.rint(slope) || intercept != Math.rint(intercept)) {
+            return DICOMFile.FLOAT;
+        } else if (bitsStored > 0 && bitsStored < 32 && high - low + 1 > Math.pow(2, bitsStored)) {
+            final double pad = pixelPad == null ? Double.NaN
+                    : low < 0 ? pixelPad : pixelPad & (high == 0xFF ? 0xFF : 0xFFFF);
+            final boolean padInRange = pad >= low && pad <= high;
+            low = low < 0 ? -Math.pow(2, bitsStored - 1) : 0;
+            high = low + Math.pow(2, bitsStored) - 1;
+            if (padInRange) {
+                low = Math.min(low, pad);
+                high = Math.max(high, pad);
+            }
+        }
+
+        final double first = low * slope + intercept;
+        final double last = high * slope + intercept;
+        final double rescaledLow = Math.min(first, last);
+        final double rescaledHigh = Math.max(first, last);
+        if (rescaledLow >= Short.MIN_VALUE && rescaledHigh <= Short.MAX_VALUE) {
+            return DICOMFile.SHORT;
+        } else if (rescaledLow >= 0 && rescaledHigh <= 0xFFFF) {
+            return DICOMFile.USHORT;
+        } else if (rescaledLow >= Integer.MIN_VALUE && rescaledHigh <= Integer.MAX_VALUE) {
+            return DICOMFile.INTEGER;
+        }
+        return DICOMFile.FLOAT;
+    }
+
+    /**
+     * Returns the number of low bits integer pixels of a data type are cut
+     * to.
+     *
+     * @param dataType data type of the stored pixels
+     *
+     * @return Bits Stored, 0 if every bit of the data type is used or the
+     * pixels are not integers
+     */
+    private int getCutBits(final int dataType) {
+        final int size;
+        switch (dataType) {
+            case DICOMFile.BYTE:
+            case DICOMFile.UBYTE:
+                size = 8;
+                break;
+            case DICOMFile.SHORT:
+            case DICOMFile.USHORT:
+                size = 16;
+                break;
+            case DICOMFile.INTEGER:
+            case DICOMFile.UINTEGER:
+                size = 32;
+                break;
+            default:
+                return 0;
+        }
+        return bitsStored > 0 && bitsStored < size ? bitsStored : 0;
+    }
+
+    /**
+     * Returns whether pixels of a data type are signed, as
+     * {@link PixelBuffer#isSigned()} does.
+     *
+     * @param dataType data type of the stored pixels
+     *
+     * @return <code>false</code> for the unsigned data types
+     */
+    private static boolean isSigned(final int dataType) {
+        return dataType != DICOMFile.UBYTE && dataType != DICOMFile.USHORT && dataType != DICOMFile.UINTEGER;
+    }
+
+    /**
+     * Returns a stored pixel, cut to Bits Stored.
+     *
+     * @param pixels the stored pixels
+     * @param index index of the pixel
+     * @param unusedBits high bits to cut, 0 for the whole stored value
+     *
+     * @return the pixel value
+     */
+    private static double getStored(final PixelBuffer pixels, final int index, final int unusedBits) {
+        if (pixels instanceof PixelBuffer.FloatPixels) {
+            return pixels.getFloat(index);
+        }
+        return toStored(pixels.getInt(index), pixels, unusedBits);
+    }
+
+    /**
+     * Cuts an integer pixel to Bits Stored and widens it to its value.
+     *
+     * @param value the pixel as the data type holds it
+     * @param pixels the stored pixels, for the data type
+     * @param unusedBits high bits to cut, 0 for the whole stored value
+     *
+     * @return the pixel value, sign extended for signed data types
+     */
+    private static double toStored(final int value, final PixelBuffer pixels, final int unusedBits) {
+        if (unusedBits > 0) {
+            return pixels.isSigned() ? (value << unusedBits) >> unusedBits : (value << unusedBits) >>> unusedBits;
+        }
+        return pixels.getDataType() == DICOMFile.UINTEGER ? value & 0xFFFFFFFFL : value;
+    }
+
+    /**
+     * Returns whether rescaling pixels of a data type in int arithmetic cannot
+     * overflow and so gives the truncated double results.
+     *
+     * @param dataType data type of the stored pixels
+     *
+     * @return <code>true</code> for whole slopes and intercepts of 8 and 16
+     * bit pixels in range
+     */
+    private boolean isExactInInts(final int dataType) {
+        switch (dataType) {
+            case DICOMFile.BYTE:
+            case DICOMFile.UBYTE:
+            case DICOMFile.SHORT:
+            case DICOMFile.USHORT:
+                break;
+            default:
+                return false;
+        }
+        return slope == Math.rint(slope) && intercept == Math.rint(intercept)
+                && Math.abs(slope) * 0xFFFF + Math.abs(intercept) <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Stores the minimum and maximum found; if every pixel was padding both
+     * are the padding value.
+     *
+     * @param low the smallest pixel that is not padding
+     * @param high the largest pixel that is not padding
+     * @param pad the padding value
+     */
+    private void setRange(final double low, final double high, final double pad) {
+        if (low > high) {
+            min = max = pad;
+        } else {
+            min = low;
+            max = high;
+        }
+    }
+
+    /**
+     * Returns the stored value padding pixels are rescaled from: the minimum
+     * if the padding value lies outside of the range of the other pixels,
+     * else the padding value itself.
+     *
+     * @param pad the padding value
+     *
+     * @return the stored value to rescale
+     */
+    private double getPadReplacement(final double pad) {
+        return (pad <= min || pad >= max) ? min : pad;
+    }
+}
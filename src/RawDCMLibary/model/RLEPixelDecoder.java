@@ -0,0 +1,131 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Decodes RLE Lossless pixel data (DICOM Part 5, Annex G). A frame starts
+ * with a 64 byte header holding the number of segments and their offsets;
+ * each segment is PackBits coded and holds one byte of every pixel of one
+ * sample, most significant byte first. The segments are decoded straight into
+ * the output buffer.
+ *
+ * <p>
+ * Grayscale images of 8, 16 and 32 bits allocated and 8 bit color images are
+ * supported, the latter delivered as {@link DICOMFile#ARGB}.</p>
+ */
+public class RLEPixelDecoder implements PixelDecoder {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * Length of the RLE header in front of the segments.
+     */
+    private static final int HEADER_LENGTH = 64;
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    @Override
+    public boolean supports(String transferSyntaxUID) {
+        return TransferSyntaxRegistry.RLE_LOSSLESS.equals(transferSyntaxUID);
+    }
+
+    @Override
+    public int getCost(String transferSyntaxUID) {
+        return 10;
+    }
+
+    @Override
+    public boolean supportsDataType(int dataType) {
+        return dataType == DICOMFile.BYTE || dataType == DICOMFile.UBYTE || dataType == DICOMFile.SHORT
+                || dataType == DICOMFile.USHORT || dataType == DICOMFile.INTEGER || dataType == DICOMFile.ARGB;
+    }
+
+    @Override
+    public boolean isFrameParallel() {
+        return true;
+    }
+
+    @Override
+    public void decode(ByteBuffer frame, DICOMFile fileInfo, int[] buffer, int offset) throws IOException {
+        final ByteBuffer rle = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int start = rle.position();
+        final int[] extents = fileInfo.getExtents();
+        final int numPixels = extents[0] * extents[1];
+        final int bytesPerSample = Math.max(fileInfo.bitsAllocated / 8, 1);
+
+        if (rle.remaining() < HEADER_LENGTH) {
+            throw new IOException("RLE frame of " + rle.remaining() + " bytes has no header");
+        }
+        final int numSegments = rle.getInt(start);
+        final int samples = numSegments / bytesPerSample;
+        final boolean argb = fileInfo.getDataType() == DICOMFile.ARGB;
+
+        if (numSegments < 1 || numSegments > 15 || numSegments % bytesPerSample != 0
+                || (samples != 1 && !(samples == 3 && bytesPerSample == 1 && argb))) {
+            throw new IOException("Unsupported RLE frame with " + numSegments + " segments for "
+                    + fileInfo.bitsAllocated + " bits allocated");
+        }
+
+        Arrays.fill(buffer, offset, offset + numPixels, argb ? 0xFF000000 : 0);
+        for (int segment = 0; segment < numSegments; segment++) {
+            final int segmentStart = rle.getInt(start + 4 + segment * 4);
+            final int segmentEnd = segment + 1 < numSegments ? rle.getInt(start + 8 + segment * 4)
+                    : rle.limit() - start;
+            final int shift = argb ? 16 - 8 * segment : 8 * (bytesPerSample - 1 - segment);
+
+            if (segmentStart < HEADER_LENGTH || segmentEnd < segmentStart || start + segmentEnd > rle.limit()) {
+                throw new IOException("RLE segment " + segment + " lies outside of the frame");
+            }
+            decodeSegment(rle, start + segmentStart, start + segmentEnd, buffer, offset, numPixels, shift);
+        }
+
+        final int dataType = fileInfo.getDataType();
+        if (dataType == DICOMFile.BYTE) {
+            for (int i = offset; i < offset + numPixels; i++) {
+                buffer[i] = (byte) buffer[i];
+            }
+        } else if (dataType == DICOMFile.SHORT) {
+            for (int i = offset; i < offset + numPixels; i++) {
+                buffer[i] = (short) buffer[i];
+            }
+        }
+    }
+
+    /**
+     * Decodes a PackBits segment and ors its bytes, shifted into place, into
+     * the pixels.
+     *
+     * @param rle the frame
+     * @param from index of the first byte of the segment
+     * @param to index after the last byte of the segment
+     * @param buffer the pixels
+     * @param offset index of the first pixel
+     * @param numPixels number of pixels of the frame
+     * @param shift bit position of the byte in a pixel
+     */
+    private static void decodeSegment(ByteBuffer rle, int from, int to, int[] buffer, int offset, int numPixels,
+            int shift) {
+        int pixel = offset;
+        final int end = offset + numPixels;
+        int i = from;
+
+        while (i < to && pixel < end) {
+            final int n = rle.get(i++);
+
+            if (n >= 0) { // literal run of n + 1 bytes
+                final int count = Math.min(n + 1, Math.min(to - i, end - pixel));
+                for (int k = 0; k < count; k++) {
+                    buffer[pixel++] |= (rle.get(i++) & 0xFF) << shift;
+                }
+            } else if (n != -128 && i < to) { // the next byte repeated -n + 1 times
+                final int value = (rle.get(i++) & 0xFF) << shift;
+                final int count = Math.min(-n + 1, end - pixel);
+                for (int k = 0; k < count; k++) {
+                    buffer[pixel++] |= value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package RawDCMLibary.model;
+
+/**
+ * The pixel kernels as plain loops, used on every JDK and as the reference
+ * the other kernels must match.
+ */
+public final class ScalarPixelKernel implements PixelKernel {
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    @Override
+    public boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    public void decodeShorts(byte[] src, int srcPos, short[] dst, int dstPos, int length, boolean bigEndian) {
+        if (bigEndian) {
+            for (int i = 0, index = srcPos; i < length; i++, index += 2) {
+                dst[dstPos + i] = (short) (((src[index] & 0x00ff) << 8) | (src[index + 1] & 0x00ff));
+            }
+        } else {
+            for (int i = 0, index = srcPos; i < length; i++, index += 2) {
+                dst[dstPos + i] = (short) (((src[index + 1] & 0x00ff) << 8) | (src[index] & 0x00ff));
+            }
+        }
+    }
+
+    @Override
+    public void widen(short[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed) {
+        if (signed) {
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = src[srcPos + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = src[srcPos + i] & 0xffff;
+            }
+        }
+    }
+
+    @Override
+    public void widen(byte[] src, int srcPos, int[] dst, int dstPos, int length, boolean signed) {
+        if (signed) {
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = src[srcPos + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = src[srcPos + i] & 0xff;
+            }
+        }
+    }
+
+    @Override
+    public void mask(int[] buffer, int from, int to, int bits, boolean signed, boolean padded, int pad) {
+        final int shift = 32 - bits;
+        for (int i = from; i < to; i++) {
+            final int value = buffer[i];
+            final int cut = signed ? (value << shift) >> shift : (value << shift) >>> shift;
+            // all ones unless the pixel is padding: no branch, so the JIT can vectorize the loop
+            final int difference = value ^ pad;
+            final int keep = padded ? (difference | -difference) >> 31 : -1;
+            buffer[i] = cut & keep | value & ~keep;
+        }
+    }
+
+    @Override
+    public void rescale(int[] buffer, int from, int to, int slope, int intercept, boolean padded, int pad,
+            int[] minMax, long[] pads) {
+        final boolean identity = slope == 1 && intercept == 0;
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+
+        for (int i = from; i < to; i++) {
+            final int value = buffer[i];
+            if (padded && value == pad) {
+                if (pads != null) {
+                    pads[i >>> 6] |= 1L << i;
+                }
+                continue;
+            }
+            if (value < low) {
+                low = value;
+            }
+            if (value > high) {
+                high = value;
+            }
+            if (!identity) {
+                buffer[i] = value * slope + intercept;
+            }
+        }
+        minMax[0] = low;
+        minMax[1] = high;
+    }
+}
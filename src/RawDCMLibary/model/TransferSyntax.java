@@ -0,0 +1,143 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.model.enums.Enums.VRtype;
+
+/**
+ * How a data set and its pixel data are encoded, as named by a transfer syntax
+ * UID. The parser takes the byte order and the VR encoding of the data set from
+ * here; whether the pixel data is encapsulated decides if it is read as it is
+ * or handed to a {@link PixelDecoder}.
+ *
+ * @see TransferSyntaxRegistry
+ */
+public final class TransferSyntax {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+    /**
+     * The transfer syntax UID.
+     */
+    private final String uid;
+
+    /**
+     * Name of the transfer syntax, for messages.
+     */
+    private final String name;
+
+    /**
+     * Byte order of the data set, <code>true</code> for big endian.
+     */
+    private final boolean endianess;
+
+    /**
+     * Whether the data set has explicit or implicit VRs.
+     */
+    private final VRtype vrType;
+
+    /**
+     * Whether the pixel data is encapsulated, i.e. compressed in fragments.
+     */
+    private final boolean encapsulated;
+
+    /**
+     * Whether the data set after the meta group is deflated.
+     */
+    private final boolean deflated;
+
+    /**
+     * Whether the pixel data compression loses information.
+     */
+    private final boolean lossy;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Describes a transfer syntax.
+     *
+     * @param uid the transfer syntax UID
+     * @param name name of the transfer syntax
+     * @param endianess byte order indicator; <code>true</code> indicates
+     * big-endian and <code>false</code> indicates little-endian.
+     * @param vrType whether the data set has explicit or implicit VRs
+     * @param encapsulated whether the pixel data is encapsulated
+     * @param deflated whether the data set is deflated
+     * @param lossy whether the pixel data compression is lossy
+     */
+    public TransferSyntax(String uid, String name, boolean endianess, VRtype vrType, boolean encapsulated,
+            boolean deflated, boolean lossy) {
+        this.uid = uid;
+        this.name = name;
+        this.endianess = endianess;
+        this.vrType = vrType;
+        this.encapsulated = encapsulated;
+        this.deflated = deflated;
+        this.lossy = lossy;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the transfer syntax UID.
+     *
+     * @return the UID, without padding
+     */
+    public String getUid() {
+        return uid;
+    }
+
+    /**
+     * Returns the name of the transfer syntax.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the byte order of the data set.
+     *
+     * @return <code>true</code> for big endian
+     */
+    public boolean isEndianess() {
+        return endianess;
+    }
+
+    /**
+     * Returns whether the data set has explicit or implicit VRs.
+     *
+     * @return the VR encoding
+     */
+    public VRtype getVrType() {
+        return vrType;
+    }
+
+    /**
+     * Returns whether the pixel data is encapsulated.
+     *
+     * @return <code>true</code> if the pixel data needs a decoder
+     */
+    public boolean isEncapsulated() {
+        return encapsulated;
+    }
+
+    /**
+     * Returns whether the data set after the meta group is deflated.
+     *
+     * @return <code>true</code> for Deflated Explicit VR Little Endian
+     */
+    public boolean isDeflated() {
+        return deflated;
+    }
+
+    /**
+     * Returns whether the pixel data compression loses information.
+     *
+     * @return <code>true</code> for lossy compression
+     */
+    public boolean isLossy() {
+        return lossy;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + uid + ")";
+    }
+}
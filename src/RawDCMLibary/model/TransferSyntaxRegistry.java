@@ -0,0 +1,214 @@
+package RawDCMLibary.model;
+
+import RawDCMLibary.DICOM.DICOM_Constants;
+import RawDCMLibary.model.enums.Enums.VRtype;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The transfer syntaxes the parser knows, keyed by UID, and the pixel decoders
+ * for the encapsulated ones. The standard transfer syntaxes are registered
+ * when the class is loaded, together with the built-in decoders; further
+ * decoders are loaded with {@link ServiceLoader} the first time a decoder is
+ * looked up, or are registered by the application.
+ *
+ * @see TransferSyntax
+ * @see PixelDecoder
+ */
+public final class TransferSyntaxRegistry {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * UID prefix of the JPEG family; unknown members are read as lossy
+     * encapsulated pixel data, like the parser always did.
+     */
+    private static final String JPEG_FAMILY = "1.2.840.10008.1.2.4.";
+
+    /**
+     * The RLE Lossless transfer syntax UID.
+     */
+    public static final String RLE_LOSSLESS = "1.2.840.10008.1.2.5";
+
+    /**
+     * The registered transfer syntaxes by UID.
+     */
+    private static final ConcurrentHashMap<String, TransferSyntax> syntaxes = new ConcurrentHashMap<String, TransferSyntax>();
+
+    /**
+     * The registered decoders, in the order of registration.
+     */
+    private static final CopyOnWriteArrayList<PixelDecoder> decoders = new CopyOnWriteArrayList<PixelDecoder>();
+
+    /**
+     * Whether the decoders on the class path have been loaded.
+     */
+    private static volatile boolean servicesLoaded = false;
+
+    static {
+        final boolean little = FileBase.LITTLE_ENDIAN;
+
+        register(new TransferSyntax(DICOM_Constants.UID_TransferLITTLEENDIAN, "Implicit VR Little Endian", little,
+                VRtype.IMPLICIT, false, false, false));
+        register(new TransferSyntax(DICOM_Constants.UID_TransferLITTLEENDIANEXPLICIT, "Explicit VR Little Endian",
+                little, VRtype.EXPLICIT, false, false, false));
+        register(new TransferSyntax(DICOM_Constants.UID_TransferDEFLATEDLITTLEENDIANEXPLICIT,
+                "Deflated Explicit VR Little Endian", little, VRtype.EXPLICIT, false, true, false));
+        register(new TransferSyntax(DICOM_Constants.UID_TransferBIGENDIANEXPLICIT, "Explicit VR Big Endian",
+                FileBase.BIG_ENDIAN, VRtype.EXPLICIT, false, false, false));
+        register(new TransferSyntax(RLE_LOSSLESS, "RLE Lossless", little, VRtype.EXPLICIT, true, false, false));
+
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGBASELINEPROCESS1, "JPEG Baseline", true);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGEXTENDEDPROC2AND4, "JPEG Extended", true);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGLOSSLESSPROC14, "JPEG Lossless", false);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGLOSSLESSPROC15, "JPEG Lossless Process 15", false);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGLOSSLESSPROC28, "JPEG Lossless Process 28", false);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGLOSSLESSPROC29, "JPEG Lossless Process 29", false);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEGLOSSLESSPROCFIRSTORDERREDICT,
+                "JPEG Lossless, First-Order Prediction", false);
+        registerEncapsulated("1.2.840.10008.1.2.4.80", "JPEG-LS Lossless", false);
+        registerEncapsulated("1.2.840.10008.1.2.4.81", "JPEG-LS Near-Lossless", true);
+        registerEncapsulated(DICOM_Constants.UID_TransferJPEG2000LOSSLESS, "JPEG 2000 Lossless", false);
+        registerEncapsulated("1.2.840.10008.1.2.4.91", "JPEG 2000", true);
+
+        decoders.add(new RLEPixelDecoder());
+        decoders.add(new ImageIOPixelDecoder());
+    }
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+    /**
+     * Only static methods.
+     */
+    private TransferSyntaxRegistry() {
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * Registers a transfer syntax, replacing one with the same UID.
+     *
+     * @param syntax the transfer syntax
+     */
+    public static void register(TransferSyntax syntax) {
+        syntaxes.put(syntax.getUid(), syntax);
+    }
+
+    /**
+     * Registers an encapsulated Explicit VR Little Endian transfer syntax.
+     *
+     * @param uid the transfer syntax UID
+     * @param name name of the transfer syntax
+     * @param lossy whether the compression is lossy
+     */
+    private static void registerEncapsulated(String uid, String name, boolean lossy) {
+        register(new TransferSyntax(uid, name, FileBase.LITTLE_ENDIAN, VRtype.EXPLICIT, true, false, lossy));
+    }
+
+    /**
+     * Returns the transfer syntax of a UID.
+     *
+     * @param uid the transfer syntax UID, padding is ignored
+     *
+     * @return the transfer syntax, or <code>null</code> if it is not known
+     */
+    public static TransferSyntax get(String uid) {
+        final String key = uid.trim();
+        final TransferSyntax syntax = syntaxes.get(key);
+
+        if (syntax == null && key.startsWith(JPEG_FAMILY)) {
+            return new TransferSyntax(key, "Encapsulated", FileBase.LITTLE_ENDIAN, VRtype.EXPLICIT, true, false, true);
+        }
+        return syntax;
+    }
+
+    /**
+     * Registers a pixel decoder. It is preferred to decoders of the same cost
+     * that were registered before it.
+     *
+     * @param decoder the decoder
+     */
+    public static void registerDecoder(PixelDecoder decoder) {
+        decoders.add(0, decoder);
+    }
+
+    /**
+     * Removes a pixel decoder.
+     *
+     * @param decoder the decoder
+     */
+    public static void unregisterDecoder(PixelDecoder decoder) {
+        decoders.remove(decoder);
+    }
+
+    /**
+     * Returns the decoders that can decode a transfer syntax, cheapest first.
+     *
+     * @param uid the transfer syntax UID
+     *
+     * @return the decoders, possibly none
+     */
+    public static List<PixelDecoder> getDecoders(String uid) {
+        loadServices();
+        final String key = uid.trim();
+        final List<PixelDecoder> found = new ArrayList<PixelDecoder>();
+
+        for (final PixelDecoder decoder : decoders) {
+            if (decoder.supports(key)) {
+                found.add(decoder);
+            }
+        }
+        found.sort((a, b) -> Integer.compare(a.getCost(key), b.getCost(key)));
+        return found;
+    }
+
+    /**
+     * Returns the cheapest decoder that can decode a transfer syntax into the
+     * given data type.
+     *
+     * @param uid the transfer syntax UID
+     * @param dataType the data type of the image, e.g.
+     * {@link RawDCMLibary.DICOM.DICOMFile#USHORT}
+     *
+     * @return the decoder, or <code>null</code> if there is none
+     */
+    public static PixelDecoder getDecoder(String uid, int dataType) {
+        for (final PixelDecoder decoder : getDecoders(uid)) {
+            if (decoder.supportsDataType(dataType)) {
+                return decoder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads the decoders listed as services on the class path, once. A
+     * decoder that cannot be loaded is logged and skipped.
+     */
+    private static void loadServices() {
+        if (servicesLoaded) {
+            return;
+        }
+        synchronized (TransferSyntaxRegistry.class) {
+            if (servicesLoaded) {
+                return;
+            }
+            final Iterator<PixelDecoder> it = ServiceLoader.load(PixelDecoder.class).iterator();
+            while (true) {
+                try {
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    decoders.add(it.next());
+                } catch (ServiceConfigurationError e) {
+                    Logger.getLogger(TransferSyntaxRegistry.class.getName()).log(Level.SEVERE, null, e);
+                }
+            }
+            servicesLoaded = true;
+        }
+    }
+}
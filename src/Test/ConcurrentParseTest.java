@@ -0,0 +1,132 @@
+package Test;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import RawDCMLibary.model.FileDicomTag;
+import RawDCMLibary.model.FileDicomTagTable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stress test for parsing separate files at the same time. Every file is
+ * parsed once on the calling thread; then all files are parsed many times over
+ * on a thread pool, and every concurrent result, the tags with their parsed
+ * values and a checksum of the pixels, must equal the sequential one.
+ *
+ * <pre>
+ * java -cp RawDCMLibary.jar Test.ConcurrentParseTest [-threads n] [-rounds n] file|directory...
+ * </pre>
+ *
+ * A directory stands for the files directly in it.
+ */
+public class ConcurrentParseTest {
+
+    /**
+     * @param args options and the files to parse
+     * @throws IOException if a directory cannot be listed
+     * @throws InterruptedException if interrupted while waiting for the pool
+     * @throws ExecutionException if a parse fails unexpectedly
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int threads = 4 * Runtime.getRuntime().availableProcessors();
+        int rounds = 50;
+        final List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if (Files.isDirectory(Paths.get(args[i]))) {
+                try (Stream<Path> list = Files.list(Paths.get(args[i]))) {
+                    files.addAll(list.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: ConcurrentParseTest [-threads n] [-rounds n] file|directory...");
+            System.exit(2);
+        }
+
+        final Map<Path, String> expected = new HashMap<>();
+        for (final Path file : files) {
+            expected.put(file, parse(file));
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Path> submitted = new ArrayList<>();
+        final List<Future<String>> results = new ArrayList<>();
+        final long start = System.nanoTime();
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (final Path file : files) {
+                    submitted.add(file);
+                    results.add(pool.submit(() -> parse(file)));
+                }
+            }
+
+            int mismatches = 0;
+            for (int i = 0; i < results.size(); i++) {
+                if (!results.get(i).get().equals(expected.get(submitted.get(i)))) {
+                    if (mismatches++ < 10) {
+                        System.err.println("differs from the sequential parse: " + submitted.get(i));
+                    }
+                }
+            }
+            System.out.println(results.size() + " parses of " + files.size() + " files on " + threads
+                    + " threads in " + (System.nanoTime() - start) / 1000000 + " ms, " + mismatches + " differ");
+            if (mismatches > 0) {
+                throw new AssertionError(mismatches + " of " + results.size()
+                        + " concurrent parses differ from the sequential parse");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses a file into a string that changes if anything read from it does.
+     *
+     * @param file the file
+     *
+     * @return the tags, their parsed values and a checksum of the pixels, or
+     * the error the parse ended with
+     */
+    private static String parse(final Path file) {
+        final StringBuilder result = new StringBuilder();
+
+        try (DICOMFile dicom = new DICOMFile(file.toString())) {
+            dicom.readHeader();
+            for (final FileDicomTag tag : FileDicomTagTable.sortTagsList(dicom.getTagTable().getTagList())) {
+                result.append(tag.getKey()).append(' ').append(tag.getValueRepresentation()).append(' ')
+                        .append(tag.getValue(true)).append('\n');
+            }
+
+            final int[] pixels = dicom.getPixelData();
+            long checksum = 0;
+            if (pixels != null) {
+                for (final int pixel : pixels) {
+                    checksum = 31 * checksum + pixel;
+                }
+            }
+            result.append("pixels ").append(checksum);
+        } catch (IOException | RuntimeException e) {
+            result.append("error ").append(e);
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,535 @@
+package Test;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import RawDCMLibary.model.PixelBuffer;
+import RawDCMLibary.model.PixelKernel;
+import RawDCMLibary.model.PixelKernels;
+import RawDCMLibary.model.PixelTransform;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Randomized test that the pixel kernel in use gives bit for bit the results
+ * of the scalar one. Every kernel method, the mask to Bits Stored included, is
+ * compared with the scalar kernel on random pixels, lengths and offsets, so
+ * that both whole vectors and the scalar tail are covered. Then
+ * {@link PixelTransform#apply(int[], int)} and
+ * {@link PixelTransform#apply(PixelBuffer)}, which leave the passes to the
+ * kernel where int arithmetic is exact, are run on every integer data type
+ * with many slopes, intercepts, Bits Stored and padding values and compared
+ * with a plain double implementation of the transform, and
+ * {@link PixelBuffer#toIntArray()} with widening one pixel at a time.
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp RawDCMLibary.jar Test.PixelKernelTest [-cases n] [-seed n] [-requireVector]
+ * </pre>
+ *
+ * Without the vector module the scalar kernel is compared with itself, which
+ * still checks the transform; <code>-requireVector</code> makes that a
+ * failure.
+ */
+public class PixelKernelTest {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * The integer data types the transform is tested on.
+     */
+    private static final int[] DATA_TYPES = {DICOMFile.BYTE, DICOMFile.UBYTE, DICOMFile.SHORT, DICOMFile.USHORT,
+        DICOMFile.INTEGER, DICOMFile.UINTEGER};
+
+    /**
+     * Slopes and intercepts that are always tested: the identity, slope 0
+     * taken as 1, CT, inverted, large and fractional.
+     */
+    private static final double[][] RESCALES = {{1, 0}, {0, 0}, {1, -1024}, {-1, -1024}, {3, 17}, {65535, -7},
+        {-32768, 32767}, {2, 0.5}, {0.5, -1024}, {1e-3, 0}, {4e4, -1e9}};
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        int cases = 20000;
+        long seed = System.nanoTime();
+        boolean requireVector = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-cases":
+                    cases = Integer.parseInt(args[++i]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-requireVector":
+                    requireVector = true;
+                    break;
+                default:
+                    System.err.println("usage: PixelKernelTest [-cases n] [-seed n] [-requireVector]");
+                    System.exit(2);
+            }
+        }
+
+        final PixelKernel kernel = PixelKernels.get();
+        final PixelKernel scalar = PixelKernels.getScalar();
+        System.out.println("kernel " + kernel.getClass().getSimpleName() + ", seed " + seed);
+        if (kernel == scalar && requireVector) {
+            throw new AssertionError("the scalar kernel is in use; start the JVM with"
+                    + " --add-modules jdk.incubator.vector on a JDK that has it");
+        }
+
+        final Random random = new Random(seed);
+        for (int i = 0; i < cases; i++) {
+            final int length = random.nextInt(8) == 0 ? random.nextInt(5000) : random.nextInt(300);
+            final int offset = random.nextInt(4);
+            testKernel(kernel, scalar, random, length, offset);
+            for (final int dataType : DATA_TYPES) {
+                testTransform(random, dataType, length, RESCALES[i % RESCALES.length]);
+                testTransform(random, dataType, length, randomRescale(random));
+                testBufferTransform(random, dataType, length, RESCALES[i % RESCALES.length]);
+                testBufferTransform(random, dataType, length, randomRescale(random));
+            }
+            testPixelBuffer(random, length);
+        }
+        System.out.println(cases + " cases passed");
+    }
+
+    /**
+     * Compares every kernel method with the scalar kernel.
+     *
+     * @param kernel the kernel in use
+     * @param scalar the scalar kernel
+     * @param random the random source
+     * @param length number of pixels
+     * @param offset index of the first pixel in the arrays
+     */
+    private static void testKernel(final PixelKernel kernel, final PixelKernel scalar, final Random random,
+            final int length, final int offset) {
+        final byte[] bytes = new byte[2 * length + offset + 1];
+        random.nextBytes(bytes);
+        final short[] shorts = new short[length + offset];
+        final short[] expectedShorts = new short[length + offset];
+        final int[] ints = new int[length + offset];
+        final int[] expectedInts = new int[length + offset];
+
+        for (final boolean flag : new boolean[]{false, true}) {
+            kernel.decodeShorts(bytes, offset, shorts, offset, length, flag);
+            scalar.decodeShorts(bytes, offset, expectedShorts, offset, length, flag);
+            check(Arrays.equals(shorts, expectedShorts), "decodeShorts", length, offset, flag);
+
+            kernel.widen(shorts, offset, ints, offset, length, flag);
+            scalar.widen(shorts, offset, expectedInts, offset, length, flag);
+            check(Arrays.equals(ints, expectedInts), "widen(short[])", length, offset, flag);
+
+            kernel.widen(bytes, offset, ints, offset, length, flag);
+            scalar.widen(bytes, offset, expectedInts, offset, length, flag);
+            check(Arrays.equals(ints, expectedInts), "widen(byte[])", length, offset, flag);
+
+            // whole slopes and intercepts that cannot overflow 16 bit pixels, as the transform passes them
+            kernel.widen(shorts, offset, ints, offset, length, flag);
+            final int slope = random.nextInt(0x7FFF) - 0x3FFF;
+            final int intercept = random.nextInt(0x7FFF) - 0x3FFF;
+            final int pad = length > 0 && random.nextBoolean() ? ints[offset + random.nextInt(length)]
+                    : random.nextInt(0x10000) - 0x8000;
+            final int[] rescaled = ints.clone();
+            final int[] expectedRescaled = ints.clone();
+            final int[] range = new int[2];
+            final int[] expectedRange = new int[2];
+            final long[] pads = new long[(length + offset + 63) >>> 6];
+            final long[] expectedPads = new long[pads.length];
+            kernel.rescale(rescaled, offset, offset + length, slope, intercept, flag, pad, range, pads);
+            scalar.rescale(expectedRescaled, offset, offset + length, slope, intercept, flag, pad, expectedRange,
+                    expectedPads);
+            check(Arrays.equals(rescaled, expectedRescaled) && Arrays.equals(range, expectedRange)
+                    && Arrays.equals(pads, expectedPads), "rescale " + slope + " " + intercept + " pad " + pad,
+                    length, offset, flag);
+
+            // any int pixels and a padding value that occurs, as read from 32 bit data
+            final int[] masked = new int[length + offset];
+            for (int i = 0; i < masked.length; i++) {
+                masked[i] = random.nextInt();
+            }
+            final int bits = 1 + random.nextInt(31);
+            final boolean padded = random.nextBoolean();
+            final int maskPad = length > 0 && random.nextBoolean() ? masked[offset + random.nextInt(length)]
+                    : random.nextInt();
+            final int[] expectedMasked = masked.clone();
+            kernel.mask(masked, offset, offset + length, bits, flag, padded, maskPad);
+            scalar.mask(expectedMasked, offset, offset + length, bits, flag, padded, maskPad);
+            check(Arrays.equals(masked, expectedMasked), "mask " + bits + " bits" + (padded ? " pad " + maskPad : ""),
+                    length, offset, flag);
+        }
+    }
+
+    /**
+     * Compares {@link PixelTransform#apply(int[], int)} with
+     * {@link #transform(double[], double[], double, double, Double, double[])}.
+     *
+     * @param random the random source
+     * @param dataType data type of the pixels
+     * @param length number of pixels
+     * @param rescale the slope and the intercept
+     */
+    private static void testTransform(final Random random, final int dataType, final int length,
+            final double[] rescale) {
+        final int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = randomPixel(random, dataType);
+        }
+
+        Short pad = null;
+        switch (random.nextInt(4)) {
+            case 0:
+                break;
+            case 1:
+                pad = Short.MIN_VALUE; // what readImage uses without a Pixel Padding Value
+                break;
+            default:
+                pad = (short) (length > 0 && random.nextBoolean() ? pixels[random.nextInt(length)]
+                        : randomPixel(random, dataType));
+                for (int i = 0; i < length / 8; i++) {
+                    pixels[random.nextInt(length)] = pad;
+                }
+        }
+
+        final int bitsStored = randomBitsStored(random, dataType);
+        if (pad != null && bitsStored > 0 && bitsStored < getSize(dataType)) {
+            for (int i = 0; i < length / 16; i++) {
+                pixels[random.nextInt(length)] = pad ^ (random.nextInt() << bitsStored); // padding once cut
+            }
+        }
+        final int[] actual = pixels.clone();
+        final PixelTransform transform = new PixelTransform(rescale[0], rescale[1], pad, bitsStored);
+        transform.apply(actual, dataType);
+
+        final double[] stored = new double[length];
+        final double[] cut = new double[length];
+        for (int i = 0; i < length; i++) {
+            stored[i] = pixels[i];
+            cut[i] = cut(pixels[i], dataType, bitsStored, isSigned(dataType));
+        }
+        final double[] range = new double[2];
+        final double[] rescaled = transform(stored, cut, rescale[0], rescale[1],
+                pad == null ? null : Double.valueOf(pad), range);
+        final int[] expected = new int[length];
+        for (int i = 0; i < length; i++) {
+            expected[i] = (int) rescaled[i];
+        }
+
+        if (!Arrays.equals(actual, expected) || transform.getMin() != range[0] || transform.getMax() != range[1]) {
+            int index = 0;
+            while (index < length && actual[index] == expected[index]) {
+                index++;
+            }
+            throw new AssertionError("PixelTransform.apply(int[], " + dataType + ") with slope " + rescale[0]
+                    + ", intercept " + rescale[1] + ", pad " + pad + ", bits stored " + bitsStored + ", " + length
+                    + " pixels: "
+                    + (index < length ? "pixel " + index + " is " + actual[index] + ", expected " + expected[index]
+                            : "range " + transform.getMin() + ".." + transform.getMax() + ", expected "
+                            + range[0] + ".." + range[1]));
+        }
+    }
+
+    /**
+     * Compares {@link PixelTransform#apply(PixelBuffer)} with
+     * {@link #transform(double[], double[], double, double, Double, double[])},
+     * the result read as the type {@link PixelTransform#getOutputType(int)}
+     * gives.
+     *
+     * @param random the random source
+     * @param dataType data type of the pixels
+     * @param length number of pixels
+     * @param rescale the slope and the intercept
+     */
+    private static void testBufferTransform(final Random random, final int dataType, final int length,
+            final double[] rescale) {
+        final PixelBuffer pixels;
+        switch (dataType) {
+            case DICOMFile.BYTE:
+            case DICOMFile.UBYTE:
+                pixels = new PixelBuffer.BytePixels(new byte[length], dataType);
+                break;
+            case DICOMFile.SHORT:
+            case DICOMFile.USHORT:
+                pixels = new PixelBuffer.ShortPixels(new short[length], dataType);
+                break;
+            default:
+                pixels = new PixelBuffer.IntPixels(new int[length], dataType);
+        }
+        for (int i = 0; i < length; i++) {
+            pixels.setInt(i, randomPixel(random, dataType));
+        }
+
+        final Short pad = random.nextBoolean() ? null
+                : (short) (length > 0 && random.nextBoolean() ? pixels.getInt(random.nextInt(length))
+                        : random.nextInt(0x10000));
+        if (pad != null) {
+            for (int i = 0; i < length / 8; i++) {
+                pixels.setInt(random.nextInt(length), pad);
+            }
+        }
+
+        final int bitsStored = randomBitsStored(random, dataType);
+        if (pad != null && bitsStored > 0 && bitsStored < getSize(dataType)) {
+            for (int i = 0; i < length / 16; i++) {
+                pixels.setInt(random.nextInt(length), pad ^ (random.nextInt() << bitsStored)); // padding once cut
+            }
+        }
+        final PixelTransform transform = new PixelTransform(rescale[0], rescale[1], pad, bitsStored);
+        final PixelBuffer actual = transform.apply(pixels);
+
+        // padding is matched on the value the data type holds, as getInt gives it
+        final double[] stored = new double[length];
+        final double[] cut = new double[length];
+        for (int i = 0; i < length; i++) {
+            stored[i] = toValue(pixels.getInt(i), dataType);
+            cut[i] = toValue((int) cut(pixels.getInt(i), dataType, bitsStored, pixels.isSigned()), dataType);
+        }
+        Double storedPad = null;
+        if (pad != null) {
+            final int padBits = pixels.isSigned() ? pad : pad & (pixels.getBytesPerPixel() == 1 ? 0xFF : 0xFFFF);
+            storedPad = toValue(padBits, dataType);
+        }
+        final double[] range = new double[2];
+        final double[] rescaled = transform(stored, cut, rescale[0], rescale[1], storedPad, range);
+
+        final boolean floats = actual.getDataType() == DICOMFile.FLOAT;
+        int index = actual.getDataType() == transform.getOutputType(dataType) && actual.getLength() == length ? 0
+                : -1;
+        while (index >= 0 && index < length && (floats ? actual.getFloat(index) == (float) rescaled[index]
+                : actual.getInt(index) == (int) (long) rescaled[index])) {
+            index++;
+        }
+        if (index != length || transform.getMin() != range[0] || transform.getMax() != range[1]) {
+            throw new AssertionError("PixelTransform.apply(" + pixels + ") with slope " + rescale[0]
+                    + ", intercept " + rescale[1] + ", pad " + pad + ", bits stored " + bitsStored + ": "
+                    + (index < 0 ? "result " + actual + ", expected type " + transform.getOutputType(dataType)
+                            : index < length ? "pixel " + index + " is " + (floats ? actual.getFloat(index)
+                                            : actual.getInt(index)) + ", expected " + rescaled[index]
+                                    : "range " + transform.getMin() + ".." + transform.getMax() + ", expected "
+                                    + range[0] + ".." + range[1]));
+        }
+    }
+
+    /**
+     * Compares {@link PixelBuffer#toIntArray()}, which widens with the kernel,
+     * with widening one pixel at a time.
+     *
+     * @param random the random source
+     * @param length number of pixels
+     */
+    private static void testPixelBuffer(final Random random, final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        final short[] shorts = new short[length];
+        for (int i = 0; i < length; i++) {
+            shorts[i] = (short) random.nextInt();
+        }
+
+        final PixelBuffer[] buffers = {new PixelBuffer.BytePixels(bytes, DICOMFile.BYTE),
+            new PixelBuffer.BytePixels(bytes, DICOMFile.UBYTE), new PixelBuffer.ShortPixels(shorts, DICOMFile.SHORT),
+            new PixelBuffer.ShortPixels(shorts, DICOMFile.USHORT)};
+        for (final PixelBuffer buffer : buffers) {
+            final int[] expected = new int[length];
+            for (int i = 0; i < length; i++) {
+                expected[i] = buffer.getInt(i);
+            }
+            if (!Arrays.equals(buffer.toIntArray(), expected)) {
+                throw new AssertionError("toIntArray of " + buffer + " differs from getInt");
+            }
+        }
+    }
+
+    /**
+     * The transform as specified, in double arithmetic: a pixel is padding if
+     * its stored or its cut value is the padding value; padding pixels are
+     * left out of the minimum and maximum, the others are rescaled from their
+     * cut value, and padding becomes the rescaled minimum if the padding value
+     * lies outside of the range of the other pixels, else it is rescaled
+     * itself. If every pixel is padding the range is the padding value.
+     *
+     * @param stored the stored pixels
+     * @param cut the pixels cut to Bits Stored
+     * @param slope the rescale slope, 0 is taken as 1
+     * @param intercept the rescale intercept
+     * @param pixelPad the padding value, <code>null</code> for none
+     * @param range receives the minimum and maximum of the cut pixels
+     *
+     * @return the rescaled pixels, not truncated
+     */
+    private static double[] transform(final double[] stored, final double[] cut, double slope,
+            final double intercept, final Double pixelPad, final double[] range) {
+        if (slope == 0) {
+            slope = 1;
+        }
+        final boolean[] padding = new boolean[stored.length];
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < stored.length; i++) {
+            padding[i] = pixelPad != null && (stored[i] == pixelPad || cut[i] == pixelPad);
+            if (!padding[i]) {
+                min = Math.min(min, cut[i]);
+                max = Math.max(max, cut[i]);
+            }
+        }
+        if (min > max) {
+            min = max = pixelPad == null ? 0 : pixelPad;
+        }
+        range[0] = min;
+        range[1] = max;
+
+        final double[] rescaled = new double[stored.length];
+        for (int i = 0; i < stored.length; i++) {
+            double value = cut[i];
+            if (padding[i]) {
+                value = pixelPad <= min || pixelPad >= max ? min : pixelPad;
+            }
+            rescaled[i] = value * slope + intercept;
+        }
+        return rescaled;
+    }
+
+    /**
+     * Cuts a pixel to Bits Stored as the specification has it: the low bits
+     * are kept, sign extended for signed data types, if Bits Stored is less
+     * than the size of the data type.
+     *
+     * @param pixel the pixel
+     * @param dataType the data type
+     * @param bitsStored Bits Stored, 0 if unknown
+     * @param signed whether the pixels are signed
+     *
+     * @return the cut pixel
+     */
+    private static long cut(final int pixel, final int dataType, final int bitsStored, final boolean signed) {
+        if (bitsStored <= 0 || bitsStored >= getSize(dataType)) {
+            return pixel;
+        }
+        final long low = pixel & ((1L << bitsStored) - 1);
+        return signed && low >= 1L << (bitsStored - 1) ? low - (1L << bitsStored) : low;
+    }
+
+    /**
+     * Returns the value of a pixel as the data type holds it.
+     *
+     * @param pixel the pixel, as {@link PixelBuffer#getInt(int)} gives it
+     * @param dataType the data type
+     *
+     * @return the value, unsigned for UINTEGER
+     */
+    private static double toValue(final int pixel, final int dataType) {
+        return dataType == DICOMFile.UINTEGER ? pixel & 0xFFFFFFFFL : pixel;
+    }
+
+    /**
+     * Returns the size of a data type.
+     *
+     * @param dataType the data type
+     *
+     * @return number of bits
+     */
+    private static int getSize(final int dataType) {
+        switch (dataType) {
+            case DICOMFile.BYTE:
+            case DICOMFile.UBYTE:
+                return 8;
+            case DICOMFile.SHORT:
+            case DICOMFile.USHORT:
+                return 16;
+            default:
+                return 32;
+        }
+    }
+
+    /**
+     * Returns whether a data type is signed.
+     *
+     * @param dataType the data type
+     *
+     * @return <code>false</code> for the unsigned data types
+     */
+    private static boolean isSigned(final int dataType) {
+        return dataType != DICOMFile.UBYTE && dataType != DICOMFile.USHORT && dataType != DICOMFile.UINTEGER;
+    }
+
+    /**
+     * Returns a random Bits Stored for a data type: unknown, a value that cuts
+     * the pixels, or the whole size of the data type.
+     *
+     * @param random the random source
+     * @param dataType the data type
+     *
+     * @return Bits Stored
+     */
+    private static int randomBitsStored(final Random random, final int dataType) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return 0;
+            case 1:
+                return getSize(dataType);
+            default:
+                return 1 + random.nextInt(getSize(dataType) - 1);
+        }
+    }
+
+    /**
+     * Returns a random pixel of a data type, as the int buffers of readImage
+     * hold it. Unsigned 16 bit pixels come zero and sign extended, as both
+     * occur.
+     *
+     * @param random the random source
+     * @param dataType the data type
+     *
+     * @return the pixel
+     */
+    private static int randomPixel(final Random random, final int dataType) {
+        switch (dataType) {
+            case DICOMFile.BYTE:
+                return (byte) random.nextInt();
+            case DICOMFile.UBYTE:
+                return random.nextInt(0x100);
+            case DICOMFile.SHORT:
+                return (short) random.nextInt();
+            case DICOMFile.USHORT:
+                return random.nextBoolean() ? random.nextInt(0x10000) : (short) random.nextInt();
+            default:
+                return random.nextBoolean() ? random.nextInt() : random.nextInt(0x1000) - 0x800;
+        }
+    }
+
+    /**
+     * Returns a random slope and intercept: mostly whole, which the kernel
+     * handles, sometimes fractional or too large for int arithmetic.
+     *
+     * @param random the random source
+     *
+     * @return the slope and the intercept
+     */
+    private static double[] randomRescale(final Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new double[]{random.nextGaussian() * 10, random.nextGaussian() * 1000};
+            case 1:
+                return new double[]{random.nextInt(1 << 16) - (1 << 15), random.nextInt(1 << 20) - (1 << 19)};
+            default:
+                return new double[]{random.nextInt(64) - 32, random.nextInt(8192) - 4096};
+        }
+    }
+
+    /**
+     * Throws if a kernel result differs from the scalar one.
+     *
+     * @param equal whether the results agree
+     * @param method the kernel method
+     * @param length number of pixels
+     * @param offset index of the first pixel
+     * @param flag the byte order or signedness flag
+     */
+    private static void check(final boolean equal, final String method, final int length, final int offset,
+            final boolean flag) {
+        if (!equal) {
+            throw new AssertionError(method + " differs from the scalar kernel for " + length + " pixels at offset "
+                    + offset + ", flag " + flag);
+        }
+    }
+}
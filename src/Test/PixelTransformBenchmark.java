@@ -0,0 +1,242 @@
+package Test;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import RawDCMLibary.model.PixelBuffer;
+import RawDCMLibary.model.PixelKernels;
+import RawDCMLibary.model.PixelTransform;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the modality rescale of {@link PixelTransform} against the two
+ * passes readImage made before: one for the minimum and maximum, one for
+ * padding and rescale. The pixels are random signed 12 bit CT values stored
+ * as 16 bit, Bits Stored 12, a part of them padding with -32768, the value
+ * readImage takes when the file gives none. Every variant runs on a fresh
+ * copy of the same pixels; the best and the median time are printed. The
+ * range must equal that of the two passes, and so must the pixels for whole
+ * slopes and intercepts whose results fit 16 bits; otherwise the two passes
+ * differ by their float arithmetic and 16 bit results, and the number of
+ * differing pixels is printed.
+ *
+ * <p>
+ * This is a plain main class rather than a JMH benchmark: the Ant build has
+ * no dependency management to fetch JMH with, and the other harnesses in this
+ * package are main classes too. The median keeps the first, not yet
+ * compiled runs out of the result, but there is no separate warm up and no
+ * fork, so give enough runs and start a fresh JVM for every setting.</p>
+ *
+ * <pre>
+ * java -cp RawDCMLibary.jar Test.PixelTransformBenchmark [-pixels n] [-runs n] [-slope x] [-intercept x] [-padding fraction]
+ * </pre>
+ *
+ * Run with <code>--add-modules jdk.incubator.vector</code> to time the
+ * vector kernel, with <code>-DRawDCMLibary.pixelKernel=scalar</code> for the
+ * scalar one.
+ */
+public class PixelTransformBenchmark {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * The padding value of the pixels.
+     */
+    private static final short PAD = Short.MIN_VALUE;
+
+    /**
+     * Bits Stored of the pixels.
+     */
+    private static final int BITS_STORED = 12;
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        int pixels = 512 * 512 * 64;
+        int runs = 20;
+        double slope = 1;
+        double intercept = -1024;
+        double padding = 0.1;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-pixels":
+                    pixels = Integer.parseInt(args[++i]);
+                    break;
+                case "-runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "-slope":
+                    slope = Double.parseDouble(args[++i]);
+                    break;
+                case "-intercept":
+                    intercept = Double.parseDouble(args[++i]);
+                    break;
+                case "-padding":
+                    padding = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.err.println("usage: PixelTransformBenchmark [-pixels n] [-runs n] [-slope x]"
+                            + " [-intercept x] [-padding fraction]");
+                    System.exit(2);
+            }
+        }
+
+        final Random random = new Random(42);
+        final short[] stored = new short[pixels];
+        final int[] input = new int[pixels];
+        for (int i = 0; i < pixels; i++) {
+            stored[i] = random.nextDouble() < padding ? PAD : (short) (random.nextInt(4096) - 2048);
+            input[i] = stored[i];
+        }
+        final int[] buffer = new int[pixels];
+        final boolean exact = slope == Math.rint(slope) && intercept == Math.rint(intercept)
+                && Math.abs(slope) * 2048 + Math.abs(intercept) <= Short.MAX_VALUE;
+
+        System.out.printf("%d pixels, slope %s, intercept %s, %.0f%% padding, %s%n", pixels, slope, intercept,
+                100 * padding, PixelKernels.get().getClass().getSimpleName());
+
+        final long[] twoPass = new long[runs];
+        final long[] fused = new long[runs];
+        final long[] typed = new long[runs];
+        final double[] range = new double[2];
+        int[] expected = null;
+        int differing = 0;
+        for (int run = 0; run < runs; run++) {
+            System.arraycopy(input, 0, buffer, 0, pixels);
+            long start = System.nanoTime();
+            twoPass(buffer, slope, intercept, PAD, range);
+            twoPass[run] = System.nanoTime() - start;
+            if (expected == null) {
+                expected = buffer.clone();
+            }
+
+            System.arraycopy(input, 0, buffer, 0, pixels);
+            final PixelTransform transform = new PixelTransform(slope, intercept, PAD, BITS_STORED);
+            start = System.nanoTime();
+            transform.apply(buffer, DICOMFile.SHORT);
+            fused[run] = System.nanoTime() - start;
+            if (transform.getMin() != range[0] || transform.getMax() != range[1]) {
+                throw new AssertionError("PixelTransform.apply(int[], int) finds the range " + transform.getMin()
+                        + ".." + transform.getMax() + ", the two passes " + range[0] + ".." + range[1]);
+            }
+            differing = count(buffer, expected);
+            if (exact && differing > 0) {
+                throw new AssertionError("PixelTransform.apply(int[], int) differs from the two passes in "
+                        + differing + " pixels");
+            }
+
+            final PixelBuffer source = new PixelBuffer.ShortPixels(stored, DICOMFile.SHORT);
+            final PixelTransform narrow = new PixelTransform(slope, intercept, PAD, BITS_STORED);
+            start = System.nanoTime();
+            final PixelBuffer result = narrow.apply(source);
+            typed[run] = System.nanoTime() - start;
+            if (exact && !Arrays.equals(result.toIntArray(), expected)) {
+                throw new AssertionError("PixelTransform.apply(PixelBuffer) differs from the two passes");
+            }
+        }
+
+        print("two passes, int[]", twoPass, pixels, twoPass);
+        print("PixelTransform, int[]", fused, pixels, twoPass);
+        print("PixelTransform, PixelBuffer", typed, pixels, twoPass);
+        if (!exact) {
+            System.out.println(differing + " pixels of the int variant differ from the two passes");
+        }
+    }
+
+    /**
+     * The padding and rescale of readImage before {@link PixelTransform}, as
+     * it was: a pass for the minimum and maximum of the pixels that are not
+     * padding, then a pass that rescales them and replaces padding, in float
+     * arithmetic with results cut to 16 bits.
+     *
+     * @param buffer the stored pixels, replaced by the rescaled pixels
+     * @param rescaleSlope the rescale slope
+     * @param rescaleIntercept the rescale intercept
+     * @param pixelPad the padding value
+     * @param range receives the minimum and maximum
+     */
+    private static void twoPass(final int[] buffer, final double rescaleSlope, final double rescaleIntercept,
+            final short pixelPad, final double[] range) {
+        double tmp;
+        double min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+
+        float slope = (float) rescaleSlope;
+        final float intercept = (float) rescaleIntercept;
+        if (slope == 0) {
+            slope = 1;
+        }
+
+        boolean setOneMinMax = false;
+        for (final double element : buffer) {
+            tmp = element;
+
+            if (tmp != pixelPad) {
+                setOneMinMax = true;
+                if (tmp < min) {
+                    min = tmp;
+                }
+                if (tmp > max) {
+                    max = tmp;
+                }
+            }
+        }
+        if (setOneMinMax == false) {
+            min = max = buffer[0];
+        }
+        range[0] = min;
+        range[1] = max;
+
+        if ((pixelPad <= min) || (pixelPad >= max)) {
+            for (int i = 0; i < buffer.length; i++) {
+                if (buffer[i] != pixelPad) {
+                    buffer[i] = (short) ((buffer[i] * slope) + intercept);
+                } else {
+                    buffer[i] = (short) ((min * slope) + intercept);
+                }
+            }
+        } else {
+            if ((slope != 1) || (intercept != 0)) {
+                for (int i = 0; i < buffer.length; i++) {
+                    buffer[i] = (short) ((buffer[i] * slope) + intercept);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the pixels in which two results differ.
+     *
+     * @param actual the pixels of a variant
+     * @param expected the pixels of the two passes
+     *
+     * @return number of differing pixels
+     */
+    private static int count(final int[] actual, final int[] expected) {
+        int differing = 0;
+        for (int i = 0; i < actual.length; i++) {
+            if (actual[i] != expected[i]) {
+                differing++;
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * Prints the best and the median time of a variant.
+     *
+     * @param name the variant
+     * @param times the time of every run
+     * @param pixels number of pixels
+     * @param reference the times of the two passes, for the speedup
+     */
+    private static void print(final String name, final long[] times, final int pixels, final long[] reference) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        final long[] sortedReference = reference.clone();
+        Arrays.sort(sortedReference);
+        final long median = sorted[sorted.length / 2];
+        System.out.printf("%-28s best %8.2f ms  median %8.2f ms  %7.1f Mpixel/s  %5.2fx%n", name, sorted[0] / 1e6,
+                median / 1e6, pixels / (median / 1e3), (double) sortedReference[sortedReference.length / 2] / median);
+    }
+}
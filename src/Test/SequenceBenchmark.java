@@ -0,0 +1,359 @@
+package Test;
+
+import RawDCMLibary.DICOM.DICOMFile;
+import RawDCMLibary.model.FileDicomSQ;
+import RawDCMLibary.model.FileDicomTag;
+import RawDCMLibary.model.FileDicomTagTable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * Timing harness for the sequence reader. It writes synthetic files with
+ * deeply nested sequences, one item per level as in a structured report, and
+ * with very wide sequences, many small items in one sequence, in sizes that
+ * double from one to the next. Every file is read several times and the best
+ * time per sequence item is printed. The harness fails if a file is not read
+ * completely, if reading throws, e.g. a {@link StackOverflowError}, or if the
+ * time per item of the largest file is more than <code>-slack</code> times
+ * that of the smallest, i.e. the time does not grow linearly.
+ *
+ * <pre>
+ * java -cp RawDCMLibary.jar Test.SequenceBenchmark [-depth n] [-width n] [-steps n] [-runs n] [-slack x] [-out directory]
+ * </pre>
+ *
+ * <code>-depth</code> and <code>-width</code> give the smallest sizes, the
+ * largest are <code>2^(steps-1)</code> times that. With <code>-out</code> the
+ * files are written to and kept in that directory.
+ */
+public class SequenceBenchmark {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+    /**
+     * Content Sequence, nested once per level in the deep files.
+     */
+    private static final int CONTENT_SEQUENCE = 0xA730;
+
+    /**
+     * Measurement Units Code Sequence, the sequence of the wide files.
+     */
+    private static final int WIDE_SEQUENCE = 0x0260;
+
+    /**
+     * Undefined length.
+     */
+    private static final int UNDEFINED = 0xFFFFFFFF;
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+    /**
+     * @param args the options
+     * @throws IOException if a file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = 1000;
+        int width = 10000;
+        int steps = 4;
+        int runs = 5;
+        double slack = 3;
+        Path out = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "-width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "-steps":
+                    steps = Integer.parseInt(args[++i]);
+                    break;
+                case "-runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "-slack":
+                    slack = Double.parseDouble(args[++i]);
+                    break;
+                case "-out":
+                    out = Paths.get(args[++i]);
+                    break;
+                default:
+                    System.err.println("usage: SequenceBenchmark [-depth n] [-width n] [-steps n] [-runs n]"
+                            + " [-slack x] [-out directory]");
+                    System.exit(2);
+            }
+        }
+
+        final Path directory = out != null ? Files.createDirectories(out) : Files.createTempDirectory("sequences");
+        try {
+            final double deep = measure(directory, true, depth, steps, runs, slack);
+            final double wide = measure(directory, false, width, steps, runs, slack);
+            System.out.printf("growth of the time per item, largest over smallest: deep %.2f, wide %.2f%n", deep, wide);
+        } finally {
+            if (out == null) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (final Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+
+    /**
+     * Writes and reads the files of one kind in every size.
+     *
+     * @param directory where the files are written
+     * @param deep <code>true</code> for nested, <code>false</code> for wide
+     * sequences
+     * @param smallest number of items in the smallest file
+     * @param steps number of sizes
+     * @param runs reads of every file, the best one counts
+     * @param slack largest allowed growth of the time per item
+     *
+     * @return the time per item of the largest file over that of the smallest
+     *
+     * @throws IOException if a file cannot be written or read
+     */
+    private static double measure(final Path directory, final boolean deep, final int smallest, final int steps,
+            final int runs, final double slack) throws IOException {
+        double first = 0;
+        double last = 0;
+
+        // written and read once before timing, so the smallest file is not timed in the interpreter
+        final Path[] files = new Path[steps];
+        for (int step = 0; step < steps; step++) {
+            final int items = smallest << step;
+            files[step] = directory.resolve((deep ? "deep_" : "wide_") + items + ".dcm");
+            Files.write(files[step], deep ? writeDeep(items) : writeWide(items));
+            read(files[step], deep, items);
+        }
+
+        for (int step = 0; step < steps; step++) {
+            final int items = smallest << step;
+            final Path file = files[step];
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                final long start = System.nanoTime();
+                final int read = read(file, deep, items);
+                best = Math.min(best, System.nanoTime() - start);
+                if (read != items) {
+                    throw new AssertionError(file + ": " + read + " of " + items + " items read");
+                }
+            }
+
+            final double perItem = (double) best / items;
+            if (step == 0) {
+                first = perItem;
+            }
+            last = perItem;
+            System.out.printf("%s %8d items %5d kB %8.2f ms %8.1f ns/item%n", deep ? "deep" : "wide", items,
+                    Files.size(file) / 1024, best / 1e6, perItem);
+        }
+
+        final double growth = last / first;
+        if (growth > slack) {
+            throw new AssertionError((deep ? "deep" : "wide") + " sequences: time per item grew " + growth
+                    + " times from " + smallest + " to " + (smallest << (steps - 1)) + " items");
+        }
+        return growth;
+    }
+
+    /**
+     * Reads a file with limits above its size and counts the items read.
+     *
+     * @param file the file
+     * @param deep <code>true</code> to count the nesting levels,
+     * <code>false</code> for the items of the wide sequence
+     * @param items number of items written
+     *
+     * @return number of items read
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static int read(final Path file, final boolean deep, final int items) throws IOException {
+        try (DICOMFile dicom = new DICOMFile(file.toString())) {
+            dicom.setPrintProblems(false);
+            dicom.setSequenceLimits(items + 1, 4 * items);
+            dicom.readHeaderOnly();
+
+            FileDicomTagTable table = dicom.getTagTable();
+            if (!deep) {
+                final FileDicomTag tag = table.get(String.format("0040,%04X", WIDE_SEQUENCE));
+                return tag == null ? 0 : ((FileDicomSQ) tag.getValue(false)).getSequenceLength();
+            }
+            int levels = 0;
+            FileDicomTag tag;
+            while ((tag = table.get(String.format("0040,%04X", CONTENT_SEQUENCE))) != null) {
+                levels++;
+                table = ((FileDicomSQ) tag.getValue(false)).getItem(0);
+            }
+            return levels;
+        }
+    }
+
+    /**
+     * Writes a file with sequences nested <code>depth</code> levels deep,
+     * every sequence and item of undefined length.
+     *
+     * @param depth number of nested sequences
+     *
+     * @return the file
+     */
+    private static byte[] writeDeep(final int depth) {
+        final Writer writer = new Writer();
+        writer.begin("1.2.840.10008.5.1.4.1.1.88.33");
+
+        for (int level = 0; level < depth; level++) {
+            writer.header(0x0040, CONTENT_SEQUENCE, "SQ", UNDEFINED);
+            writer.header(0xFFFE, 0xE000, null, UNDEFINED);
+            writer.string(0x0040, 0xA010, "CS", "CONTAINS");
+            writer.string(0x0040, 0xA040, "CS", "CONTAINER");
+        }
+        for (int level = 0; level < depth; level++) {
+            writer.header(0xFFFE, 0xE00D, null, 0);
+            writer.header(0xFFFE, 0xE0DD, null, 0);
+        }
+
+        writer.end();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writes a file with one sequence of <code>width</code> items, every item
+     * of defined length with a small nested sequence.
+     *
+     * @param width number of items
+     *
+     * @return the file
+     */
+    private static byte[] writeWide(final int width) {
+        final Writer writer = new Writer();
+        writer.begin("1.2.840.10008.5.1.4.1.1.2");
+
+        final Writer item = new Writer();
+        writer.header(0x0040, WIDE_SEQUENCE, "SQ", UNDEFINED);
+        for (int i = 0; i < width; i++) {
+            item.reset();
+            item.string(0x0008, 0x0100, "SH", Integer.toString(i));
+            item.string(0x0008, 0x0102, "SH", "DCM");
+            item.header(0x0008, 0x1199, "SQ", UNDEFINED);
+            item.header(0xFFFE, 0xE000, null, UNDEFINED);
+            item.string(0x0008, 0x1150, "UI", "1.2.840.10008.5.1.4.1.1.2");
+            item.header(0xFFFE, 0xE00D, null, 0);
+            item.header(0xFFFE, 0xE0DD, null, 0);
+
+            writer.header(0xFFFE, 0xE000, null, item.size());
+            writer.write(item.toByteArray(), 0, item.size());
+        }
+        writer.header(0xFFFE, 0xE0DD, null, 0);
+
+        writer.end();
+        return writer.toByteArray();
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+    /**
+     * Writes elements in Explicit VR Little Endian.
+     */
+    private static final class Writer extends ByteArrayOutputStream {
+
+        /**
+         * Writes the preamble, the meta information and the first elements of
+         * the data set.
+         *
+         * @param sopClass the SOP Class UID
+         */
+        void begin(final String sopClass) {
+            final Writer meta = new Writer();
+            meta.header(0x0002, 0x0001, "OB", 2);
+            meta.int16(0x0100);
+            meta.string(0x0002, 0x0002, "UI", sopClass);
+            meta.string(0x0002, 0x0003, "UI", "1.2.826.0.1.3680043.2.1125.1");
+            meta.string(0x0002, 0x0010, "UI", "1.2.840.10008.1.2.1");
+
+            write(new byte[128], 0, 128);
+            write(new byte[]{'D', 'I', 'C', 'M'}, 0, 4);
+            header(0x0002, 0x0000, "UL", 4);
+            int32(meta.size());
+            write(meta.toByteArray(), 0, meta.size());
+
+            string(0x0008, 0x0016, "UI", sopClass);
+            string(0x0008, 0x0018, "UI", "1.2.826.0.1.3680043.2.1125.1");
+            string(0x0008, 0x0060, "CS", "SR");
+        }
+
+        /**
+         * Writes the image elements, a 2 x 2 image, after the sequences.
+         */
+        void end() {
+            header(0x0028, 0x0010, "US", 2);
+            int16(2);
+            header(0x0028, 0x0011, "US", 2);
+            int16(2);
+            header(0x0028, 0x0100, "US", 2);
+            int16(16);
+            header(0x7FE0, 0x0010, "OW", 8);
+            write(new byte[8], 0, 8);
+        }
+
+        /**
+         * Writes the header of an element or item.
+         *
+         * @param group the group
+         * @param element the element
+         * @param vr the value representation, <code>null</code> for items and
+         * delimiters
+         * @param length the value length
+         */
+        void header(final int group, final int element, final String vr, final int length) {
+            int16(group);
+            int16(element);
+            if (vr == null) {
+                int32(length);
+            } else if (vr.equals("OB") || vr.equals("OW") || vr.equals("SQ")) {
+                write(vr.charAt(0));
+                write(vr.charAt(1));
+                int16(0);
+                int32(length);
+            } else {
+                write(vr.charAt(0));
+                write(vr.charAt(1));
+                int16(length);
+            }
+        }
+
+        /**
+         * Writes a string element, padded to an even length.
+         *
+         * @param group the group
+         * @param element the element
+         * @param vr the value representation
+         * @param value the value
+         */
+        void string(final int group, final int element, final String vr, final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            final int length = bytes.length + (bytes.length & 1);
+            header(group, element, vr, length);
+            write(bytes, 0, bytes.length);
+            if (length > bytes.length) {
+                write(vr.equals("UI") ? 0 : ' ');
+            }
+        }
+
+        void int16(final int value) {
+            write(value);
+            write(value >>> 8);
+        }
+
+        void int32(final int value) {
+            int16(value);
+            int16(value >>> 16);
+        }
+    }
+}